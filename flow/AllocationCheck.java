@@ -0,0 +1,287 @@
+// Copyright 2018 by George Mason University
+// Licensed under the Apache 2.0 License
+
+
+package flow;
+
+import flow.modules.*;
+import java.io.*;
+import java.lang.management.*;
+import java.util.*;
+import javax.sound.midi.*;
+
+/**
+   Checks that Flow doesn't allocate once it's running, as every allocation brings the next
+   garbage collection nearer, and a collection in the middle of a block is a click.
+
+   <p>AllocationCheck runs the go() method of every module listed in Modules for TICKS ticks, fed
+   by wandering inputs as in Benchmark, and gates and releases it every NOTE_TICKS.  Then it plays
+   every patch in flow/patches in an offline Output for TICKS ticks, pulsing the Sounds and
+   rendering each block, while notes go on and off through Input.  Each is first run for WARMUP
+   times as long, so the JIT compiler has done its work and anything allocated once (sort buffers,
+   say) has been.  Meanwhile it measures the bytes allocated by every thread with
+   com.sun.management.ThreadMXBean (see allocation()), and reports whatever allocated.  It exits
+   with status 1 if anything did, or if the JVM can't measure allocation, and with status 2 if
+   nothing did but some measurement went wrong.
+
+   <p>Usage: <tt>java flow.AllocationCheck [-ticks N] [-voices N] [modules] [patches]</tt>
+   (both by default), or <tt>make alloc</tt>.
+**/
+
+public class AllocationCheck
+    {
+    /** How many ticks are measured by default. */
+    public static final int DEFAULT_TICKS = 2000;
+    /** How many times as many ticks are run to warm up first. */
+    public static final int WARMUP = 3;
+    /** How many times the ticks are measured, at most, if they allocate. */
+    public static final int ROUNDS = 3;
+    /** How many ticks a note lasts, and then the gap before the next. */
+    public static final int NOTE_TICKS = 100;
+    /** How many notes the patches play at once. */
+    public static final int CHORD = 4;
+    static final String PATCH_DIRECTORY = "flow/patches";
+
+    /** Returned by allocation() if the allocation couldn't be measured. */
+    public static final long MEASUREMENT_ERROR = -1;
+
+    static int ticks = DEFAULT_TICKS;
+    static int errors = 0;
+    static com.sun.management.ThreadMXBean threads;
+
+    /** Something to run TICKS ticks of, starting at tick START. */
+    public static abstract class Ticker
+        {
+        public abstract void tick(int start, int ticks);
+        }
+
+    /** Returns the bytes allocated by all threads over TICKS ticks of TICKER, after warming up, or
+        MEASUREMENT_ERROR if they couldn't be measured.  Each thread is measured on its own, and only
+        threads alive both before and after the ticks count: a thread which exits in between (a voice
+        thread left over from the previous patch, say) no longer has a reading.
+        Now and then the JVM allocates a few hundred bytes of its own accord on one thread or another
+        (it doesn't when only the C1 compiler is used, so presumably it's recompiling something), so
+        if anything is allocated the ticks are run and measured again, up to ROUNDS times in all, and
+        the least is returned.  Anything Flow allocates every tick, or every note, shows up every time. */
+    public static long allocation(Ticker ticker)
+        {
+        ticker.tick(0, ticks * WARMUP);
+
+        long least = MEASUREMENT_ERROR;
+        for(int round = 0; round < ROUNDS && least != 0; round++)
+            {
+            // Threads started while warming up (the voice threads, say) are counted too.  The readings
+            // go into arrays made beforehand, so as not to count the measuring itself.
+            long[] threadIds = threads.getAllThreadIds();
+            long[] before = new long[threadIds.length];
+            long[] after = new long[threadIds.length];
+            for(int i = 0; i < threadIds.length; i++)
+                before[i] = threads.getThreadAllocatedBytes(threadIds[i]);
+            ticker.tick(ticks * (WARMUP + round), ticks);
+            for(int i = 0; i < threadIds.length; i++)
+                after[i] = threads.getThreadAllocatedBytes(threadIds[i]);
+
+            long bytes = 0;
+            for(int i = 0; i < threadIds.length; i++)
+                {
+                if (before[i] < 0 || after[i] < 0) continue;          // not alive for both, or not measurable
+                long b = after[i] - before[i];
+                if (b < 0) { bytes = MEASUREMENT_ERROR; break; }
+                bytes += b;
+                }
+            if (bytes != MEASUREMENT_ERROR && (least == MEASUREMENT_ERROR || bytes < least))
+                least = bytes;
+            }
+        return least;
+        }
+
+    // Prints the result for NAME, returning true if nothing was allocated.  A measurement error is
+    // counted in errors instead.
+    static boolean report(String name, long bytes)
+        {
+        String tab = (name.length() < 8 ? "\t\t" : (name.length() < 16 ? "\t" : " "));
+        if (bytes == MEASUREMENT_ERROR)
+            {
+            System.out.println(name + tab + "MEASUREMENT ERROR: the JVM's allocation counts went backwards");
+            errors++;
+            return true;
+            }
+        System.out.printf("%s%s%s\n", name, tab,
+            (bytes == 0 ? "OK" : "ALLOCATED " + bytes + " bytes, " + String.format("%.1f", bytes / (double)ticks) + " per tick"));
+        return bytes == 0;
+        }
+
+
+
+    //// MODULES
+
+    static boolean checkModules(Sound sound)
+        {
+        System.out.println("Module go() for " + ticks + " ticks, gated every " + (2 * NOTE_TICKS));
+        boolean ok = true;
+        Class<?>[] modules = Modules.getModules();
+        for(int m = 0; m < modules.length; m++)
+            {
+            String name = modules[m].getSimpleName();
+            if (modules[m] == AudioIn.class)
+                {
+                System.out.println(name + "\t\tskipped: it needs an audio input device");
+                continue;
+                }
+            try
+                {
+                final Benchmark.Wander wander = new Benchmark.Wander(sound);
+                final Benchmark.Wobble wobble = new Benchmark.Wobble(sound);
+                final Modulation mod = (Modulation)(modules[m].getConstructor(Sound.class).newInstance(sound));
+                for(int i = 0; i < mod.getNumModulations(); i++)
+                    mod.setModulation(wobble, i);
+                if (mod instanceof Unit)
+                    {
+                    Unit unit = (Unit) mod;
+                    for(int i = 0; i < unit.getNumInputs(); i++)
+                        unit.setInput(wander, i);
+                    }
+                mod.reset();
+
+                ok = report(name, allocation(new Ticker()
+                            {
+                            public void tick(int start, int ticks)
+                                {
+                                for(int t = start; t < start + ticks; t++)
+                                    {
+                                    if (t % (2 * NOTE_TICKS) == 0) mod.gate();
+                                    else if (t % (2 * NOTE_TICKS) == NOTE_TICKS) mod.release();
+                                    wander.go();
+                                    wobble.go();
+                                    if (!mod.isUpToDate())
+                                        mod.go();
+                                    }
+                                }
+                            })) && ok;
+                }
+            catch (Throwable ex)
+                {
+                System.out.println(name + "\tFAILED: " + ex);
+                ok = false;
+                }
+            }
+        System.out.println();
+        return ok;
+        }
+
+
+
+    //// PATCHES
+
+    static boolean checkPatches(final Output output) throws InvalidMidiDataException
+        {
+        System.out.println("Patches for " + ticks + " ticks with " + Output.getNumVoices() + " voices, " +
+            CHORD + " notes on for " + NOTE_TICKS + " ticks, then off for " + NOTE_TICKS);
+
+        // The messages are built ahead of time, as Midi would have built them
+        final ShortMessage[][] ons = new ShortMessage[2][CHORD];
+        final ShortMessage[][] offs = new ShortMessage[2][CHORD];
+        for(int c = 0; c < 2; c++)
+            for(int n = 0; n < CHORD; n++)
+                {
+                int note = 48 + c * 7 + n * 4;
+                ons[c][n] = new ShortMessage(ShortMessage.NOTE_ON, 0, note, 100);
+                offs[c][n] = new ShortMessage(ShortMessage.NOTE_OFF, 0, note, 64);
+                }
+        final Input input = output.getInput();
+
+        boolean ok = true;
+        File[] files = new File(PATCH_DIRECTORY).listFiles();
+        if (files == null)
+            {
+            System.out.println("No patches found in " + PATCH_DIRECTORY);
+            return false;
+            }
+        Arrays.sort(files);
+        for(int f = 0; f < files.length; f++)
+            {
+            String name = files[f].getName();
+            if (!name.endsWith(".flow")) continue;
+            name = name.substring(0, name.length() - 5);
+            try
+                {
+                output.loadPatch(Headless.loadPatchFile(files[f]));
+                ok = report(name, allocation(new Ticker()
+                            {
+                            public void tick(int start, int ticks)
+                                {
+                                for(int t = start; t < start + ticks; t++)
+                                    {
+                                    int c = (t / (2 * NOTE_TICKS)) % 2;             // alternate two chords
+                                    if (t % (2 * NOTE_TICKS) == 0)
+                                        for(int n = 0; n < CHORD; n++) input.processMessage(ons[c][n], 0);
+                                    else if (t % (2 * NOTE_TICKS) == NOTE_TICKS)
+                                        for(int n = 0; n < CHORD; n++) input.processMessage(offs[c][n], 0);
+                                    output.go();
+                                    output.renderBlock();
+                                    }
+                                }
+                            })) && ok;
+                }
+            catch (Throwable ex)
+                {
+                System.out.println(name + "\tFAILED: " + ex);
+                ok = false;
+                }
+            }
+        System.out.println();
+        return ok;
+        }
+
+
+
+    static void usage()
+        {
+        System.err.println("Usage: java flow.AllocationCheck [-ticks N] [-voices N] [modules] [patches]");
+        System.exit(1);
+        }
+
+    public static void main(String[] args) throws Exception
+        {
+        System.setProperty("java.awt.headless", "true");
+        System.setProperty("MidiDevice", Midi.NO_DEVICE);
+        System.setProperty("MidiDevice2", Midi.NO_DEVICE);
+        System.setProperty("Channel", "" + Input.CHANNEL_OMNI);
+
+        ArrayList<String> which = new ArrayList<String>();
+        for(int i = 0; i < args.length; i++)
+            {
+            if (args[i].equals("-ticks") && i + 1 < args.length)
+                ticks = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-voices") && i + 1 < args.length)
+                System.setProperty("Voices", args[++i]);
+            else if (args[i].equals("modules") || args[i].equals("patches"))
+                which.add(args[i]);
+            else usage();
+            }
+        if (which.isEmpty())
+            which.addAll(Arrays.asList(new String[] { "modules", "patches" }));
+
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean) ||
+            !((com.sun.management.ThreadMXBean)bean).isThreadAllocatedMemorySupported())
+            {
+            System.err.println("AllocationCheck.main() WARNING: this JVM can't measure the memory each thread allocates");
+            System.exit(1);
+            }
+        threads = (com.sun.management.ThreadMXBean)bean;
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        Output output = Headless.buildOutput(true);
+        boolean ok = true;
+        for(String w : which)
+            {
+            if (w.equals("modules")) ok = checkModules(output.getSoundUnsafe(0)) && ok;
+            else if (w.equals("patches")) ok = checkPatches(output) && ok;
+            }
+        if (!ok) System.out.println("Allocation found");
+        else if (errors > 0) System.out.println("No allocation found, but " + errors + " couldn't be measured");
+        else System.out.println("No allocation");
+        System.exit(!ok ? 1 : (errors > 0 ? 2 : 0));
+        }
+    }
@@ -87,6 +87,12 @@ public class AudioInput
     static final double MINIMUM_AMPLITUDE = 0.001;
     int sampleSize = WAVETABLE_SIZE * RESAMPLING;
     double[] b = new double[sampleSize];
+    // Scratch space for the FFT, so that process() doesn't allocate
+    FFT.Plan plan = new FFT.Plan(sampleSize);
+    double[] windowed = new double[sampleSize];
+    double[] real = new double[sampleSize];
+    double[] imag = new double[sampleSize];
+    double[] harmonics = new double[sampleSize];
     double[] buffer = new double[WAVETABLE_SIZE];
     byte[] sampleBuffer = new byte[WAVETABLE_SIZE * 2];
         
@@ -113,12 +119,10 @@ public class AudioInput
                 
             System.arraycopy(b, WAVETABLE_SIZE, b, 0, sampleSize - WAVETABLE_SIZE);
             System.arraycopy(buffer, 0, b, sampleSize - WAVETABLE_SIZE, WAVETABLE_SIZE);
-            //System.arraycopy(b, 0, a, 0, sampleSize);             // maybe a is unnecessarty as applyHanningWindow already clones
           
             // is Hanning COLA?     
-            double[] a = FFT.applyHanningWindow(b);
-            // we need options here for not allocating buffers over and over again
-            double[] harmonics = FFT.getHarmonics(a);
+            double[] a = FFT.applyHanningWindow(b, windowed);
+            double[] harmonics = FFT.getHarmonics(a, plan, real, imag, this.harmonics);
 
             synchronized(lock)
                 {
@@ -0,0 +1,35 @@
+// Copyright 2018 by George Mason University
+// Licensed under the Apache 2.0 License
+
+
+package flow;
+
+/**
+   An AudioSink is where the Output Thread sends its audio, one block of SKIP samples at a
+   time.  The samples are 16-bit signed little-endian, interleaved left and right if
+   Output.isStereo(), at Output.SAMPLING_RATE, as in Output.getAudioFormat().
+
+   <p>The sink may block in write(): a JavaSoundSink blocks until the audio device has room,
+   and this is what paces the Output Thread, and through it the rest of Flow, to real time.
+   A sink which doesn't block (a NullSink, WavSink, or RingBufferSink) lets Flow run as
+   fast as the CPU allows.
+
+   <p>Output.setSink() changes the sink.  Sinks are written to only by the Output Thread.
+**/
+
+public interface AudioSink
+    {
+    /** Writes LENGTH bytes of BUFFER, starting at OFFSET. */
+    public void write(byte[] buffer, int offset, int length);
+    
+    /** Returns true if the sink has nearly run dry, that is, the Output is not keeping up
+        with it.  Only real-time sinks ever do. */
+    public boolean isStarving();
+    
+    /** Returns how many bytes have been written but not yet played, or -1 if the sink
+        doesn't play in real time.  When this reaches zero the sink underruns. */
+    public int getQueued();
+    
+    /** Releases the sink's resources.  It will not be written to again. */
+    public void close();
+    }
@@ -0,0 +1,306 @@
+// Copyright 2018 by George Mason University
+// Licensed under the Apache 2.0 License
+
+
+package flow;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/**
+   A reusable barrier between one leader thread and a fixed pool of worker threads,
+   used by Scheduler to pulse its threads once per tick.
+
+   <p>Each round, the leader calls release(), which lets all the workers go with a single
+   write to the generation counter, then calls awaitCompletion().  Each worker waits
+   in awaitRelease(), does its work, then calls complete(), which counts down an atomic
+   counter.  The last worker to complete wakes the leader.
+
+   <p>Waiting threads first spin for a while on the generation (or the counter), as
+   the next round usually comes well within a tick, and only then park (on a single
+   processor they park right away).  Only parked
+   threads need to be unparked, so in the common case a round costs no monitor
+   transitions and no kernel wakeups at all.
+
+   <p>You can compare the Barrier against a wait/notify handshake with
+   <tt>java flow.Barrier [workers] [rounds]</tt>
+**/
+
+public class Barrier
+    {
+    /** How many times a waiting thread checks before it parks.  On a single processor,
+        spinning just keeps the thread we're waiting on from running, so we don't. */
+    public static final int SPINS = (Runtime.getRuntime().availableProcessors() > 1 ? 20000 : 0);
+
+    final int numWorkers;
+    volatile int generation = 0;
+    final AtomicInteger remaining = new AtomicInteger(0);
+
+    // Threads which are currently parked (or about to park), so they can be unparked
+    final AtomicReferenceArray<Thread> parkedWorkers;
+    volatile Thread parkedLeader;
+
+    public Barrier(int numWorkers)
+        {
+        this.numWorkers = numWorkers;
+        parkedWorkers = new AtomicReferenceArray<Thread>(numWorkers);
+        }
+
+    /** Returns the number of workers. */
+    public int getNumWorkers() { return numWorkers; }
+
+    /** Returns the current generation.  Read this before starting the worker threads, and have
+        them pass it to their first awaitRelease(): a worker which reads it once it's running
+        might miss the first release. */
+    public int getGeneration() { return generation; }
+
+    //// LEADER
+
+    /** Called by the leader to start a round.  All the workers are released. */
+    public void release()
+        {
+        remaining.set(numWorkers);
+        generation = generation + 1;            // only the leader writes this
+        for(int i = 0; i < numWorkers; i++)
+            {
+            Thread thread = parkedWorkers.get(i);
+            if (thread != null) LockSupport.unpark(thread);
+            }
+        }
+
+    /** Called by the leader after release() to wait until every worker has called complete(). */
+    public void awaitCompletion()
+        {
+        for(int i = 0; i < SPINS; i++)
+            {
+            if (remaining.get() == 0) return;
+            }
+        parkedLeader = Thread.currentThread();
+        while(remaining.get() != 0)
+            {
+            LockSupport.park(this);
+            }
+        parkedLeader = null;
+        }
+
+    //// WORKERS
+
+    /** Called by worker WORKER to wait until the leader has released a generation after GENERATION.
+        Returns the new generation, to be passed in next time. */
+    public int awaitRelease(int worker, int generation)
+        {
+        for(int i = 0; i < SPINS; i++)
+            {
+            int g = this.generation;
+            if (g != generation) return g;
+            }
+        parkedWorkers.set(worker, Thread.currentThread());
+        int g;
+        while((g = this.generation) == generation)
+            {
+            LockSupport.park(this);
+            }
+        parkedWorkers.set(worker, null);
+        return g;
+        }
+
+    /** Called by a worker when it has finished its work for the round. */
+    public void complete()
+        {
+        if (remaining.decrementAndGet() == 0)
+            {
+            Thread thread = parkedLeader;
+            if (thread != null) LockSupport.unpark(thread);
+            }
+        }
+
+
+
+    //// BENCHMARK
+
+    // The wait/notify handshake which Output used to use, one lock and one semaphore per worker
+    static class Handshake
+        {
+        Object[] locks;
+        boolean[] semaphores;
+
+        Handshake(int numWorkers)
+            {
+            locks = new Object[numWorkers];
+            semaphores = new boolean[numWorkers];
+            for(int i = 0; i < numWorkers; i++)
+                locks[i] = new Object[0];
+            }
+
+        void block(int worker, boolean val)
+            {
+            synchronized(locks[worker])
+                {
+                while(semaphores[worker] != val)
+                    {
+                    try { locks[worker].wait(); } catch (Exception e) { }
+                    }
+                }
+            }
+
+        void signal(int worker, boolean val)
+            {
+            synchronized(locks[worker])
+                {
+                semaphores[worker] = val;
+                locks[worker].notify();
+                }
+            }
+        }
+
+    /** Measures, for each round, the latency from the leader releasing the workers to the last
+        worker starting its work, and the time for the whole round, with a tiny bit of work per worker.
+        Rounds are spaced out by a tick's worth of sleep to mimic Output, so threads may well have
+        parked in between. */
+    public static void main(String[] args) throws Exception
+        {
+        int numWorkers = (args.length > 0 ? Integer.parseInt(args[0]) : Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+        int rounds = (args.length > 1 ? Integer.parseInt(args[1]) : 5000);
+        long tick = (long)(1000000000.0 * Output.DEFAULT_SKIP / Output.SAMPLING_RATE);
+        System.out.println("Workers: " + numWorkers + "  Rounds: " + rounds + "  Tick: " + tick + "ns");
+        System.out.println("Mechanism\tWake median\tWake 99%\tRound median\tRound 99%  (ns)");
+        for(int trial = 0; trial < 2; trial++)          // the first trial is a warmup
+            {
+            report("wait/notify", runHandshake(numWorkers, rounds, tick), trial);
+            report("Barrier\t", runBarrier(numWorkers, rounds, tick), trial);
+            }
+        }
+
+    static void report(String name, long[][] times, int trial)
+        {
+        if (trial == 0) return;
+        System.out.println(name + "\t" + percentile(times[0], 0.5) + "\t\t" + percentile(times[0], 0.99) +
+            "\t\t" + percentile(times[1], 0.5) + "\t\t" + percentile(times[1], 0.99));
+        }
+
+    static long percentile(long[] times, double p)
+        {
+        long[] t = times.clone();
+        Arrays.sort(t);
+        return t[(int)(p * (t.length - 1))];
+        }
+
+    static void pause(long nanos)
+        {
+        long end = System.nanoTime() + nanos;
+        while(System.nanoTime() < end)
+            LockSupport.parkNanos(end - System.nanoTime());
+        }
+
+    // Returns [wake latencies, round times]
+    static long[][] runHandshake(final int numWorkers, final int rounds, long tick) throws Exception
+        {
+        final Handshake handshake = new Handshake(numWorkers);
+        final AtomicLong lastWake = new AtomicLong();
+        final double[] sink = new double[numWorkers];
+        Thread[] threads = new Thread[numWorkers];
+        for(int i = 0; i < numWorkers; i++)
+            {
+            final int _i = i;
+            threads[i] = new Thread(new Runnable()
+                {
+                public void run()
+                    {
+                    for(int r = 0; r < rounds; r++)
+                        {
+                        handshake.block(_i, true);
+                        noteWake(lastWake);
+                        sink[_i] += work(_i);
+                        handshake.signal(_i, false);
+                        }
+                    }
+                });
+            threads[i].setDaemon(true);
+            threads[i].start();
+            }
+
+        long[] wakes = new long[rounds];
+        long[] totals = new long[rounds];
+        for(int r = 0; r < rounds; r++)
+            {
+            pause(tick);
+            lastWake.set(0);
+            long start = System.nanoTime();
+            for(int i = 0; i < numWorkers; i++)
+                handshake.signal(i, true);
+            for(int i = 0; i < numWorkers; i++)
+                handshake.block(i, false);
+            totals[r] = System.nanoTime() - start;
+            wakes[r] = lastWake.get() - start;
+            }
+        for(int i = 0; i < numWorkers; i++)
+            threads[i].join();
+        return new long[][] { wakes, totals };
+        }
+
+    // Returns [wake latencies, round times]
+    static long[][] runBarrier(final int numWorkers, final int rounds, long tick) throws Exception
+        {
+        final Barrier barrier = new Barrier(numWorkers);
+        final int initialGeneration = barrier.getGeneration();
+        final AtomicLong lastWake = new AtomicLong();
+        final double[] sink = new double[numWorkers];
+        Thread[] threads = new Thread[numWorkers];
+        for(int i = 0; i < numWorkers; i++)
+            {
+            final int _i = i;
+            threads[i] = new Thread(new Runnable()
+                {
+                public void run()
+                    {
+                    int generation = initialGeneration;
+                    for(int r = 0; r < rounds; r++)
+                        {
+                        generation = barrier.awaitRelease(_i, generation);
+                        noteWake(lastWake);
+                        sink[_i] += work(_i);
+                        barrier.complete();
+                        }
+                    }
+                });
+            threads[i].setDaemon(true);
+            threads[i].start();
+            }
+
+        long[] wakes = new long[rounds];
+        long[] totals = new long[rounds];
+        for(int r = 0; r < rounds; r++)
+            {
+            pause(tick);
+            lastWake.set(0);
+            long start = System.nanoTime();
+            barrier.release();
+            barrier.awaitCompletion();
+            totals[r] = System.nanoTime() - start;
+            wakes[r] = lastWake.get() - start;
+            }
+        for(int i = 0; i < numWorkers; i++)
+            threads[i].join();
+        return new long[][] { wakes, totals };
+        }
+
+    // Records the latest time any worker woke up
+    static void noteWake(AtomicLong lastWake)
+        {
+        long now = System.nanoTime();
+        while(true)
+            {
+            long last = lastWake.get();
+            if (last >= now || lastWake.compareAndSet(last, now)) return;
+            }
+        }
+
+    static double work(int seed)
+        {
+        double d = seed;
+        for(int i = 0; i < 200; i++)
+            d = d * 0.999 + i;
+        return d;
+        }
+    }
@@ -0,0 +1,683 @@
+// Copyright 2018 by George Mason University
+// Licensed under the Apache 2.0 License
+
+
+package flow;
+
+import flow.modules.*;
+import java.util.*;
+
+/**
+   Microbenchmarks for the parts of Flow which run every tick: the render kernel
+   (Output.buildSamples()), partial sorting (Unit.simpleSort() and Unit.bigSort()), the fast math
+   in Utility, and the go() method of every module listed in Modules.
+
+   <p>Each measurement runs its code in a loop for a while to warm up the JIT, then
+   times TRIALS runs of about SECONDS / TRIALS seconds each and reports the median, in
+   nanoseconds per operation.  Results are summed into a volatile field so the JIT
+   can't throw the work away.  Where a measurement needs some setup done on every
+   operation (restoring the unsorted partials, say), it's timed on its own as a baseline
+   and subtracted.
+
+   <p>The modules are each built, reset, and gated, with every unit input
+   fed by a Unit whose partials wander randomly from tick to tick, and every modulation
+   input fed by a Modulation which does the same.  The report gives each module's cost
+   per go() and the fraction of a single core's tick it would take in every one of 32 voices.
+
+   <p>The sorts are run as modules run them, on partials whose amplitudes and orders are direct links
+   to another Unit's, and the bytes they allocate per sort are reported too (see allocation()): this
+   should be zero.
+
+   <p>The voice allocator (VoiceAllocator) is run through an MPE message storm with VOICES
+   voices spread over 32 groups: each note arrives on its own channel and gets a pitch bend,
+   poly and channel aftertouch, and a note off, and half the voices are held at any time.  The
+   same storm is run through the LinkedList scans Input used before, for comparison.
+
+   <p>The memoizable modules (see Unit.isMemoizable()) are also run with their inputs held still, as
+   they mostly are between notes, both as the Sound runs them, skipping go() when it can, and with go()
+   called every tick regardless.
+
+   <p>Usage: <tt>java flow.Benchmark [-seconds S] [render] [sort] [math] [modules] [memo] [voices]</tt>
+   (all six by default), or <tt>make bench</tt>.
+**/
+
+public class Benchmark
+    {
+    /** How many timed runs make up a measurement. */
+    public static final int TRIALS = 5;
+    /** The least time, in ns, spent warming up before a measurement. */
+    public static final long WARMUP = 200000000L;
+
+    /** Something to be timed.  run() performs REPS operations and returns some result of them. */
+    public static abstract class Bench
+        {
+        public abstract double run(int reps);
+        }
+
+    // Where results go so they aren't optimized away
+    static volatile double sink;
+
+    static double seconds = 1.0;
+
+    /** Returns the median time in ns per operation of BENCH, less that of BASELINE (which may be null). */
+    public static double measure(Bench bench, Bench baseline)
+        {
+        double time = measure(bench);
+        if (baseline != null) time -= measure(baseline);
+        return Math.max(time, 0);
+        }
+
+    /** Returns the median time in ns per operation of BENCH. */
+    public static double measure(Bench bench)
+        {
+        // Warm up for a trial's worth of time (at least WARMUP), so the JIT has compiled everything,
+        // and meanwhile find how many reps take a trial's worth of time
+        long trial = (long)(seconds * 1000000000L / TRIALS);
+        long warmup = Math.max(trial, WARMUP);
+        long warmed = 0;
+        int reps = 1;
+        while(true)
+            {
+            long start = System.nanoTime();
+            sink += bench.run(reps);
+            long time = System.nanoTime() - start;
+            warmed += time;
+            if (warmed > warmup && time > trial / 4 || reps >= (1 << 30))
+                {
+                reps = (int)Math.max(1, Math.min(1 << 30, reps * (double)trial / Math.max(time, 1)));
+                break;
+                }
+            if (time < trial / 4) reps *= 2;
+            }
+
+        double[] times = new double[TRIALS];
+        for(int i = 0; i < TRIALS; i++)
+            {
+            long start = System.nanoTime();
+            sink += bench.run(reps);
+            times[i] = (System.nanoTime() - start) / (double)reps;
+            }
+        Arrays.sort(times);
+        return times[TRIALS / 2];
+        }
+
+
+
+    /** Returns the bytes allocated on this thread per operation of BENCH, over REPS operations run after 
+        a warmup of the same, or NaN if the JVM can't tell. */
+    public static double allocation(Bench bench, int reps)
+        {
+        java.lang.management.ThreadMXBean bean = java.lang.management.ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) return Double.NaN;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)bean;
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) return Double.NaN;
+        
+        long id = Thread.currentThread().getId();
+        sink += bench.run(reps);
+        long before = threads.getThreadAllocatedBytes(id);
+        sink += bench.run(reps);
+        return (threads.getThreadAllocatedBytes(id) - before) / (double)reps;
+        }
+
+
+
+    //// RENDER
+
+    static void benchmarkRender()
+        {
+        System.out.println("Output.buildSamples(), one block of " + Output.DEFAULT_SKIP + " samples");
+        System.out.println("Partials\tDephase\tns/block\tns/partial/sample");
+        Random random = new Random(500);
+        for(final int numPartials : new int[] { 64, 128, 256 })
+            for(int d = 0; d < 2; d++)
+                {
+                final boolean dephase = (d == 1);
+                final double[] amp = new double[numPartials];
+                final double[] freq = new double[numPartials];
+                final byte[] orders = new byte[numPartials];
+                final int[] indexes = new int[numPartials];
+                for(int i = 0; i < numPartials; i++)
+                    {
+                    freq[i] = i + 1;
+                    amp[i] = random.nextDouble() / (i + 1);
+                    orders[i] = (byte)i;
+                    indexes[i] = i;
+                    }
+                final double[] pos = new double[numPartials];
+                final double[] currentAmp = amp.clone();
+                final double[] samples = new double[Output.DEFAULT_SKIP];
+
+                double time = measure(new Bench()
+                    {
+                    public double run(int reps)
+                        {
+                        for(int r = 0; r < reps; r++)
+                            Output.buildSamples(samples, samples.length, amp, freq, orders, indexes, numPartials, pos, currentAmp,
+                                // a low pitch, so that even at 256 partials they're all below Nyquist
+                                40.0, 1.0, dephase);
+                        return samples[0];
+                        }
+                    });
+                System.out.printf("%d\t\t%b\t%.1f\t\t%.3f\n", numPartials, dephase, time, time / numPartials / samples.length);
+                }
+        System.out.println();
+        }
+
+
+
+    //// SORT
+
+    static void benchmarkSort(Sound sound)
+        {
+        System.out.println("Unit sorting of " + Unit.NUM_PARTIALS + " partials linked from another Unit (less the time to restore them)");
+        System.out.println("Partials\t\tsimpleSort ns\tbigSort ns\tbytes/sort");
+        Random random = new Random(500);
+        for(int s = 0; s < 2; s++)
+            {
+            boolean shuffled = (s == 1);
+            final double[] freq = new double[Unit.NUM_PARTIALS];
+            for(int i = 0; i < freq.length; i++)
+                freq[i] = i + 1;
+            if (shuffled)
+                {
+                for(int i = freq.length - 1; i > 0; i--)
+                    {
+                    int j = random.nextInt(i + 1);
+                    double t = freq[i]; freq[i] = freq[j]; freq[j] = t;
+                    }
+                }
+            else
+                {
+                // swap a few neighbors, as when partials cross as they drift
+                for(int i = 0; i < freq.length / 8; i++)
+                    {
+                    int j = random.nextInt(freq.length - 1);
+                    double t = freq[j]; freq[j] = freq[j + 1]; freq[j + 1] = t;
+                    }
+                }
+
+            // As in most modules, the unit's amplitudes and orders are direct links to its input's,
+            // so sorting them means copying them first
+            final Unit input = new Unit(sound);
+            final Unit unit = new Unit(sound);
+            Bench restore = new Bench()
+                {
+                public double run(int reps)
+                    {
+                    for(int r = 0; r < reps; r++)
+                        {
+                        System.arraycopy(freq, 0, unit.frequencies[0], 0, freq.length);
+                        unit.amplitudes[0] = input.amplitudes[0];
+                        unit.orders[0] = input.orders[0];
+                        }
+                    return unit.frequencies[0][0];
+                    }
+                };
+            Bench simple = new Bench()
+                {
+                public double run(int reps)
+                    {
+                    for(int r = 0; r < reps; r++)
+                        {
+                        System.arraycopy(freq, 0, unit.frequencies[0], 0, freq.length);
+                        unit.amplitudes[0] = input.amplitudes[0];
+                        unit.orders[0] = input.orders[0];
+                        unit.simpleSort(0, true);
+                        }
+                    return unit.frequencies[0][0];
+                    }
+                };
+            Bench big = new Bench()
+                {
+                public double run(int reps)
+                    {
+                    for(int r = 0; r < reps; r++)
+                        {
+                        System.arraycopy(freq, 0, unit.frequencies[0], 0, freq.length);
+                        unit.amplitudes[0] = input.amplitudes[0];
+                        unit.orders[0] = input.orders[0];
+                        unit.bigSort(0, true);
+                        }
+                    return unit.frequencies[0][0];
+                    }
+                };
+            double simpleTime = measure(simple, restore);
+            double bigTime = measure(big, restore);
+            double bytes = Math.max(allocation(simple, 100000), allocation(big, 100000));
+            System.out.printf("%s\t%.1f\t\t%.1f\t\t%.2f\n", (shuffled ? "Shuffled\t" : "Nearly sorted"), simpleTime, bigTime, bytes);
+            if (bytes >= 1)
+                System.err.println("Benchmark.benchmarkSort() WARNING: sorting allocated " + bytes + " bytes per sort; it should allocate none");
+            }
+        System.out.println();
+        }
+
+
+
+    //// VOICES
+
+    /** The number of voices the voices benchmark allocates among. */
+    public static final int VOICES = 64;
+    static final int STORM_GROUPS = 32;
+    static final int MESSAGES_PER_NOTE = 5;
+
+    static void benchmarkVoices(Sound sound)
+        {
+        final Output output = sound.getOutput();
+        final int numVoices = Math.min(VOICES, Output.getNumVoices());
+        while(output.getNumSounds() < numVoices)
+            new Sound(output);
+        final Sound[] sounds = new Sound[numVoices];
+        final VoiceAllocator voices = new VoiceAllocator(numVoices);
+        final LinkedList<Sound> notesOn = new LinkedList<Sound>();
+        final LinkedList<Sound> notesOff = new LinkedList<Sound>();
+        for(int v = 0; v < numVoices; v++)
+            {
+            sounds[v] = output.getSoundUnsafe(v);
+            sounds[v].setGroup(v % STORM_GROUPS);
+            sounds[v].setChannel(Input.CHANNEL_NONE);
+            voices.add(sounds[v]);
+            notesOff.add(sounds[v]);
+            }
+
+        // The storm: note k plays on group k % STORM_GROUPS, on one of the 15 MPE member channels,
+        // and is released numVoices / 2 notes later
+        final int held = numVoices / 2;
+        final int[] channels = new int[held];
+        final int[] notes = new int[held];
+
+        System.out.println("Voice allocation in an MPE storm, " + numVoices + " voices in " + STORM_GROUPS + " groups");
+        System.out.println("Allocator		ns/message");
+        double indexed = measure(new Bench()
+            {
+            int k = 0;
+            public double run(int reps)
+                {
+                for(int r = 0; r < reps; r++, k++)
+                    {
+                    int slot = k % held;
+                    if (k >= held)
+                        {
+                        Sound s = voices.findHeld(channels[slot], notes[slot], null);
+                        if (s != null) voices.free(s);
+                        }
+                    int channel = 1 + k % 15;
+                    int note = 24 + (k * 7) % 80;
+                    channels[slot] = channel;
+                    notes[slot] = note;
+                    int g = k % STORM_GROUPS;
+                    Sound sound = voices.takeFree(g);
+                    if (sound == null) sound = voices.takeHeld(g);
+                    if (sound == null) continue;
+                    voices.hold(sound, channel, note);
+                    for(int v = voices.firstInSlot(channel); v >= 0; v = voices.nextInSlot(v))
+                        voices.getSound(v).setBend(1.0);
+                    Sound s = voices.findHeld(channel, note, null);
+                    if (s != null) s.setAftertouch(0.5);
+                    for(int v = voices.firstInSlot(channel); v >= 0; v = voices.nextInSlot(v))
+                        voices.getSound(v).setAftertouch(0.5);
+                    }
+                return voices.getNumHeld();
+                }
+            });
+        System.out.printf("VoiceAllocator		%.1f\n", indexed / MESSAGES_PER_NOTE);
+
+        double scanned = measure(new Bench()
+            {
+            int k = 0;
+            public double run(int reps)
+                {
+                for(int r = 0; r < reps; r++, k++)
+                    {
+                    int slot = k % held;
+                    if (k >= held)
+                        {
+                        for(Iterator<Sound> i = notesOn.iterator(); i.hasNext(); )
+                            {
+                            Sound s = i.next();
+                            if (s.getChannel() == channels[slot] && s.getMIDINote() == notes[slot])
+                                {
+                                i.remove();
+                                notesOff.addFirst(s);
+                                break;
+                                }
+                            }
+                        }
+                    int channel = 1 + k % 15;
+                    int note = 24 + (k * 7) % 80;
+                    channels[slot] = channel;
+                    notes[slot] = note;
+                    int g = k % STORM_GROUPS;
+                    Sound sound = null;
+                    for(int j = notesOff.size() - 1; j >= 0 && sound == null; j--)
+                        if (notesOff.get(j).getGroup() == g) sound = notesOff.remove(j);
+                    for(int j = notesOn.size() - 1; j >= 0 && sound == null; j--)
+                        if (notesOn.get(j).getGroup() == g) sound = notesOn.remove(j);
+                    if (sound == null) continue;
+                    notesOn.addFirst(sound);
+                    sound.setChannel(channel);
+                    sound.setMIDINote(note);
+                    for(Sound s : notesOn)
+                        if (s.getChannel() == channel) s.setBend(1.0);
+                    for(Sound s : notesOff)
+                        if (s.getChannel() == channel) s.setBend(1.0);
+                    for(Sound s : notesOn)
+                        if (s.getChannel() == channel && s.getMIDINote() == note) { s.setAftertouch(0.5); break; }
+                    for(Sound s : notesOn)
+                        if (s.getChannel() == channel) s.setAftertouch(0.5);
+                    for(Sound s : notesOff)
+                        if (s.getChannel() == channel) s.setAftertouch(0.5);
+                    }
+                return notesOn.size();
+                }
+            });
+        System.out.printf("LinkedList scans	%.1f\n", scanned / MESSAGES_PER_NOTE);
+        System.out.println();
+        }
+
+
+
+    //// MATH
+
+    static void benchmarkMath()
+        {
+        System.out.println("Utility fast math against java.lang.Math");
+        System.out.println("Function\tUtility ns\tMath ns\t\tMax Error");
+        final int n = 1024;
+        final double[] x = new double[n];
+        final double[] y = new double[n];
+        Random random = new Random(500);
+        for(int i = 0; i < n; i++)
+            {
+            x[i] = random.nextDouble() * Output.PI2;
+            y[i] = random.nextDouble() * 4 - 2;
+            }
+
+        double sinError = 0;
+        double powError = 0;
+        double hybridError = 0;
+        for(int i = 0; i < n; i++)
+            {
+            sinError = Math.max(sinError, Math.abs(Utility.fastSin(x[i]) - Math.sin(x[i])));
+            double p = Math.pow(2.0, y[i]);
+            powError = Math.max(powError, Math.abs(Utility.fastpow(2.0, y[i]) - p) / p);
+            hybridError = Math.max(hybridError, Math.abs(Utility.hybridpow(2.0, y[i]) - p) / p);
+            }
+
+        double fastSin = measure(new Bench()
+            {
+            public double run(int reps)
+                {
+                double sum = 0;
+                for(int r = 0; r < reps; r++)
+                    sum += Utility.fastSin(x[r & (n - 1)]);
+                return sum;
+                }
+            });
+        double sin = measure(new Bench()
+            {
+            public double run(int reps)
+                {
+                double sum = 0;
+                for(int r = 0; r < reps; r++)
+                    sum += Math.sin(x[r & (n - 1)]);
+                return sum;
+                }
+            });
+        double fastpow = measure(new Bench()
+            {
+            public double run(int reps)
+                {
+                double sum = 0;
+                for(int r = 0; r < reps; r++)
+                    sum += Utility.fastpow(2.0, y[r & (n - 1)]);
+                return sum;
+                }
+            });
+        double hybridpow = measure(new Bench()
+            {
+            public double run(int reps)
+                {
+                double sum = 0;
+                for(int r = 0; r < reps; r++)
+                    sum += Utility.hybridpow(2.0, y[r & (n - 1)]);
+                return sum;
+                }
+            });
+        double pow = measure(new Bench()
+            {
+            public double run(int reps)
+                {
+                double sum = 0;
+                for(int r = 0; r < reps; r++)
+                    sum += Math.pow(2.0, y[r & (n - 1)]);
+                return sum;
+                }
+            });
+        System.out.printf("fastSin\t\t%.2f\t\t%.2f\t\t%.3g\n", fastSin, sin, sinError);
+        System.out.printf("fastpow\t\t%.2f\t\t%.2f\t\t%.3g (relative)\n", fastpow, pow, powError);
+        System.out.printf("hybridpow\t%.2f\t\t%.2f\t\t%.3g (relative)\n", hybridpow, pow, hybridError);
+        System.out.println();
+        }
+
+
+
+    //// MODULES
+
+    // How many different random frames the inputs cycle through
+    static final int NUM_FRAMES = 64;
+
+    /** A Unit whose partials wander at random from tick to tick, around a harmonic series. */
+    public static class Wander extends Unit
+        {
+        double[][] amps = new double[NUM_FRAMES][NUM_PARTIALS];
+        double[][] freqs = new double[NUM_FRAMES][NUM_PARTIALS];
+        int frame = 0;
+
+        public Wander(Sound sound)
+            {
+            super(sound);
+            Random random = new Random(500);
+            for(int f = 0; f < NUM_FRAMES; f++)
+                for(int i = 0; i < NUM_PARTIALS; i++)
+                    {
+                    amps[f][i] = random.nextDouble() / (i + 1);
+                    freqs[f][i] = (i + 1) + (random.nextDouble() - 0.5) * 0.1;
+                    }
+            }
+
+        public void go()
+            {
+            super.go();
+            System.arraycopy(amps[frame], 0, getAmplitudes(0), 0, NUM_PARTIALS);
+            System.arraycopy(freqs[frame], 0, getFrequencies(0), 0, NUM_PARTIALS);
+            frame = (frame + 1) % NUM_FRAMES;
+            }
+        }
+
+    /** A Modulation whose output wanders at random from tick to tick. */
+    public static class Wobble extends Modulation
+        {
+        double[] vals = new double[NUM_FRAMES];
+        int frame = 0;
+
+        public Wobble(Sound sound)
+            {
+            super(sound);
+            Random random = new Random(501);
+            for(int f = 0; f < NUM_FRAMES; f++)
+                vals[f] = random.nextDouble();
+            }
+
+        public void go()
+            {
+            super.go();
+            setModulationOutput(0, vals[frame]);
+            frame = (frame + 1) % NUM_FRAMES;
+            }
+        }
+
+    // Returns something the module computed
+    static double result(Modulation mod)
+        {
+        if (mod instanceof Unit && ((Unit)mod).getNumOutputs() > 0)
+            return ((Unit)mod).getAmplitudes(0)[0];
+        else if (mod.getNumModulationOutputs() > 0)
+            return mod.getModulationOutput(0);
+        else return 0;
+        }
+
+    static void benchmarkModules(Sound sound)
+        {
+        double tick = 1000000000.0 * Output.getSkip() / Output.SAMPLING_RATE;
+        System.out.println("Module go(), with randomly wandering inputs.  A tick is " + String.format("%.0f", tick) + "ns");
+        System.out.println("Module\t\tns/go()\t\t% of a core's tick at 32 voices");
+        Class<?>[] modules = Modules.getModules();
+        for(int m = 0; m < modules.length; m++)
+            {
+            String name = modules[m].getSimpleName();
+            if (modules[m] == AudioIn.class)
+                {
+                System.out.println(name + "\tskipped: it needs an audio input device");
+                continue;
+                }
+            try
+                {
+                final Wander wander = new Wander(sound);
+                final Wobble wobble = new Wobble(sound);
+                final Modulation mod = (Modulation)(modules[m].getConstructor(Sound.class).newInstance(sound));
+                for(int i = 0; i < mod.getNumModulations(); i++)
+                    mod.setModulation(wobble, i);
+                if (mod instanceof Unit)
+                    {
+                    Unit unit = (Unit) mod;
+                    for(int i = 0; i < unit.getNumInputs(); i++)
+                        unit.setInput(wander, i);
+                    }
+                mod.reset();
+                mod.gate();
+
+                Bench inputs = new Bench()
+                    {
+                    public double run(int reps)
+                        {
+                        for(int r = 0; r < reps; r++)
+                            {
+                            wander.go();
+                            wobble.go();
+                            }
+                        return wobble.getModulationOutput(0);
+                        }
+                    };
+                double time = measure(new Bench()
+                    {
+                    public double run(int reps)
+                        {
+                        for(int r = 0; r < reps; r++)
+                            {
+                            wander.go();
+                            wobble.go();
+                            mod.go();
+                            }
+                        return result(mod);
+                        }
+                    }, inputs);
+                System.out.printf("%s%s%.1f\t\t%.1f\n", name, (name.length() < 8 ? "\t\t" : "\t"), time, 32 * time / tick * 100);
+                }
+            catch (Throwable ex)
+                {
+                System.out.println(name + "\tFAILED: " + ex);
+                }
+            }
+        System.out.println();
+        }
+
+
+
+    static void benchmarkMemo(Sound sound)
+        {
+        System.out.println("Memoizable module go(), with inputs held still");
+        System.out.println("Module\t\tns/go()\t\tns/go() memoized");
+        Class<?>[] modules = Modules.getModules();
+        for(int m = 0; m < modules.length; m++)
+            {
+            String name = modules[m].getSimpleName();
+            if (modules[m] == AudioIn.class) continue;
+            try
+                {
+                final Modulation mod = (Modulation)(modules[m].getConstructor(Sound.class).newInstance(sound));
+                if (!(mod instanceof Unit) || !((Unit)mod).isMemoizable()) continue;
+                
+                // Hold the inputs still: a wandering Unit stopped after one step, and Constants
+                Wander wander = new Wander(sound);
+                wander.go();
+                Unit unit = (Unit) mod;
+                for(int i = 0; i < unit.getNumInputs(); i++)
+                    unit.setInput(wander, i);
+                for(int i = 0; i < mod.getNumModulations(); i++)
+                    mod.setModulation(new Constant(0.5), i);
+                mod.reset();
+                mod.gate();
+
+                double plain = measure(new Bench()
+                    {
+                    public double run(int reps)
+                        {
+                        for(int r = 0; r < reps; r++)
+                            mod.go();
+                        return result(mod);
+                        }
+                    });
+                double memoized = measure(new Bench()
+                    {
+                    public double run(int reps)
+                        {
+                        for(int r = 0; r < reps; r++)
+                            if (!mod.isUpToDate())
+                                mod.go();
+                        return result(mod);
+                        }
+                    });
+                System.out.printf("%s%s%.1f\t\t%.1f\n", name, (name.length() < 8 ? "\t\t" : "\t"), plain, memoized);
+                }
+            catch (Throwable ex)
+                {
+                System.out.println(name + "\tFAILED: " + ex);
+                }
+            }
+        System.out.println();
+        }
+
+
+
+    public static void main(String[] args)
+        {
+        System.setProperty("java.awt.headless", "true");
+        System.setProperty("MidiDevice", Midi.NO_DEVICE);
+        System.setProperty("MidiDevice2", Midi.NO_DEVICE);
+        if (System.getProperty("Voices") == null)
+            System.setProperty("Voices", "" + VOICES);
+
+        ArrayList<String> which = new ArrayList<String>();
+        for(int i = 0; i < args.length; i++)
+            {
+            if (args[i].equals("-seconds") && i + 1 < args.length)
+                seconds = Double.parseDouble(args[++i]);
+            else which.add(args[i]);
+            }
+        if (which.isEmpty())
+            which.addAll(Arrays.asList(new String[] { "render", "sort", "math", "modules", "memo", "voices" }));
+
+        // Everything is built in one Sound, which is never pulsed itself
+        Sound sound = new Sound(new Output(true));
+        for(String w : which)
+            {
+            if (w.equals("render")) benchmarkRender();
+            else if (w.equals("sort")) benchmarkSort(sound);
+            else if (w.equals("math")) benchmarkMath();
+            else if (w.equals("modules")) benchmarkModules(sound);
+            else if (w.equals("memo")) benchmarkMemo(sound);
+            else if (w.equals("voices")) benchmarkVoices(sound);
+            else System.err.println("Unknown benchmark " + w + ": should be render, sort, math, modules, memo, or voices");
+            }
+        }
+    }
@@ -0,0 +1,124 @@
+// Copyright 2018 by George Mason University
+// Licensed under the Apache 2.0 License
+
+
+package flow;
+
+import java.util.concurrent.atomic.*;
+
+/**
+   A bounded queue of small events, which any number of threads may offer to and one thread
+   polls from.  Neither side ever locks or allocates.  MidiQueue and Mailbox are EventQueues,
+   which give the fields of their events proper names.
+
+   <p>Each event is three ints and a long, stored in parallel arrays, so nothing is boxed.
+   Each slot has a sequence number which says whose turn it is: a producer claims a slot by
+   advancing the tail with a CAS, fills it, and then publishes it by setting its sequence;
+   the consumer reads a slot once its sequence says it's full, and frees it by setting its
+   sequence for the producer one lap later.  This is Dmitry Vyukov's bounded MPMC queue, with
+   the consumer side simplified.
+
+   <p>If the queue is full, offer() drops the event and counts it: see getOverflows().  An
+   event may also be offered with a RESERVE, in which case it is dropped unless at least
+   RESERVE slots would still be free after it, leaving them for more important events.
+**/
+
+public class EventQueue
+    {
+    final int capacity;
+    final int mask;
+    final int[] as;
+    final int[] bs;
+    final int[] cs;
+    final long[] ds;
+    final AtomicLongArray sequences;
+    final AtomicLong tail = new AtomicLong();
+    final AtomicLong overflows = new AtomicLong();
+    long head = 0;                  // only touched by the consumer
+
+    // The event most recently taken by poll()
+    int a;
+    int b;
+    int c;
+    long d;
+
+    /** Builds a queue holding up to CAPACITY events, rounded up to a power of two. */
+    public EventQueue(int capacity)
+        {
+        int n = 1;
+        while(n < capacity) n *= 2;
+        this.capacity = n;
+        mask = n - 1;
+        as = new int[n];
+        bs = new int[n];
+        cs = new int[n];
+        ds = new long[n];
+        sequences = new AtomicLongArray(n);
+        for(int i = 0; i < n; i++)
+            sequences.set(i, i);
+        }
+
+    /** Returns the number of events the queue can hold. */
+    public int getCapacity() { return capacity; }
+
+    /** Returns the number of events dropped so far because the queue was full. */
+    public long getOverflows() { return overflows.get(); }
+
+    /** Returns true if no event is waiting.  Only the consumer should rely on this. */
+    public boolean isEmpty() { return sequences.get((int)(head & mask)) != head + 1; }
+
+    /** Adds an event.  Returns false, and counts an overflow, if the queue is full.  Any thread may call this. */
+    protected boolean offer(int a, int b, int c, long d)
+        {
+        return offer(a, b, c, d, 0);
+        }
+
+    /** Adds an event, provided that RESERVE (less than the capacity) slots would still be free
+        after it.  Returns false, and counts an overflow, otherwise.  Any thread may call this. */
+    protected boolean offer(int a, int b, int c, long d, int reserve)
+        {
+        while(true)
+            {
+            long pos = tail.get();
+            int slot = (int)(pos & mask);
+            long diff = sequences.get(slot) - pos;
+            // The consumer frees slots in order, so if the one RESERVE past ours is free, so is every one between
+            if (diff == 0 && reserve > 0 && sequences.get((int)((pos + reserve) & mask)) - (pos + reserve) < 0)
+                diff = -1;
+            if (diff == 0)
+                {
+                if (tail.compareAndSet(pos, pos + 1))
+                    {
+                    as[slot] = a;
+                    bs[slot] = b;
+                    cs[slot] = c;
+                    ds[slot] = d;
+                    sequences.lazySet(slot, pos + 1);             // publish
+                    return true;
+                    }
+                }
+            else if (diff < 0)          // the consumer hasn't freed this slot yet: we're full
+                {
+                overflows.incrementAndGet();
+                return false;
+                }
+            // else another producer got this slot first; try again
+            }
+        }
+
+    /** Takes the oldest event, returning false if there is none.  Its contents can then be
+        read, through the subclass's getters, until the next poll().  Only one thread at a time
+        may call this. */
+    public boolean poll()
+        {
+        int slot = (int)(head & mask);
+        if (sequences.get(slot) != head + 1) return false;          // not yet published
+        a = as[slot];
+        b = bs[slot];
+        c = cs[slot];
+        d = ds[slot];
+        sequences.lazySet(slot, head + capacity);                  // free it for the next lap
+        head++;
+        return true;
+        }
+    }
@@ -0,0 +1,263 @@
+// Copyright 2018 by George Mason University
+// Licensed under the Apache 2.0 License
+
+
+package flow;
+
+import flow.utilities.*;
+import java.util.*;
+
+/**
+   A Renderer which uses the classic inverse-FFT additive technique (Rodet and Depalle's FFT^-1)
+   rather than computing one sine per partial per sample.
+
+   <p>Every HOP_SIZE samples, each voice builds a spectrum of FRAME_SIZE bins: each audible
+   partial contributes the (Hann) window's transform, LOBE bins on either side of its
+   frequency, with its current amplitude and phase.  An inverse FFT then produces FRAME_SIZE
+   windowed samples which are overlap-added into the voice's output.  Since the Hann windows
+   at a hop of FRAME_SIZE / 4 sum to a constant, in steady state this produces the same
+   sine waves as Output.buildSample(), at the same phases.  The cost is roughly
+   (2 LOBE + 1) bin updates per partial plus one FFT per hop, instead of HOP_SIZE sines
+   per partial.
+
+   <p>The result is approximate.  The window's transform is truncated to LOBE bins on either
+   side, which leaves some noise around -64dB.  The amplitudes are only updated once per hop
+   and are crossfaded by the windows, so amplitude changes are smeared over FRAME_SIZE samples
+   rather than following the per-sample interpolation of buildSample().  Output.buildSample()
+   remains the exact renderer.
+
+   <p>The per-voice overlap-add state lives in the FFTRenderer, so Output shares one among
+   all of its output threads.  You can compare it against the scalar renderer with
+   <tt>java flow.FFTRenderer [seconds]</tt>
+**/
+
+public class FFTRenderer implements Renderer
+    {
+    /** The size of the FFT. */
+    public static final int FRAME_SIZE = 512;
+    /** The number of samples between FFTs. */
+    public static final int HOP_SIZE = FRAME_SIZE / 4;
+    /** How many bins on either side of a partial its window transform covers. */
+    public static final int LOBE = 6;
+
+    static final int OVERSAMPLE = 64;
+    static final double OVERLAP_GAIN = 0.5;                 // Hann windows at FRAME_SIZE / 4 sum to 2
+    static final double HOP_DECAY = Math.pow(Output.ONE_MINUS_PARTIALS_INTERPOLATION_ALPHA, HOP_SIZE);
+
+    static final FFT.Plan plan = new FFT.Plan(FRAME_SIZE);
+
+    // The window's transform from -LOBE ... LOBE bins, oversampled.  The window is centered on
+    // the frame, so its transform is real.
+    static final double[] lobe = new double[2 * LOBE * OVERSAMPLE + 2];
+    static
+        {
+        double[] window = new double[FRAME_SIZE];
+        for(int n = 0; n < FRAME_SIZE; n++)
+            window[n] = 0.5 - 0.5 * Math.cos(Output.PI2 * n / FRAME_SIZE);
+        for(int j = 0; j < lobe.length; j++)
+            {
+            double d = j / (double)OVERSAMPLE - LOBE;
+            double sum = 0;
+            for(int n = 0; n < FRAME_SIZE; n++)
+                sum += window[n] * Math.cos(Output.PI2 * d * (n - FRAME_SIZE / 2) / FRAME_SIZE);
+            lobe[j] = sum;
+            }
+        }
+
+    static class Voice
+        {
+        double[] real = new double[FRAME_SIZE];
+        double[] imag = new double[FRAME_SIZE];
+        double[] overlap = new double[FRAME_SIZE];
+        int next = HOP_SIZE;                    // the next sample in overlap to emit
+        }
+
+    Voice[] voices;
+
+    public FFTRenderer(int numVoices)
+        {
+        voices = new Voice[numVoices];
+        for(int i = 0; i < numVoices; i++)
+            voices[i] = new Voice();
+        }
+
+    public void render(int voice, double[] samples, int length, double[] amp, double[] freq, byte[] orders,
+        int[] active, int numActive, int cap, double[] pos, double[] currentAmp, double pitch, double velocity, boolean dephase)
+        {
+        Voice v = voices[voice];
+        double[] overlap = v.overlap;
+        double gain = velocity * Output.DEFAULT_VOLUME_MULTIPLIER;
+        for(int s = 0; s < length; s++)
+            {
+            if (v.next == HOP_SIZE)
+                {
+                synthesize(v, amp, freq, orders, Math.min(cap, pos.length), pos, currentAmp, pitch, dephase);
+                v.next = 0;
+                }
+            samples[s] = overlap[v.next++] * gain;
+            }
+        }
+
+    // Every partial contributes to the overlapping frames, so we don't use the active partials
+    public boolean usesActivePartials() { return false; }
+
+    // Adds the next frame to the voice's overlap, and advances the first NUMPARTIALS partials by HOP_SIZE
+    // samples.  The phases and amplitudes are handled just as in Output.buildSample(), except HOP_SIZE
+    // samples at a time.
+    void synthesize(Voice v, double[] amp, double[] freq, byte[] orders, int numPartials, double[] pos, double[] currentAmp, double pitch, boolean dephase)
+        {
+        double[] real = v.real;
+        double[] imag = v.imag;
+        double[] overlap = v.overlap;
+
+        // Shift out the samples we've emitted
+        System.arraycopy(overlap, HOP_SIZE, overlap, 0, FRAME_SIZE - HOP_SIZE);
+        Arrays.fill(overlap, FRAME_SIZE - HOP_SIZE, FRAME_SIZE, 0.0);
+        Arrays.fill(real, 0.0);
+        Arrays.fill(imag, 0.0);
+
+        double tr = pitch * Output.INV_SAMPLING_RATE;
+        boolean empty = true;
+        for(int i = 0; i < numPartials; i++)
+            {
+            double frequency = freq[i];
+            if (dephase && frequency * pitch > Output.NYQUIST)
+                {
+                break;
+                }
+
+            int oi = orders[i] & 0xFF;
+            double amplitude = currentAmp[oi] * HOP_DECAY + amp[i] * (1.0 - HOP_DECAY);
+            if (amplitude < Output.WELL_ABOVE_SUBNORMALS) amplitude = 0;
+            currentAmp[oi] = amplitude;
+
+            boolean loud = (amplitude > Output.MINIMUM_VOLUME);
+            if (dephase && !loud) continue;         // dephased partials only advance when they're loud
+
+            double increment = frequency * tr;      // in cycles per sample
+            double position = pos[oi];
+            if (loud && frequency * pitch <= Output.NYQUIST)
+                {
+                // Phase at the center of the frame.  buildSample() advances before
+                // computing each sample, so sample n of the frame is at POSITION + (n + 1) INCREMENT
+                double center = position + increment * (FRAME_SIZE / 2 + 1);
+                center = center - (int) center;
+                double theta = center * Output.PI2 + (dephase ? Output.MIXING[oi] : 0);
+                addPartial(real, imag, increment * FRAME_SIZE, amplitude * 0.5, theta);
+                empty = false;
+                }
+            position = position + increment * HOP_SIZE;
+            position = position - (int) position;
+            pos[oi] = position;
+            }
+
+        if (empty) return;
+
+        plan.inverse(real, imag);
+
+        // The time signal is 2 Re(z) where z = IFFT / FRAME_SIZE
+        double scale = 2.0 * OVERLAP_GAIN / FRAME_SIZE;
+        for(int n = 0; n < FRAME_SIZE; n++)
+            overlap[n] += real[n] * scale;
+        }
+
+    // Adds the window's transform, centered at BIN, for a sine wave of amplitude 2 HALF_AMPLITUDE
+    // and phase THETA at the center of the frame.  We want cos(phi) where phi = THETA - PI/2, so
+    // e^(j phi) = sin(THETA) - j cos(THETA).  Centering the window on the frame multiplies
+    // each bin by (-1)^k.
+    static void addPartial(double[] real, double[] imag, double bin, double halfAmplitude, double theta)
+        {
+        double re = halfAmplitude * Utility.fastSin(theta);
+        double im = -halfAmplitude * Utility.fastCos(theta);
+        int first = (int)Math.ceil(bin - LOBE);
+        int last = (int)Math.floor(bin + LOBE);
+        for(int k = first; k <= last; k++)
+            {
+            double d = (k - bin + LOBE) * OVERSAMPLE;
+            int j = (int) d;
+            double w = lobe[j] + (lobe[j + 1] - lobe[j]) * (d - j);
+            if ((k & 1) != 0) w = -w;
+            int slot = k & (FRAME_SIZE - 1);        // negative bins wrap around
+            real[slot] += re * w;
+            imag[slot] += im * w;
+            }
+        }
+
+
+
+    //// BENCHMARK
+
+    /** Compares the scalar and FFT renderers for accuracy and speed on a steady harmonic tone. */
+    public static void main(String[] args)
+        {
+        double seconds = (args.length > 0 ? Double.parseDouble(args[0]) : 2.0);
+        int skip = Output.DEFAULT_SKIP;
+        double pitch = 110.0;
+        Random random = new Random(500);
+        System.out.println("Partials\tDephase\tScalar ns/sample\tFFT ns/sample\tSpeedup\tSNR (dB)");
+
+        for(int numPartials : new int[] { 64, 128, 256 })
+            for(int d = 0; d < 2; d++)
+                {
+                boolean dephase = (d == 1);
+                double[] amp = new double[numPartials];
+                double[] freq = new double[numPartials];
+                byte[] orders = new byte[numPartials];
+                for(int i = 0; i < numPartials; i++)
+                    {
+                    freq[i] = i + 1;
+                    amp[i] = random.nextDouble() / (i + 1);
+                    orders[i] = (byte)i;
+                    }
+
+                // accuracy, once the amplitudes have settled
+                Renderer scalar = new Output.ScalarRenderer();
+                Renderer fft = new FFTRenderer(1);
+                double[] pos1 = new double[numPartials];
+                double[] pos2 = new double[numPartials];
+                double[] cur1 = new double[numPartials];
+                double[] cur2 = new double[numPartials];
+                System.arraycopy(amp, 0, cur1, 0, numPartials);
+                System.arraycopy(amp, 0, cur2, 0, numPartials);
+                double[] s1 = new double[skip];
+                double[] s2 = new double[skip];
+                double signal = 0;
+                double noise = 0;
+                for(int block = 0; block < 2000; block++)
+                    {
+                    scalar.render(0, s1, skip, amp, freq, orders, null, 0, pos1.length, pos1, cur1, pitch, 1.0, dephase);
+                    fft.render(0, s2, skip, amp, freq, orders, null, 0, pos2.length, pos2, cur2, pitch, 1.0, dephase);
+                    if (block < 100) continue;              // let the first frames overlap
+                    for(int s = 0; s < skip; s++)
+                        {
+                        signal += s1[s] * s1[s];
+                        noise += (s1[s] - s2[s]) * (s1[s] - s2[s]);
+                        }
+                    }
+
+                double scalarTime = time(scalar, skip, amp, freq, orders, pitch, dephase, seconds);
+                double fftTime = time(fft, skip, amp, freq, orders, pitch, dephase, seconds);
+                System.out.printf("%d\t\t%b\t%.2f\t\t\t%.2f\t\t%.1fx\t%.1f\n", numPartials, dephase,
+                    scalarTime, fftTime, scalarTime / fftTime, 10 * Math.log10(signal / noise));
+                }
+        }
+
+    static double time(Renderer renderer, int skip, double[] amp, double[] freq, byte[] orders, double pitch, boolean dephase, double seconds)
+        {
+        double[] samples = new double[skip];
+        double[] pos = new double[amp.length];
+        double[] currentAmp = new double[amp.length];
+        long count = 0;
+        long start = System.nanoTime();
+        long end = start + (long)(seconds * 1000000000L);
+        long now = start;
+        while(now < end)
+            {
+            for(int i = 0; i < 1000; i++)
+                renderer.render(0, samples, skip, amp, freq, orders, null, 0, pos.length, pos, currentAmp, pitch, 1.0, dephase);
+            count += 1000 * skip;
+            now = System.nanoTime();
+            }
+        return (now - start) / (double)count;
+        }
+    }
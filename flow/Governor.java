@@ -0,0 +1,129 @@
+// Copyright 2018 by George Mason University
+// Licensed under the Apache 2.0 License
+
+
+package flow;
+
+/**
+   Trades sound quality for time when the Output can't keep up, rather than letting it glitch.
+
+   <p>After each block, the Output Thread tells the Governor how long the last tick took to
+   pulse the Sounds and to render, as a fraction of the tick budget (Output.getSkip() samples
+   of real time).  The Governor keeps a running average of this load and of how much it varies,
+   and predicts the next tick's load as the average plus twice the variation.  When the prediction
+   passes HIGH_LOAD, or the sink underruns, the Governor steps down one LEVEL.  Each level caps the
+   number of partials rendered per voice, whichever the Renderer (dropping the highest-numbered, normally
+   the highest-pitched, ones first) and, from level 4 on, the number of voices sounding at once, counting
+   those still in their release (Input reuses the oldest released voice still sounding, or steals the
+   oldest note, instead of starting another).  When the prediction has stayed below LOW_LOAD for RESTORE_TICKS in a row, the Governor
+   steps back up one level.  The gap between HIGH_LOAD and LOW_LOAD, and the wait, keep it from flapping.
+
+   <p>Every change of level is logged to System.err.  The first WARMUP_TICKS are ignored, as the JIT
+   compiler is still at work.  Only Outputs playing into a real-time sink are governed (not offline
+   Outputs, nor ones playing into a NullSink, say), and you can turn the Governor off with -DGovernor=false.
+**/
+
+public class Governor
+    {
+    public static final boolean ENABLED = !"false".equals(System.getProperty("Governor"));
+
+    /** Predicted load (a fraction of the tick budget) above which the Governor degrades. */
+    public static final double HIGH_LOAD = 0.85;
+    /** Predicted load below which the Governor may restore. */
+    public static final double LOW_LOAD = 0.5;
+    /** Ticks to wait after degrading before degrading again, so the averages can catch up.  About 0.1 second. */
+    public static final int SETTLE_TICKS = (int)(Output.SAMPLING_RATE * 0.1 / Output.DEFAULT_SKIP);
+    /** Ticks to ignore at first, while the JIT compiler is warming up.  About 2 seconds. */
+    public static final int WARMUP_TICKS = (int)(Output.SAMPLING_RATE * 2 / Output.DEFAULT_SKIP);
+    /** Ticks the load must stay low before restoring a level.  About 2 seconds. */
+    public static final int RESTORE_TICKS = (int)(Output.SAMPLING_RATE * 2 / Output.DEFAULT_SKIP);
+
+    // How fast the running averages follow the latest measurements
+    static final double ALPHA = 0.05;
+
+    // The fraction of the partials and of the voices kept at each level
+    static final double[] PARTIAL_FRACTIONS = { 1.0, 0.75, 0.5, 0.375, 0.25, 0.25, 0.25, 0.25 };
+    static final double[] VOICE_FRACTIONS =   { 1.0, 1.0,  1.0, 1.0,   1.0,  0.75, 0.5,  0.25 };
+    /** The number of levels.  Level 0 is full quality. */
+    public static final int NUM_LEVELS = PARTIAL_FRACTIONS.length;
+
+    static final boolean SERIAL = Runtime.getRuntime().availableProcessors() == 1;
+
+    int numVoices;
+    double budget;              // ns per tick
+    double load = 0;
+    double deviation = 0;
+    int level = 0;
+    int settle = 0;
+    int calm = 0;
+    int warmup = WARMUP_TICKS;
+
+    volatile int partialCap = Unit.NUM_PARTIALS;
+    volatile int voiceBudget;
+
+    public Governor(int numVoices)
+        {
+        this.numVoices = numVoices;
+        voiceBudget = numVoices;
+        budget = Output.getSkip() * 1000000000.0 / Output.SAMPLING_RATE;
+        }
+
+    /** Returns the current level, 0 (full quality) ... NUM_LEVELS - 1. */
+    public int getLevel() { return level; }
+
+    /** Returns the maximum number of partials to render per voice. */
+    public int getPartialCap() { return partialCap; }
+
+    /** Returns the maximum number of notes to play at once. */
+    public int getVoiceBudget() { return voiceBudget; }
+
+    /** Returns the predicted load, as a fraction of the tick budget. */
+    public double getPredictedLoad() { return load + 2 * deviation; }
+
+    /** Called by the Output Thread after each block with the time in ns the Sounds took to
+        pulse (VOICENANOS) and render (BLOCKNANOS) and whether the sink UNDERRAN. */
+    public void update(long voiceNanos, long blockNanos, boolean underran)
+        {
+        if (warmup > 0) 
+            {
+            warmup--;
+            return;
+            }
+            
+        // With one processor the voice and Output threads take turns; otherwise they overlap
+        double l = (SERIAL ? voiceNanos + blockNanos : Math.max(voiceNanos, blockNanos)) / budget;
+        deviation += (Math.abs(l - load) - deviation) * ALPHA;
+        load += (l - load) * ALPHA;
+        double predicted = getPredictedLoad();
+
+        if (settle > 0) settle--;
+
+        if ((predicted > HIGH_LOAD || underran) && settle == 0 && level < NUM_LEVELS - 1)
+            {
+            setLevel(level + 1, predicted, underran ? "underrun" : "predicted load");
+            settle = SETTLE_TICKS;
+            calm = 0;
+            }
+        else if (predicted < LOW_LOAD && level > 0)
+            {
+            if (++calm >= RESTORE_TICKS)
+                {
+                setLevel(level - 1, predicted, "load dropped");
+                calm = 0;
+                }
+            }
+        else
+            {
+            calm = 0;
+            }
+        }
+
+    void setLevel(int newLevel, double predicted, String reason)
+        {
+        level = newLevel;
+        partialCap = Math.max(1, (int)(Unit.NUM_PARTIALS * PARTIAL_FRACTIONS[level]));
+        voiceBudget = Math.max(1, (int)Math.ceil(numVoices * VOICE_FRACTIONS[level]));
+        System.err.println("Governor: " + reason + " (" + String.format("%.2f", predicted) + " of the tick budget), now at level " +
+            level + ": " + partialCap + " partials, " + voiceBudget + " voices");
+        }
+    }
@@ -0,0 +1,132 @@
+// Copyright 2018 by George Mason University
+// Licensed under the Apache 2.0 License
+
+
+package flow;
+
+import flow.modules.*;
+import java.io.*;
+import java.util.zip.*;
+import org.json.*;
+
+/**
+   Runs Flow without a GUI.  Headless builds the Output and its Sounds as Flow.main() does,
+   loads a patch with Output.loadPatch() rather than through the Rack, and then just plays
+   whatever comes in over MIDI.  No AWT or Swing class is ever initialized: there is no
+   Toolkit, no Event Dispatch Thread, and there are no display timers competing for
+   Output.lock().  (The JVM's verifier still loads, but does not initialize, a few Swing
+   classes when it links modules whose getPanel() subclasses them.)
+
+   <p>Usage: <tt>java flow.Headless [-voices N] [-audio DEVICE] [-midi DEVICE] [-midi2 DEVICE] [-channel C] [-silent] [-devices] [PATCH]</tt>
+
+   <p>The options are passed on as the System properties which override the stored
+   preferences (Voices, AudioDevice, MidiDevice, MidiDevice2, and Channel), so they apply
+   to this run only.  DEVICE is a name as printed by -devices, which lists the available
+   audio and MIDI devices.  -silent plays into a NullSink rather than an audio device,
+   so Flow runs as fast as it can.  With no PATCH, Headless plays the default (empty) patch.
+**/
+
+public class Headless
+    {
+    static void usage()
+        {
+        System.err.println("Usage: java flow.Headless [-voices N] [-audio DEVICE] [-midi DEVICE] [-midi2 DEVICE] [-channel C] [-silent] [-devices] [PATCH]");
+        System.exit(1);
+        }
+
+    /** Loads a (gzipped) patch file. */
+    public static JSONObject loadPatchFile(File file) throws IOException
+        {
+        InputStream stream = new GZIPInputStream(new FileInputStream(file));
+        try
+            {
+            return new JSONObject(new JSONTokener(stream));
+            }
+        finally
+            {
+            stream.close();
+            }
+        }
+
+    /** Builds an Output, offline or not, with Output.getNumVoices() Sounds, each with a default Out. */
+    public static Output buildOutput(boolean offline)
+        {
+        return addSounds(new Output(offline));
+        }
+
+    /** Builds an Output playing into SINK, with Output.getNumVoices() Sounds, each with a default Out. */
+    public static Output buildOutput(AudioSink sink)
+        {
+        return addSounds(new Output(sink));
+        }
+
+    static Output addSounds(Output output)
+        {
+        for(int i = 0; i < Output.getNumVoices(); i++)
+            {
+            Sound sound = new Sound(output);
+            new Out(sound);
+            sound.reset();
+            }
+        return output;
+        }
+
+    public static void main(String[] args) throws Exception
+        {
+        System.setProperty("java.awt.headless", "true");
+
+        String patch = null;
+        boolean devices = false;
+        boolean silent = false;
+        for(int i = 0; i < args.length; i++)
+            {
+            String arg = args[i];
+            if (arg.equals("-devices")) { devices = true; continue; }
+            if (arg.equals("-silent")) { silent = true; continue; }
+            if (!arg.startsWith("-"))
+                {
+                if (patch != null) usage();
+                patch = arg;
+                continue;
+                }
+            if (i + 1 >= args.length) usage();
+            String val = args[++i];
+            if (arg.equals("-voices")) System.setProperty("Voices", val);
+            else if (arg.equals("-audio")) System.setProperty("AudioDevice", val);
+            else if (arg.equals("-midi")) System.setProperty("MidiDevice", val);
+            else if (arg.equals("-midi2")) System.setProperty("MidiDevice2", val);
+            else if (arg.equals("-channel")) System.setProperty("Channel", val);
+            else usage();
+            }
+
+        Output output = (silent ? buildOutput(new NullSink()) : buildOutput(false));
+
+        if (devices)
+            {
+            System.out.println("Audio Devices:");
+            javax.sound.sampled.Mixer.Info[] mixers = output.getSupportedMixers();
+            for(int i = 0; i < mixers.length; i++)
+                System.out.println("\t" + mixers[i].getName());
+            System.out.println("MIDI Devices:");
+            for(Midi.MidiDeviceWrapper wrapper : output.getInput().getDevices())
+                System.out.println("\t" + wrapper);
+            System.exit(0);
+            }
+
+        if (patch != null)
+            {
+            output.loadPatch(loadPatchFile(new File(patch)));
+            }
+
+        System.err.println("Flow: " + Output.getNumVoices() + " voices, audio " +
+            (output.getMixer() == null ? output.getSink().getClass().getSimpleName() : output.getMixer().getName()) +
+            ", MIDI " + output.getInput().getMidiDevice() +
+            (patch == null ? "" : ", patch " + output.getGroup(Output.PRIMARY_GROUP).getPatchName()));
+
+        // The voice thread is a daemon, so we do it here
+        while(true)
+            {
+            output.go();
+            }
+        }
+    }
@@ -0,0 +1,158 @@
+// Copyright 2018 by George Mason University
+// Licensed under the Apache 2.0 License
+
+
+package flow;
+
+import java.util.concurrent.atomic.*;
+
+/**
+   A histogram of non-negative long values (Telemetry uses nanoseconds) which can be recorded
+   from any number of threads without locking or allocating.
+
+   <p>The buckets are logarithmic: each power of two is split into four buckets, so a
+   reported percentile is within about 12% of the true value, and 248 buckets cover
+   every positive long.  Values below 4 get a bucket each.
+
+   <p>Reading while other threads record gives a slightly smeared but never corrupt picture:
+   each bucket is exact, but the buckets are not read all at the same instant.
+**/
+
+public class Histogram
+    {
+    static final int SUB_BUCKETS = 4;
+    static final int SUB_BITS = 2;
+    public static final int NUM_BUCKETS = SUB_BUCKETS + (62 - SUB_BITS + 1) * SUB_BUCKETS;
+
+    final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+    final AtomicLong count = new AtomicLong();
+    final AtomicLong sum = new AtomicLong();
+    final AtomicLong max = new AtomicLong();
+
+    /** Returns the bucket holding VALUE. */
+    public static int bucketFor(long value)
+        {
+        if (value < SUB_BUCKETS) return (value < 0 ? 0 : (int)value);
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int)(value >>> (msb - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + (msb - SUB_BITS) * SUB_BUCKETS + sub;
+        }
+
+    /** Returns the smallest value which falls in BUCKET. */
+    public static long bucketLow(int bucket)
+        {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int k = bucket - SUB_BUCKETS;
+        return ((long)(SUB_BUCKETS + k % SUB_BUCKETS)) << (k / SUB_BUCKETS);
+        }
+
+    /** Returns the number of values which fall in BUCKET. */
+    public static long bucketWidth(int bucket)
+        {
+        if (bucket < SUB_BUCKETS) return 1;
+        return 1L << ((bucket - SUB_BUCKETS) / SUB_BUCKETS);
+        }
+
+    /** Records VALUE.  Negative values are recorded as 0. */
+    public void record(long value)
+        {
+        if (value < 0) value = 0;
+        buckets.incrementAndGet(bucketFor(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long m = max.get();
+        while(value > m && !max.compareAndSet(m, value))
+            m = max.get();
+        }
+
+    /** Forgets all recorded values. */
+    public void reset()
+        {
+        for(int i = 0; i < NUM_BUCKETS; i++)
+            buckets.set(i, 0);
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+        }
+
+    public long getCount() { return count.get(); }
+    public long getMax() { return max.get(); }
+
+    /** Returns the mean of the recorded values, or 0 if there are none. */
+    public double getMean()
+        {
+        long c = count.get();
+        return (c == 0 ? 0 : sum.get() / (double) c);
+        }
+
+    /** Returns roughly the value below which the fraction P (0...1) of the recorded values
+        fall: the middle of the bucket holding it.  Returns 0 if there are no values. */
+    public long getPercentile(double p)
+        {
+        long c = 0;
+        for(int i = 0; i < NUM_BUCKETS; i++)
+            c += buckets.get(i);
+        if (c == 0) return 0;
+
+        long target = (long)Math.ceil(p * c);
+        if (target < 1) target = 1;
+        long seen = 0;
+        for(int i = 0; i < NUM_BUCKETS; i++)
+            {
+            seen += buckets.get(i);
+            if (seen >= target)
+                return bucketLow(i) + bucketWidth(i) / 2;
+            }
+        return max.get();     // a race with record() can get us here
+        }
+
+    /** Returns the count in each bucket.  This allocates. */
+    public long[] getBuckets()
+        {
+        long[] b = new long[NUM_BUCKETS];
+        for(int i = 0; i < NUM_BUCKETS; i++)
+            b[i] = buckets.get(i);
+        return b;
+        }
+
+    /** Returns a summary of the histogram, scaling its values (typically nanoseconds) by 1/DIVISOR
+        (typically 1000, for microseconds).  This allocates. */
+    public Summary getSummary(double divisor)
+        {
+        return new Summary(getCount(), getMean() / divisor, getPercentile(0.5) / divisor,
+            getPercentile(0.99) / divisor, getPercentile(0.999) / divisor, getMax() / divisor);
+        }
+
+    /** A snapshot of a Histogram, which JMX presents as a composite attribute. */
+    public static class Summary
+        {
+        long count;
+        double mean;
+        double p50;
+        double p99;
+        double p999;
+        double max;
+
+        public Summary(long count, double mean, double p50, double p99, double p999, double max)
+            {
+            this.count = count;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p99 = p99;
+            this.p999 = p999;
+            this.max = max;
+            }
+
+        public long getCount() { return count; }
+        public double getMean() { return mean; }
+        public double getP50() { return p50; }
+        public double getP99() { return p99; }
+        public double getP999() { return p999; }
+        public double getMax() { return max; }
+
+        public String toString()
+            {
+            return String.format("n=%d mean=%.1f p50=%.1f p99=%.1f p99.9=%.1f max=%.1f", count, mean, p50, p99, p999, max);
+            }
+        }
+    }
@@ -92,13 +92,22 @@ public class Input
             wrap2);
         }
 
-    // Output calls this to add a Sound to the Input (it's added to the
-    // notesOff list)
+    // Output calls this to add a Sound to the Input (it's added as a
+    // free voice)
     void addSound(Sound sound)
         {
         synchronized (lock)
             {
-            notesOff.add(sound);
+            voices.add(sound);
+            }
+        }
+
+    // Output calls this after it has reassigned the Sounds to groups
+    void regroup()
+        {
+        synchronized (lock)
+            {
+            voices.regroup();
             }
         }
 
@@ -107,12 +116,7 @@ public class Input
         synchronized (lock)
             {
             notesOnMono.clear();
-            while (notesOn.size() != 0)
-                {
-                Sound s = notesOn.removeFirst();
-                notesOff.addFirst(s);
-                s.release();
-                }
+            voices.releaseAll();
             }
         }
 
@@ -337,6 +341,14 @@ public class Input
         respondsToBend = val;
         }
 
+    // The same test as Style.isUnix(), which we don't call so as not to load the GUI
+    static final boolean UNIX;
+    static
+        {
+        String os = System.getProperty("os.name").toLowerCase();
+        UNIX = (os.indexOf("nix") >= 0 || os.indexOf("nux") >= 0 || os.indexOf("aix") > 0);
+        }
+
     public boolean getRespondsToBend()
         {
         return respondsToBend;
@@ -358,7 +370,7 @@ public class Input
         // https://bugs.openjdk.java.net/browse/JDK-8075073
         // https://bugs.launchpad.net/ubuntu/+source/openjdk-8/+bug/1755640
 
-        if (flow.gui.Style.isUnix())
+        if (UNIX)
             {
             if (msb >= 64)
                 {
@@ -385,23 +397,13 @@ public class Input
 
         synchronized (lock)
             {
-            for (Sound sound : notesOn)
+            boolean[] channels = getMatchingChannels(sm.getChannel());
+            for (int c = 0; c < channels.length; c++)
                 {
-                int c = sound.getChannel();
-                if (c == CHANNEL_OMNI || c == sm.getChannel()
-                    || (isMPEChannel(c) && sm.getChannel() == getMPEGlobalChannel()))
+                if (!channels[c]) continue;
+                for (int v = voices.firstInSlot(c); v >= 0; v = voices.nextInSlot(v))
                     {
-                    sound.setBend(d);
-                    }
-                }
-
-            for (Sound sound : notesOff)
-                {
-                int c = sound.getChannel();
-                if (c == CHANNEL_OMNI || c == sm.getChannel()
-                    || (isMPEChannel(c) && sm.getChannel() == getMPEGlobalChannel()))
-                    {
-                    sound.setBend(d);
+                    voices.getSound(v).post(Sound.EVENT_BEND, 0, d);
                     }
                 }
             }
@@ -410,7 +412,6 @@ public class Input
     ///// CC AND NRPN
 
     boolean sustain = false;
-    ArrayList<Sound> sustainQueue = new ArrayList<Sound>();
 
     public static final int CC_SUSTAIN_PEDAL = 64;
     public static final int CC_ALL_SOUNDS_OFF = 120;
@@ -529,11 +530,11 @@ public class Input
                     }
                 }
 
-            output.lock();
-            try
+            // Releases are posted to the sounds, so only ALL SOUNDS OFF
+            // needs the Output lock, which output.reset() acquires
+            if (ccdata.number == CC_SUSTAIN_PEDAL)
                 {
-                int num = output.getNumSounds();
-                if (ccdata.number == CC_SUSTAIN_PEDAL)
+                synchronized (lock)
                     {
                     if (ccdata.value >= 64)        // sustain is down
                         {
@@ -542,28 +543,19 @@ public class Input
                     else
                         {
                         // release all the sounds in the sustain queue
-                        for (Sound sound : sustainQueue)
-                            {
-                            sound.release();
-                            }
-                        sustainQueue.clear();
+                        voices.releaseSustained();
                         sustain = false;
                         }
                     }
-                else if (ccdata.number == CC_ALL_SOUNDS_OFF)
-                    {
-                    output.reset();
-                    }
-                else if (ccdata.number == CC_ALL_NOTES_OFF)
-                    {
-                    reset();
-                    }
-                } 
-            finally
+                }
+            else if (ccdata.number == CC_ALL_SOUNDS_OFF)
                 {
-                output.unlock();
+                output.reset();
+                }
+            else if (ccdata.number == CC_ALL_NOTES_OFF)
+                {
+                reset();
                 }
-
             }
         else if (ccdata.type == Midi.CCData.TYPE_NRPN)
             {
@@ -620,18 +612,10 @@ public class Input
         double d = sm.getData2() / 127.0;
         synchronized (lock)
             {
-            for (Sound sound : notesOn)
+            Sound sound = voices.findHeld(sm.getChannel(), i, getMPEChannels(sm.getChannel()));
+            if (sound != null)
                 {
-                int c = sound.getChannel();
-                if (c == CHANNEL_OMNI || c == sm.getChannel()
-                    || (isMPEChannel(c) && sm.getChannel() == getMPEGlobalChannel()))
-                    {
-                    if (sound.getMIDINote() == i)
-                        {
-                        sound.setAftertouch(d);
-                        return;
-                        }
-                    }
+                sound.post(Sound.EVENT_AFTERTOUCH, 0, d);
                 }
             }
         }
@@ -642,34 +626,52 @@ public class Input
         double d = sm.getData1() / 127.0;
         synchronized (lock)
             {
-            for (Sound sound : notesOn)
+            boolean[] channels = getMatchingChannels(sm.getChannel());
+            for (int c = 0; c < channels.length; c++)
                 {
-                int c = sound.getChannel();
-                if (c == CHANNEL_OMNI || c == sm.getChannel()
-                    || (isMPEChannel(c) && sm.getChannel() == getMPEGlobalChannel()))
+                if (!channels[c]) continue;
+                for (int v = voices.firstInSlot(c); v >= 0; v = voices.nextInSlot(v))
                     {
-                    sound.setAftertouch(d);
+                    voices.getSound(v).post(Sound.EVENT_AFTERTOUCH, 0, d);
                     }
                 }
+            }
+        }
 
-            for (Sound sound : notesOff)
-                {
-                int c = sound.getChannel();
-                if (c == CHANNEL_OMNI || c == sm.getChannel()
-                    || (isMPEChannel(c) && sm.getChannel() == getMPEGlobalChannel()))
-                    {
-                    sound.setAftertouch(d);
-                    }
-                }
+    // Scratch for getMatchingChannels() and getMPEChannels()
+    boolean[] matchingChannels = new boolean[NUM_MIDI_CHANNELS + 1];
+    boolean[] mpeChannels = new boolean[NUM_MIDI_CHANNELS];
+
+    // Returns, for a channel message on CHANNEL, which VoiceAllocator channel slots
+    // its voices may be in: CHANNEL itself, OMNI (the last slot), and if CHANNEL is
+    // the MPE global channel, the MPE channels.
+    boolean[] getMatchingChannels(int channel)
+        {
+        Arrays.fill(matchingChannels, false);
+        boolean global = (channel == getMPEGlobalChannel());
+        for (int c = 0; c < NUM_MIDI_CHANNELS; c++)
+            {
+            matchingChannels[c] = (c == channel || (global && isMPEChannel(c)));
+            }
+        matchingChannels[NUM_MIDI_CHANNELS] = true;
+        return matchingChannels;
+        }
+
+    // Returns the MPE channels if CHANNEL is the MPE global channel, else null
+    boolean[] getMPEChannels(int channel)
+        {
+        if (channel != getMPEGlobalChannel()) return null;
+        for (int c = 0; c < NUM_MIDI_CHANNELS; c++)
+            {
+            mpeChannels[c] = isMPEChannel(c);
             }
+        return mpeChannels;
         }
 
     // NOTE ON
 
-    // List of sounds with a note-on
-    LinkedList<Sound> notesOn = new LinkedList<Sound>();
-    // List of sounds with a note-off
-    LinkedList<Sound> notesOff = new LinkedList<Sound>();
+    // Which sounds are holding notes and which are free, by group, channel, and note
+    VoiceAllocator voices = new VoiceAllocator(Output.getNumVoices());
     // List of keystrokes currently held down, in order
     LinkedList<Integer> notesOnMono = new LinkedList<Integer>();
     // Last sound which was started in response to a NOTE ON
@@ -695,6 +697,7 @@ public class Input
         int i = sm.getData1();
         boolean noteCurrentlyOn = false;
         int g = 0;
+        int channel = CHANNEL_NONE;
         
         synchronized(lock)
             {
@@ -714,39 +717,31 @@ public class Input
                 sound = output.getSoundUnsafe(0);  // I think I can do this because they're not changing at this point
 
                 // Find Sound 0 and remove it from wherever it is
-                if (!notesOff.remove(sound))
-                    {
-                    notesOn.remove(sound);
-                    noteCurrentlyOn = true;
-                    }
+                noteCurrentlyOn = voices.take(sound);
                 }
             else
                 {
-                // look through notesOff first
-                for (int j = notesOff.size() - 1; j >= 0; j--)
+                // If the Governor has cut the number of voices and that many are sounding, counting
+                // those still in their release, reuse the group's oldest released voice which is still
+                // sounding, or else steal its oldest note, rather than start another one
+                int budget = output.getGovernor().getVoiceBudget();
+                if (budget < output.getNumSounds() && voices.getNumSounding() >= budget)
                     {
-                    Sound s = notesOff.get(j);
-                    if (s.getGroup() == g)
-                        {
-                        sound = s;
-                        notesOff.remove(j);
-                        break;
-                        }
+                    sound = voices.takeFreeSounding(g);
+                    if (sound == null)
+                        sound = voices.takeHeld(g);
                     }
 
+                // take the group's oldest free sound first
                 if (sound == null)
                     {
-                    // look through notesOn next
-                    for (int j = notesOn.size() - 1; j >= 0; j--)
-                        {
-                        Sound s = notesOn.get(j);
-                        if (s.getGroup() == g)
-                            {
-                            sound = s;
-                            notesOn.remove(j);
-                            break;
-                            }
-                        }
+                    sound = voices.takeFree(g);
+                    }
+
+                if (sound == null)
+                    {
+                    // steal the group's oldest held sound next
+                    sound = voices.takeHeld(g);
                     }
 
                 if (sound == null)
@@ -755,76 +750,43 @@ public class Input
                     // sounds allocated to it.
                     return;         // we have failed
                     }
+                }
 
-                // handle sustain queue for non-mono sounds. We need to
-                // release the old sound
-                if (sustain && sustainQueue.contains(sound))
-                    {
-                    sustainQueue.remove(sound);
-                    sound.release();
-                    }
+            // set the channel, including OMNI
+            channel = (output.getGroup(g).getChannel() == CHANNEL_OMNI ? CHANNEL_OMNI : sm.getChannel());
+            voices.hold(sound, channel, i);
+
+            // handle sustain queue for non-mono sounds. We need to
+            // release the old sound
+            if (sustain && voices.unsustain(sound))
+                {
+                sound.post(Sound.EVENT_RELEASE, 0, 0);
                 }
-            notesOn.addFirst(sound);
             }
 
         double d = Math.pow(2.0, (double) (i - 69.0) / 12.0) * 440.0;
 
+        // At this point we're modifying the sound.  Rather than acquire the
+        // Output lock, we post the changes to the sound's mailbox, and it 
+        // applies them when it next goes.
 
-        // At this point we're modifying the sound.  So we need to acquire the lock.
-
-        output.lock();
-        try
+        sound.post(Sound.EVENT_CHANNEL, channel, 0);
+        sound.post(Sound.EVENT_NOTE, i, (microTuning != null ? microTuning.freqs[i] : d));
+        sound.post(Sound.EVENT_NEW_NOTE, -1, 0);
+        sound.post(Sound.EVENT_VELOCITY, 0, (double) sm.getData2() / 127.0);
+        sound.post(Sound.EVENT_BEND, 0, (channel == CHANNEL_OMNI ? omniBend : globalBend[channel]));
+        if (!noteCurrentlyOn)
             {
-            // set the channel, including OMNI
-            if (output.getGroup(g).getChannel() == CHANNEL_OMNI)
-                {
-                sound.setChannel(CHANNEL_OMNI);
-                }
-            else
-                {
-                sound.setChannel(sm.getChannel());
-                }
-
-            if (microTuning != null)
+            if (resetOnGate)
                 {
-                sound.setNote(microTuning.freqs[i]);
-                }
-            else
-                {
-                sound.setNote(d);
-                }
-            sound.setMIDINote(i);
-            sound.incrementNoteCounter();
-            sound.setVelocity((double) sm.getData2() / 127.0);
-            if (sound.getChannel() == CHANNEL_OMNI)
-                {
-                sound.setBend(omniBend);
-                }
-            else
-                {
-                sound.setBend(globalBend[sound.getChannel()]);
-                }
-            if (!noteCurrentlyOn)
-                {
-                if (resetOnGate)
-                    {
-                    sound.resetPartialPhases();
-                    }
-                sound.gate();
-                }
-
-            if (sound.getGroup() == Output.PRIMARY_GROUP)
-                {
-                lastPlayedSound = sound;
+                sound.post(Sound.EVENT_RESET_PHASES, 0, 0);
                 }
+            sound.post(Sound.EVENT_GATE, gateOffset, 0);
             }
-        catch (Exception e)
-            {
-            e.printStackTrace();
-            } 
-        finally
+
+        if (sound.getGroup() == Output.PRIMARY_GROUP)
             {
-            output.unlock();
+            lastPlayedSound = sound;
             }
         }
 
@@ -837,105 +799,80 @@ public class Input
         synchronized (lock)
             {
             notesOnMono.remove(Integer.valueOf(i));
-            Iterator iterator = notesOn.iterator();
-            while (true)
+            // Unlike, say, aftertouch, I *think* the right behavior
+            // here is simply to match the channel or OMNI
+            sound = voices.findHeld(sm.getChannel(), i, null);
+
+            // As in processNoteOn(), we post our changes to the sound
+            // rather than acquire the Output lock
+            boolean monoIsEmpty = notesOnMono.isEmpty();
+            boolean onlyPlayFirstSound = output.getOnlyPlayFirstSound();
+            if (sound == null)
                 {
-                if (!iterator.hasNext())
-                    {
-                    break;
-                    }
-                Sound sound1 = (Sound) iterator.next();
-                int c = sound1.getChannel();
-                // Unlike, say, aftertouch, I *think* the right behavior
-                // here is simply to match the channel or OMNI
-                if ((c != sm.getChannel() && c != CHANNEL_OMNI)
-                    || (sound1.getMIDINote() != i))
-                    {
-                    continue;
-                    }
-                sound = sound1;
-                break;
+                // This happens when we receive a NOTE_OFF but we have
+                // no group which is currently assigned to that channel
+                // or note range
                 }
-
-            output.lock();
-            try
+            else
                 {
-                boolean monoIsEmpty = notesOnMono.isEmpty();
-                boolean onlyPlayFirstSound = output.getOnlyPlayFirstSound();
-                if (sound == null)
+                if (!onlyPlayFirstSound || monoIsEmpty)        // release our sound
                     {
-                    // This happens when we receive a NOTE_OFF but we have
-                    // no group which is currently assigned to that channel
-                    // or note range
+                    // add to queue but don't release if we're sustaining
+                    if (sustain)
+                        {
+                        voices.sustain(sound);
+                        }
+                    else
+                        {
+                        sound.post(Sound.EVENT_RELEASE, 0, 0);
+                        }
+                    voices.free(sound);
+
+                    // we do the following because Roli's MPE will
+                    // typically immediately reuse the channel.
+                    // See Page 11 of the MPE spec:
+                    //
+                    // "The prevention of per-note control after Note
+                    // Off allows rapid reuse of unoccupied Channels,
+                    // and applies even to notes that are kept active by
+                    // a Damper Pedal message or a long release
+                    // envelope."
+
+                    if (isMPEChannel(voices.getChannel(sound.getIndex())))
+                        {
+                        sound.post(Sound.EVENT_CHANNEL, CHANNEL_NONE, 0);
+                        voices.update(sound, CHANNEL_NONE, i);
+                        }
                     }
-                else
+                else        // just reassign the sound
                     {
-                    if (!onlyPlayFirstSound || monoIsEmpty)        // release our sound
+                    int j = i;
+                    i = notesOnMono.getLast().intValue();
+                    double d = Math.pow(2.0, (double) (i - 69) / 12.0) * 440.0;
+
+                    // set the channel, including OMNI
+                    int channel = CHANNEL_OMNI;
+                    if (output.getGroup(sound.getGroup()).getChannel() != CHANNEL_OMNI)
                         {
-                        // add to queue but don't release if we're sustaining
-                        if (sustain && !sustainQueue.contains(sound))
-                            {
-                            sustainQueue.add(sound);
-                            }
-                        else
-                            {
-                            sound.release();
-                            }
-                        notesOn.remove(sound);
-                        notesOff.addFirst(sound);
-
-                        // we do the following because Roli's MPE will
-                        // typically immediately reuse the channel.
-                        // See Page 11 of the MPE spec:
-                        //
-                        // "The prevention of per-note control after Note
-                        // Off allows rapid reuse of unoccupied Channels,
-                        // and applies even to notes that are kept active by
-                        // a Damper Pedal message or a long release
-                        // envelope."
-
-                        if (isMPEChannel(sound.getChannel()))
-                            {
-                            sound.setChannel(CHANNEL_NONE);
-                            }
+                        channel = sound.getGroup();
                         }
-                    else        // just reassign the sound
+
+                    sound.post(Sound.EVENT_CHANNEL, channel, 0);
+                    sound.post(Sound.EVENT_NOTE, i, d);
+                    sound.post(Sound.EVENT_NEW_NOTE, ++allocationCounter, 0);
+                    voices.update(sound, channel, i);
+
+                    if (sound.getGroup() == Output.PRIMARY_GROUP)
                         {
-                        int j = i;
-                        i = notesOnMono.getLast().intValue();
-                        double d = Math.pow(2.0, (double) (i - 69) / 12.0) * 440.0;
-
-                        // set the channel, including OMNI
-                        if (output.getGroup(sound.getGroup()).getChannel() == CHANNEL_OMNI)
-                            {
-                            sound.setChannel(CHANNEL_OMNI);
-                            }
-                        else
-                            {
-                            sound.setChannel(sound.getGroup());
-                            }
-
-                        sound.setNote(d);
-                        sound.setMIDINote(i);
-                        sound.incrementNoteCounter();
-                        sound.setAllocation(++allocationCounter);
-
-                        if (sound.getGroup() == Output.PRIMARY_GROUP)
-                            {
-                            lastPlayedSound = sound;
-                            }
+                        lastPlayedSound = sound;
                         }
-
-                    // either way, let's set the release velocity
-                    if (noteOnMessage)
-                        sound.setReleaseVelocity(0.5);          // From MIDI spec: a NOTE ON of 0 velocity shall be interpreted as a NOTE OFF of 64 velocity
-                    else
-                        sound.setReleaseVelocity((double) sm.getData2() / 127.0);
                     }
-                } 
-            finally
-                {
-                output.unlock();
+
+                // either way, let's set the release velocity
+                if (noteOnMessage)
+                    sound.post(Sound.EVENT_RELEASE_VELOCITY, 0, 0.5);          // From MIDI spec: a NOTE ON of 0 velocity shall be interpreted as a NOTE OFF of 64 velocity
+                else
+                    sound.post(Sound.EVENT_RELEASE_VELOCITY, 0, (double) sm.getData2() / 127.0);
                 }
             }
         }
@@ -970,50 +907,129 @@ public class Input
 
     ////// TOP LEVEL
 
+    // How many samples into the coming block the message being processed is due
+    int gateOffset = 0;
+
+    /** Processes a MIDI message as if it had just arrived from a MIDI device.  This is how
+        MIDI gets in when there is no device, as when rendering a MIDI file offline.  Call it
+        from the thread which calls Output.go(), between calls to go(). */
+    public void processMessage(MidiMessage message)
+        {
+        processMessage(message, 0);
+        }
+
+    /** Processes a MIDI message due OFFSET samples (0 ... Output.getSkip() - 1) into the block
+        which the next Output.go() will produce.  A NOTE ON starts its note at that sample. */
+    public void processMessage(MidiMessage message, int offset)
+        {
+        gateOffset = offset;
+        try
+            {
+            dispatchMessage(message);
+            }
+        finally
+            {
+            gateOffset = 0;
+            }
+        }
+
+    void dispatchMessage(MidiMessage message)
+        {
+        if (message == null || !(message instanceof ShortMessage))
+            {
+            return;
+            }
+        ShortMessage sm = (ShortMessage) message;
+        if (sm.getStatus() >= 0x80 && sm.getStatus() < 0xF0)                      // voice
+            // message
+            {
+            Midi.CCData ccdata;
+
+            int command = sm.getCommand();                  // Note not getStatus().  See below.
+            if ((command == ShortMessage.NOTE_OFF || (command == ShortMessage.NOTE_ON && sm.getData2() == 0)))
+                {
+                processNoteOff(sm, command == ShortMessage.NOTE_ON);
+                }
+            else if (command == ShortMessage.NOTE_ON)
+                {
+                processNoteOn(sm);
+                }
+            else if (command == ShortMessage.PITCH_BEND)
+                {
+                processPitchBend(sm);
+                }
+            else if (command == ShortMessage.CONTROL_CHANGE)
+                {
+                processCC(sm);
+                }
+            else if (command == ShortMessage.CHANNEL_PRESSURE)
+                {
+                processChannelAftertouch(sm);
+                }
+            else if (command == ShortMessage.POLY_PRESSURE)
+                {
+                processPolyAftertouch(sm);
+                }
+            }
+        }
+
+    // When go() last collected the incoming messages
+    long lastGo = 0;
+    // The incoming message being processed.  We reuse it rather than allocating one per message.
+    ShortMessage incoming = new ShortMessage();
+    // How many overflows of the MIDI queue we've reported
+    long reportedOverflows = 0;
+    // How many overflows of the Sounds' mailboxes we've reported
+    long reportedMailboxOverflows = 0;
+
     // Pulses the Input. Called by Output's voice sync thread's go() method.
+    // Collects the incoming messages and processes them.  The messages which arrived
+    // between the last go() and this one are spread over the coming block in proportion
+    // to their arrival times, so their spacing is kept to the sample, at the cost of a
+    // constant latency of one block.
     void go()
         {
-        MidiMessage[] messages = midi.getNextMessages();
+        long now = System.nanoTime();
+        long elapsed = now - lastGo;
+        int skip = Output.getSkip();
+        MidiQueue queue = midi.getQueue();
 
-        for (int i = 0; i < messages.length; i++)
+        // Take no more than a queue's worth, so a flood can't keep us here forever
+        for (int i = 0; i < queue.getCapacity() && queue.poll(); i++)
             {
-            MidiMessage message = messages[i];
-            if (message == null || !(message instanceof ShortMessage))
+            int offset = 0;
+            if (lastGo != 0 && elapsed > 0)
+                {
+                long since = queue.getTime() - lastGo;
+                if (since > 0)
+                    offset = (int)Math.min(skip - 1, since * skip / elapsed);
+                }
+            try
                 {
-                continue;
+                incoming.setMessage(queue.getStatus(), queue.getData1(), queue.getData2());
                 }
-            ShortMessage sm = (ShortMessage) message;
-            if (sm.getStatus() >= 0x80 && sm.getStatus() < 0xF0)                      // voice
-                // message
+            catch (InvalidMidiDataException ex)
                 {
-                Midi.CCData ccdata;
-
-                int command = sm.getCommand();                  // Note not getStatus().  See below.
-                if ((command == ShortMessage.NOTE_OFF || (command == ShortMessage.NOTE_ON && sm.getData2() == 0)))
-                    {
-                    processNoteOff(sm, command == ShortMessage.NOTE_ON);
-                    }
-                else if (command == ShortMessage.NOTE_ON)
-                    {
-                    processNoteOn(sm);
-                    }
-                else if (command == ShortMessage.PITCH_BEND)
-                    {
-                    processPitchBend(sm);
-                    }
-                else if (command == ShortMessage.CONTROL_CHANGE)
-                    {
-                    processCC(sm);
-                    }
-                else if (command == ShortMessage.CHANNEL_PRESSURE)
-                    {
-                    processChannelAftertouch(sm);
-                    }
-                else if (command == ShortMessage.POLY_PRESSURE)
-                    {
-                    processPolyAftertouch(sm);
-                    }
+                continue;               // can't happen, it was a valid ShortMessage when it came in
                 }
+            processMessage(incoming, offset);
+            }
+        lastGo = now;
+
+        long overflows = queue.getOverflows();
+        if (overflows != reportedOverflows)
+            {
+            System.err.println("Input.go() WARNING: the MIDI input queue overflowed, " + (overflows - reportedOverflows) + " messages were dropped");
+            reportedOverflows = overflows;
+            }
+
+        long mailboxOverflows = 0;
+        for(int i = 0; i < output.getNumSounds(); i++)
+            mailboxOverflows += output.getSoundUnsafe(i).getMailboxOverflows();
+        if (mailboxOverflows != reportedMailboxOverflows)
+            {
+            System.err.println("Input.go() WARNING: the Sounds' mailboxes overflowed, " + (mailboxOverflows - reportedMailboxOverflows) + " events were dropped");
+            reportedMailboxOverflows = mailboxOverflows;
             }
 
         midiClock.go();
@@ -0,0 +1,58 @@
+// Copyright 2018 by George Mason University
+// Licensed under the Apache 2.0 License
+
+
+package flow;
+
+import javax.sound.sampled.*;
+
+/**
+   An AudioSink which plays through a Java Sound SourceDataLine.  This is Flow's normal sink.
+   write() blocks until the line has room, which paces the Output to real time.  The sink is
+   starving when the line's buffer is nearly empty.
+**/
+
+public class JavaSoundSink implements AudioSink
+    {
+    SourceDataLine sdl;
+    Mixer.Info mixer;
+    int starving;           // when available() reaches this, the line is nearly empty
+    
+    /** Opens and starts a line on the given MIXER (or the default mixer if null) in the
+        given FORMAT, with a buffer of BUFFERSIZE bytes per channel. */
+    public JavaSoundSink(Mixer.Info mixer, AudioFormat format, int bufferSize) throws LineUnavailableException
+        {
+        this.mixer = mixer;
+        starving = (bufferSize - 128) * format.getChannels();
+        if (mixer == null)
+            sdl = AudioSystem.getSourceDataLine(format);
+        else
+            sdl = AudioSystem.getSourceDataLine(format, mixer);
+        sdl.open(format, bufferSize * format.getChannels());
+        sdl.start();
+        }
+        
+    /** Returns the mixer, or null if the default. */
+    public Mixer.Info getMixer() { return mixer; }
+        
+    public void write(byte[] buffer, int offset, int length)
+        {
+        sdl.write(buffer, offset, length);
+        }
+        
+    public boolean isStarving()
+        {
+        return sdl.available() >= starving;
+        }
+        
+    public int getQueued()
+        {
+        return sdl.getBufferSize() - sdl.available();
+        }
+        
+    public void close()
+        {
+        sdl.stop();
+        sdl.close();
+        }
+    }
@@ -0,0 +1,39 @@
+// Copyright 2018 by George Mason University
+// Licensed under the Apache 2.0 License
+
+
+package flow;
+
+/**
+   A bounded queue of events for a single Sound, which any thread may post to and the
+   Sound's own voice thread drains at the start of each Sound.go().  This lets Input tell a
+   voice to gate, release, change its note and so on without taking Output.lock() and so
+   without waiting for, or holding up, the voices.  Neither side ever locks or allocates:
+   see EventQueue.
+
+   <p>An event is an int TYPE (Sound defines the types and applies them: see Sound.post())
+   with an int and a double argument.  The double is stored as its bits.
+
+   <p>If the mailbox is full, or an event's RESERVE would not be left free, offer() returns
+   false and counts an overflow.
+**/
+
+public class Mailbox extends EventQueue
+    {
+    /** Builds a mailbox holding up to CAPACITY events, rounded up to a power of two. */
+    public Mailbox(int capacity)
+        {
+        super(capacity);
+        }
+
+    /** Adds an event, provided that RESERVE slots would still be free after it.  Returns false, and
+        counts an overflow, otherwise.  Any thread may call this. */
+    public boolean offer(int type, int intValue, double doubleValue, int reserve)
+        {
+        return offer(type, intValue, 0, Double.doubleToRawLongBits(doubleValue), reserve);
+        }
+
+    public int getType() { return a; }
+    public int getInt() { return b; }
+    public double getDouble() { return Double.longBitsToDouble(d); }
+    }
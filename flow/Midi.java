@@ -216,102 +216,49 @@ public class Midi
     //Object lock = new Object[0];
     java.util.concurrent.locks.ReentrantLock lock = new java.util.concurrent.locks.ReentrantLock(true);
 
-    // All current MIDI Messages which have not been grabbed yet
-    ArrayList<MidiMessage> nextMessages = new ArrayList<MidiMessage>();
-    MidiMessage[] empty = new MidiMessage[0];
-    MidiMessage[] one = new MidiMessage[1];             // fast return
-    MidiMessage[] two = new MidiMessage[2];             // fast return
+    /** How many incoming messages can wait for the voice thread before we start dropping them. */
+    public static final int QUEUE_CAPACITY = 4096;
     
-    /** Returns all MIDI Messages, in order, that have not yet been processed.  By calling this,
-        the messages are processed and removed from this queue. */    
-    public MidiMessage[] getNextMessages()
-        {
-        try
-            {
-            boolean result = lock.tryLock(0L, java.util.concurrent.TimeUnit.MILLISECONDS);
-            if (result)
-                {
-                try
-                    {
-                    // This is a little faster than just doing toArray()
-                    int size = nextMessages.size();
-                    if (size == 0) return empty;
-                    else if (size == 1)
-                        {
-                        one[0] = nextMessages.get(0);
-                        nextMessages.clear();
-                        return one;
-                        }
-                    else if (size == 2)
-                        {
-                        two[0] = nextMessages.get(0);
-                        two[1] = nextMessages.get(1);
-                        nextMessages.clear();
-                        return two;
-                        }
-                    else
-                        {
-                        MidiMessage[] ret = (MidiMessage[]) nextMessages.toArray(new MidiMessage[size]);
-                        nextMessages.clear();
-                        return ret;
-                        }
-                    }
-                finally
-                    {
-                    lock.unlock();
-                    }
-                }
-            }
-        catch (InterruptedException ex) { }
-        return empty;   // not reachable
-        }
+    // Incoming messages which have not been grabbed yet, from both receivers
+    final MidiQueue queue = new MidiQueue(QUEUE_CAPACITY);
+    
+    /** Returns the queue of incoming MIDI messages which have not yet been processed.  Only 
+        the voice thread (in Input.go()) may poll it. */    
+    public MidiQueue getQueue() { return queue; }
         
     // Our special kind of receiver.
     class InReceiver implements Receiver
         {
-        boolean live = true;
+        volatile boolean live = true;
 
         // these have to be public because the superclass has them public         
         public void close() 
             { 
-            lock.lock();
-            try
-                {
-                live = false;
-                }
-            finally
-                {
-                lock.unlock();
-                }
+            live = false;
             }
                
         // these have to be public because the superclass has them public         
         public void send(MidiMessage message, long timeStamp)
             {
-            boolean l = false;
+            long now = System.nanoTime();       // Java Sound's timeStamp is usually -1
+            boolean l = live;
             int command = message.getStatus();              // Note NOT getCommand().  getCommand() only works for channel messages.
 
-            lock.lock();
-            try
+            // first things first, queue the message if we need to.  Input only handles
+            // short messages, so we don't bother with the others.
+            if (l && (command < ShortMessage.TIMING_CLOCK || command > ShortMessage.STOP))
                 {
-                // first things first, get out of the lock as fast as we can.
-                // We do that by adding the message if we need to.
-
-                l = live;
-                if (live && (command < ShortMessage.TIMING_CLOCK || command > ShortMessage.STOP))
+                if (message instanceof ShortMessage)
                     {
-                    nextMessages.add(message);
-                    return;
+                    ShortMessage sm = (ShortMessage) message;
+                    queue.offer(command, sm.getData1(), sm.getData2(), now);
                     }
+                return;
                 }
-            finally
-                {
-                lock.unlock();
-                }           
                 
             // Now we can pulse the clock -- it has its own separate lock.
             // We do it here rather than letting the voice sync thread handle
-            // these messages when it grabs all nextMessages() because the
+            // these messages when it polls the queue because the
             // voice sync thread is too slow; it's typically 1/3 the speed
             // of MIDI.  We want to update the timing clock as soon as humanly
             // possible so we can properly interpolate.  Other messages don't
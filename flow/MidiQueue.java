@@ -0,0 +1,38 @@
+// Copyright 2018 by George Mason University
+// Licensed under the Apache 2.0 License
+
+
+package flow;
+
+/**
+   A bounded queue of short MIDI messages, which any number of threads (the Java Sound
+   receiver threads of both MIDI inputs) may offer to, and one thread (the voice thread,
+   in Input.go()) polls from.  Neither side ever locks or allocates: see EventQueue.
+
+   <p>Messages are stored decoded, as a status, two data bytes, and the System.nanoTime()
+   at which they arrived.
+
+   <p>If the queue is full, offer() drops the message and counts it: see getOverflows().
+**/
+
+public class MidiQueue extends EventQueue
+    {
+    /** Builds a queue holding up to CAPACITY messages, rounded up to a power of two. */
+    public MidiQueue(int capacity)
+        {
+        super(capacity);
+        }
+
+    /** Adds a message which arrived at System.nanoTime() TIME.  Returns false, and counts an overflow,
+        if the queue is full.  Any thread may call this. */
+    public boolean offer(int status, int data1, int data2, long time)
+        {
+        return super.offer(status, data1, data2, time);
+        }
+
+    public int getStatus() { return a; }
+    public int getData1() { return b; }
+    public int getData2() { return c; }
+    /** Returns the System.nanoTime() at which the message arrived. */
+    public long getTime() { return d; }
+    }
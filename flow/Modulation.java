@@ -91,6 +91,11 @@ public abstract class Modulation implements Cloneable
     public ModulePanel getModulePanel() { return modPanel; }
     public void setModulePanel(ModulePanel modPanel) { this.modPanel = modPanel; }  
 
+    /** Nanoseconds spent in go() while the Output was profiling.  Sound.go() accumulates
+        this; the Profiler reads it.  See Output.setProfiling(). */
+    long profileNanos;
+    public long getProfileNanos() { return profileNanos; }
+
     /** The Modulation's sound backpointer. */
     protected Sound sound;
         
@@ -154,6 +159,19 @@ public abstract class Modulation implements Cloneable
         Be sure to call super.restart(); */
     public void restart() { }
         
+    /** Returns true if the Modulation must keep running even when its Sound is silent and
+        has no note held down.  Otherwise such a Sound may be put to sleep until its next gate(). */
+    public boolean isFreeRunning() { return false; }
+
+    /** Returns true if the Modulation must run each tick even if nothing in its patch reads its outputs,
+        because its go() changes something outside of it, such as the Sound's note.  The patch compiler
+        (see Sound.compile()) starts from these Modulations when it works out which ones are live. */
+    public boolean hasSideEffects() { return false; }
+
+    /** Called just before go() each tick: returns true if go() may be skipped this time, as the
+        Modulation's outputs would come out the same.  By default this returns false.  See Unit.isMemoizable(). */
+    public boolean isUpToDate() { return false; }
+        
     /** Called (many times) when the system wishes to inform the Modulation to revise itself. 
         Be sure to call super.go(); */
     public void go() 
@@ -295,6 +313,8 @@ public abstract class Modulation implements Cloneable
         {
         if (mod instanceof Constant)
             lastModulations[num] = (Constant)mod;
+        if (sound != null && !(mod instanceof Constant && modulations[num] instanceof Constant))
+            sound.invalidatePlan();                 // the wiring changed, not just a value
         modulations[num] = mod;
         modulationIndexes[num] = index;
         }
@@ -327,6 +347,8 @@ public abstract class Modulation implements Cloneable
     public void clearModulation(int num)
         {
         lastModulations[num] = defaultModulations[num];
+        if (sound != null && !(modulations[num] instanceof Constant))
+            sound.invalidatePlan();
         modulations[num] = defaultModulations[num];
         modulationIndexes[num] = 0;
         }
@@ -334,6 +356,8 @@ public abstract class Modulation implements Cloneable
     /** Returns Input Modulation port NUM to its last Constant value. */
     public void restoreModulation(int num)
         {
+        if (sound != null && !(modulations[num] instanceof Constant))
+            sound.invalidatePlan();
         modulations[num] = lastModulations[num];
         modulationIndexes[num] = 0;
         }
@@ -677,7 +701,8 @@ public abstract class Modulation implements Cloneable
         }
     
     /** Returns the clock tick value.  If we are syncing to MIDI clock,
-        this is returned.  Else the global wall clock is returned. */
+        this is returned.  Else the global wall clock is returned: while the Sound is applying the
+        events in its mailbox (a gate, say), this is the tick during which they arrived. */
     public int getSyncTick(boolean sync)
         {
         Output output = sound.getOutput();
@@ -688,7 +713,7 @@ public abstract class Modulation implements Cloneable
             }
         else
             {
-            return output.getTick();
+            return (sound.applyingMail ? output.getGateTick() : output.getTick());
             }
         }
     
@@ -0,0 +1,24 @@
+// Copyright 2018 by George Mason University
+// Licensed under the Apache 2.0 License
+
+
+package flow;
+
+/**
+   An AudioSink which throws its audio away as fast as it gets it, so the Output runs flat
+   out.  Use it to measure pure synthesis throughput with no audio device involved, or to
+   run Flow on machines which have none.  It counts the bytes it has been given.
+**/
+
+public class NullSink implements AudioSink
+    {
+    volatile long bytes = 0;
+
+    /** Returns the number of bytes written so far. */
+    public long getBytesWritten() { return bytes; }
+
+    public void write(byte[] buffer, int offset, int length) { bytes += length; }     // only the Output Thread writes
+    public boolean isStarving() { return false; }
+    public int getQueued() { return -1; }
+    public void close() { }
+    }
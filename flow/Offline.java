@@ -0,0 +1,192 @@
+// Copyright 2018 by George Mason University
+// Licensed under the Apache 2.0 License
+
+
+package flow;
+
+import flow.utilities.*;
+import java.io.*;
+import java.util.*;
+import javax.sound.midi.*;
+
+/**
+   Renders a patch playing a Standard MIDI File into a WAV file, as fast as the CPU allows.
+   Offline builds an offline Output (no audio device, no Output Thread) and then, for
+   each block of SKIP samples, hands the MIDI events due in that block to
+   Input.processMessage(), calls Output.go() to pulse the Sounds, and Output.renderBlock() to
+   render them.  Both spread their work over all the processors (see Scheduler), so on
+   a many-core machine a song renders many times faster than real time.  No sound card is needed.
+
+   <p>Events are placed in time with the file's tempo map.  Notes which start from silence
+   start on their exact sample; everything else happens at the start of the block of SKIP
+   samples (32, or 0.7ms, by default; you can set it with -DSkip=...) holding the event.
+   After the last event, Offline keeps rendering for TAIL seconds (by default
+   2) to let releases and reverb ring out.
+
+   <p>Usage: <tt>java flow.Offline [-voices N] [-channel C] [-tail SECONDS] PATCH MIDIFILE WAVFILE</tt>
+
+   <p>By default the primary patch listens to all channels (OMNI); -channel C (1...16) restricts it.
+   Subpatches keep the channels stored in PATCH.
+**/
+
+public class Offline
+    {
+    public static final double DEFAULT_TAIL = 2.0;
+
+    /** A MIDI message and the frame (sample) at which it occurs. */
+    public static class Event
+        {
+        public long frame;
+        public MidiMessage message;
+        public Event(long frame, MidiMessage message) { this.frame = frame; this.message = message; }
+        }
+
+    static final int META_TEMPO = 0x51;
+    static final int DEFAULT_TEMPO = 500000;            // microseconds per quarter note, that is, 120 BPM
+
+    /** Merges the tracks of SEQUENCE into a single list of Events, in time order, with their
+        ticks converted to frames through the sequence's tempo map.  Tempo changes in any track
+        apply to all of them, as the MIDI spec says. */
+    public static Event[] buildEvents(Sequence sequence)
+        {
+        ArrayList<MidiEvent> all = new ArrayList<MidiEvent>();
+        Track[] tracks = sequence.getTracks();
+        for(int t = 0; t < tracks.length; t++)
+            for(int i = 0; i < tracks[t].size(); i++)
+                all.add(tracks[t].get(i));
+
+        // This is a stable sort, so simultaneous events stay in track order
+        Collections.sort(all, new Comparator<MidiEvent>()
+            {
+            public int compare(MidiEvent a, MidiEvent b)
+                {
+                return Long.compare(a.getTick(), b.getTick());
+                }
+            });
+
+        boolean ppq = (sequence.getDivisionType() == Sequence.PPQ);
+        double resolution = sequence.getResolution();
+        double framesPerMicrosecond = Output.SAMPLING_RATE / 1000000.0;
+
+        ArrayList<Event> events = new ArrayList<Event>();
+        long lastTick = 0;
+        double lastMicroseconds = 0;
+        int tempo = DEFAULT_TEMPO;
+        for(MidiEvent event : all)
+            {
+            long tick = event.getTick();
+            double microseconds;
+            if (ppq)
+                {
+                microseconds = lastMicroseconds + (tick - lastTick) * tempo / resolution;
+                lastTick = tick;
+                lastMicroseconds = microseconds;
+                }
+            else        // SMPTE: the division is frames per second, the resolution ticks per frame
+                {
+                microseconds = tick * 1000000.0 / (sequence.getDivisionType() * resolution);
+                }
+
+            MidiMessage message = event.getMessage();
+            if (message instanceof MetaMessage)
+                {
+                MetaMessage meta = (MetaMessage) message;
+                byte[] data = meta.getData();
+                if (meta.getType() == META_TEMPO && data.length == 3)
+                    tempo = ((data[0] & 0xFF) << 16) | ((data[1] & 0xFF) << 8) | (data[2] & 0xFF);
+                }
+            else if (message instanceof ShortMessage)
+                {
+                events.add(new Event(Math.round(microseconds * framesPerMicrosecond), message));
+                }
+            }
+        return events.toArray(new Event[0]);
+        }
+
+    /** Renders EVENTS through OUTPUT, which must be offline, into a new 16-bit WAV file, followed
+        by TAIL seconds of silence (or whatever the patch does after its notes end).  Returns the number of frames written. */
+    public static long render(Output output, Event[] events, double tail, File file) throws IOException, WavFileException
+        {
+        if (!output.isOffline())
+            throw new IllegalArgumentException("Output is not offline");
+
+        int skip = Output.getSkip();
+        int channels = (Output.isStereo() ? 2 : 1);
+        long end = (events.length == 0 ? 0 : events[events.length - 1].frame);
+        long numFrames = end + (long)(tail * Output.SAMPLING_RATE);
+
+        WavFile wav = WavFile.newWavFile(file, channels, numFrames, 16, (long)Output.SAMPLING_RATE);
+        int[] block = new int[skip * channels];
+        Input input = output.getInput();
+        int next = 0;
+        try
+            {
+            for(long frame = 0; frame < numFrames; frame += skip)
+                {
+                // Notes start on their sample within the block
+                while(next < events.length && events[next].frame < frame + skip)
+                    {
+                    input.processMessage(events[next].message, (int)Math.max(0, events[next].frame - frame));
+                    next++;
+                    }
+
+                output.go();
+                output.renderBlock();
+
+                byte[] audio = output.getAudioBuffer();
+                for(int i = 0; i < block.length; i++)
+                    block[i] = (short)((audio[i * 2] & 0xFF) | (audio[i * 2 + 1] << 8));
+                wav.writeFrames(block, (int)Math.min(skip, numFrames - frame));
+                }
+            }
+        finally
+            {
+            wav.close();
+            }
+        return numFrames;
+        }
+
+    static void usage()
+        {
+        System.err.println("Usage: java flow.Offline [-voices N] [-channel C] [-tail SECONDS] PATCH MIDIFILE WAVFILE");
+        System.exit(1);
+        }
+
+    public static void main(String[] args) throws Exception
+        {
+        System.setProperty("java.awt.headless", "true");
+        System.setProperty("MidiDevice", Midi.NO_DEVICE);
+        System.setProperty("MidiDevice2", Midi.NO_DEVICE);
+        System.setProperty("Channel", "" + Input.CHANNEL_OMNI);
+
+        double tail = DEFAULT_TAIL;
+        ArrayList<String> files = new ArrayList<String>();
+        for(int i = 0; i < args.length; i++)
+            {
+            String arg = args[i];
+            if (!arg.startsWith("-"))
+                {
+                files.add(arg);
+                continue;
+                }
+            if (i + 1 >= args.length) usage();
+            String val = args[++i];
+            if (arg.equals("-voices")) System.setProperty("Voices", val);
+            else if (arg.equals("-channel")) System.setProperty("Channel", "" + (Integer.parseInt(val) - 1));
+            else if (arg.equals("-tail")) tail = Double.parseDouble(val);
+            else usage();
+            }
+        if (files.size() != 3) usage();
+
+        Event[] events = buildEvents(MidiSystem.getSequence(new File(files.get(1))));
+        Output output = Headless.buildOutput(true);
+        output.loadPatch(Headless.loadPatchFile(new File(files.get(0))));
+
+        long start = System.nanoTime();
+        long frames = render(output, events, tail, new File(files.get(2)));
+        double elapsed = (System.nanoTime() - start) / 1000000000.0;
+        double seconds = frames / Output.SAMPLING_RATE;
+        System.err.println("Rendered " + String.format("%.1f", seconds) + "s in " + String.format("%.1f", elapsed) +
+            "s (" + String.format("%.1f", seconds / elapsed) + "x real time) with " + Output.getNumVoices() + " voices");
+        }
+    }
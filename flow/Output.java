@@ -6,6 +6,8 @@ package flow;
 
 import javax.sound.sampled.*;
 import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
 import java.util.zip.*;
 import flow.modules.*;
 import flow.utilities.*;
@@ -73,6 +75,15 @@ public class Output
     public static final int SIN_QUALITY_DEFAULT = SIN_QUALITY_LOW;
     static int sinQuality = SIN_QUALITY_DEFAULT;
 
+    /** Renderers which convert partials into samples.  RENDERER_VECTOR requires the
+        jdk.incubator.vector module, and falls back to RENDERER_SCALAR without it.
+        RENDERER_FFT is much cheaper for large numbers of partials but is approximate. */
+    public static final int RENDERER_SCALAR = 0;
+    public static final int RENDERER_VECTOR = 1;
+    public static final int RENDERER_FFT = 2;
+    public static final int RENDERER_DEFAULT = RENDERER_SCALAR;
+    static int rendererType = RENDERER_DEFAULT;
+
     /** Number of samples emitted before reading the next partials output.
         Ideally this is 1; but it uses more juice.  If this is a large number
         then it contributes to lag because we interpolate from the previous partials
@@ -82,6 +93,8 @@ public class Output
     */
     public static final int DEFAULT_SKIP = 32;
     static int skip = -1;
+    /** Returns the number of samples rendered per block (per call to go()). */
+    public static int getSkip() { return skip; }
 
     /** The most voices you're permitted to register with the Output. 
         Obviously more voices, more CPU usage.
@@ -96,18 +109,6 @@ public class Output
     
     public static int getNumVoices() { return numVoices; }
 
-    /** The default number of voices allocated to a single thread, by default 1.
-        If we have lots of overhead in context switching, then we might want to set this higher,
-        perhaps even to numVoices,  but having it be 1 would ideally allow us to distribute each 
-        voice thread to a separate CPU -- if we have very costly voice threads, then this might be
-        useful. 
-    */
-    public static final int DEFAULT_NUM_VOICES_PER_THREAD = 8;
-    static int numVoicesPerThread = -1;
-    
-    public static final int DEFAULT_NUM_OUTPUTS_PER_THREAD = 2;
-    static int numOutputsPerThread = -1;
-
     public static final double DEFAULT_VOLUME_MULTIPLIER = 2000;
 
     public static final float DEFAULT_MASTER_GAIN = 0.0f;
@@ -129,7 +130,43 @@ public class Output
     AudioFormat audioFormat;
     
     // The audio output
-    SourceDataLine sdl;
+    volatile AudioSink sink;
+
+    // Whether we're rendering offline rather than to a sink
+    boolean offline;
+    /** Returns true if the Output was built offline, with no audio device or Output Thread. */
+    public boolean isOffline() { return offline; }
+
+    // Deadline and underrun statistics
+    final Telemetry telemetry = new Telemetry();
+    /** Returns the Output's Telemetry. */
+    public Telemetry getTelemetry() { return telemetry; }
+
+    // Degrades quality when we can't keep up
+    Governor governor;
+    /** Returns the Output's Governor. */
+    public Governor getGovernor() { return governor; }
+
+    // Whether Sound.go() is timing its Modulations
+    volatile boolean profiling;
+    Profiler profiler;
+
+    /** Turns per-Modulation profiling on or off.  While it's on, each Sound.go() times every
+        Modulation's go() with System.nanoTime(), which costs perhaps 20-50ns per Modulation.
+        While it's off, Sound.go() tests the flag once per tick and then runs its usual loop. */
+    public void setProfiling(boolean val) 
+        {
+        if (val) getProfiler().clear();
+        profiling = val; 
+        }
+    public boolean isProfiling() { return profiling; }
+    
+    /** Returns the Output's Profiler, which samples the costs gathered while profiling. */
+    public synchronized Profiler getProfiler() 
+        {
+        if (profiler == null) profiler = new Profiler(this);
+        return profiler;
+        }
 
     // Audio buffer, which the audio output drains.
     // It's the Output Thread's job to keep this sucker filled as much as possible.
@@ -144,17 +181,39 @@ public class Output
         {
         // Load preferences
         numVoices = Prefs.getLastNumVoices();
-        numVoicesPerThread = Prefs.getLastNumVoicesPerThread();
-        numOutputsPerThread = Prefs.getLastNumOutputsPerThread();
         bufferSize = Prefs.getLastBufferSize();
         masterGain = Prefs.getLastMasterGain();
         stereo = Prefs.getLastStereo();
         skip = Prefs.getLastSkip();   
         sinQuality = Prefs.getLastSinQuality();   
+        rendererType = Prefs.getLastRenderer();
         }
     
+    /** Builds an Output which plays through the audio device chosen in the preferences.
+        If there is no such device, the Output plays into a NullSink. */
     public Output()
         {
+        this(false, null);
+        }
+
+    /** Builds an Output.  If OFFLINE is true, the Output opens no audio device and starts no
+        Output Thread: instead you drive it yourself, calling go() and then renderBlock() for
+        each block of SKIP samples, as fast as you like.  See Offline. */
+    public Output(boolean offline)
+        {
+        this(offline, null);
+        }
+
+    /** Builds an Output whose Output Thread plays into the given sink. */
+    public Output(AudioSink sink)
+        {
+        this(false, sink);
+        }
+
+    Output(boolean offline, AudioSink sink)
+        {
+        this.offline = offline;
+        this.sink = sink;
         for(int i = 0; i < MAX_GROUPS; i++)
             {
             group[i] = new Group();
@@ -167,60 +226,93 @@ public class Output
         randomSeed = System.currentTimeMillis();
         sounds = new Sound[numVoices];
         positions = new double[numVoices][Unit.NUM_PARTIALS];
+        voiceClocks = new long[numVoices];
+        partialClocks = new long[numVoices][Unit.NUM_PARTIALS];
+        partialHolds = new int[numVoices][Unit.NUM_PARTIALS];
+        governor = new Governor(numVoices);
 
         // I'd like to do stereo but I can't get Java to do it without glitching
         audioFormat = new AudioFormat( SAMPLING_RATE, 16, (isStereo() ? 2 : 1), true, false );
 
-        Mixer.Info[] mixers = getSupportedMixers();
-        String mix = Prefs.getLastAudioDevice();
-        boolean found = false;
-        for (int i = 0; i < mixers.length; i++)
+        if (!offline && sink == null)
             {
-            if (mixers[i].getName().equals(mix))
+            try
+                {
+                Mixer.Info[] mixers = getSupportedMixers();
+                String mix = Prefs.getLastAudioDevice();
+                boolean found = false;
+                for (int i = 0; i < mixers.length; i++)
+                    {
+                    if (mixers[i].getName().equals(mix))
+                        {
+                        found = true;
+                        setMixer(mixers[i]);
+                        }
+                    }
+                if (!found) setMixer(null); // sets to the first one, which is the default normally
+                }
+            catch (RuntimeException ex)         // LineUnavailableException, or IllegalArgumentException if there's no line at all
                 {
-                found = true;
-                setMixer(mixers[i]);
+                System.err.println("Output.Output() WARNING: no audio output, playing into a NullSink instead: " + ex);
+                setSink(new NullSink());
                 }
             }
-        if (!found) setMixer(null); // sets to the first one, which is the default normally
 
         swap = new Swap();
         with = new Swap();
-        startOutputThread();
+        ready.set(new Swap());
+        if (!offline) startOutputThread();
 
         input = new Input(this);
         for(int i = 0; i < standardOrders.length; i++)
             standardOrders[i] = (byte)i;
             
         audioInput = new AudioInput(this);
+
+        telemetry.register();
+        telemetry.startLogging();
+        }
+
+    /** Returns the format of the audio the Output writes to its sink */
+    public AudioFormat getAudioFormat()
+        {
+        return audioFormat;
         }
 
-    /** Returns the currently used Mixer */
+    /** Returns the sink the Output Thread is writing to, or null if the Output is offline */
+    public AudioSink getSink()
+        {
+        return sink;
+        }
+
+    /** Closes the current sink and replaces it with SINK.  */
+    public void setSink(AudioSink sink)
+        {
+        AudioSink old = this.sink;
+        this.sink = sink;
+        mixer = null;
+        if (old != null)
+            old.close();
+        }
+
+    /** Returns the currently used Mixer, or null if the sink isn't playing through Java Sound */
     public Mixer.Info getMixer()
         {
         return mixer;
         }
                 
-    /** Sets the currently used Mixer */
+    /** Sets the currently used Mixer, replacing the sink with a JavaSoundSink which plays through it */
     public void setMixer(Mixer.Info mixer)
         {
         try
             {
-            if (sdl != null)
-                sdl.stop();
             if (mixer == null)
                 {
                 Mixer.Info[] m = getSupportedMixers();
                 if (m.length > 0)
                     mixer = m[0];
                 }
-            if (mixer == null)
-                sdl = AudioSystem.getSourceDataLine( audioFormat );
-            else
-                sdl = AudioSystem.getSourceDataLine( audioFormat, mixer );
-            sdl.open(audioFormat, bufferSize * (isStereo() ? 2 : 1));
-            sdl.start();
-
+            setSink(new JavaSoundSink(mixer, audioFormat, bufferSize));
             this.mixer = mixer;
             }
         catch (LineUnavailableException ex) { throw new RuntimeException(ex); }
@@ -282,8 +374,9 @@ public class Output
     // Note NOT a long.  :-(  See note at getTick()
     private volatile int tick = 0;
     int syncTick = 0;
+    int gateTick = 0;
 
-    void syncTick() { syncTick = tick; }
+    void syncTick() { gateTick = syncTick; syncTick = tick; }
 
     /** Returns the Output's current tick.  Note that TICK is presently an INTEGER.  This means it will 
         roll over to a negative value once every 13.5 hours at 44100, once every 12.4 hours at 48000, 
@@ -294,6 +387,10 @@ public class Output
         or as a mutex.  This may change in the future, so be prepared to update ints to longs.  ;-)  */
     public int getTick() { return syncTick; }
 
+    /** Returns the tick as it was before the current one was synced: the tick during which the
+        events now being applied from the Sounds' mailboxes arrived.  See Sound.drainMailbox(). */
+    public int getGateTick() { return gateTick; }
+
 
 
     /* Locking and Registering Sounds */
@@ -329,7 +426,9 @@ public class Output
     */
     public void lock() 
         { 
+        long start = System.nanoTime();
         soundLock.lock(); 
+        telemetry.recordLockWait(System.nanoTime() - start);
         }
     
     
@@ -420,7 +519,7 @@ public class Output
     /////    startOutputThread() method.  This thread runs in the background and is
     /////    never killed.  It is responsible for occasionally grabbing the most
     /////    recent partials, stored in SWAP, and using them to produce samples
-    /////    via multithreaded calls to buildSample, then emit them to the the audio 
+    /////    via multithreaded calls to a Renderer (by default buildSample()), then emit them to the the audio 
     /////    system.  The Output Thread also updates the current tick.
     /////
     ///// 1. The SUBSIDIARY OUTPUT THREADS.  buildSample() is very costly.  These
@@ -451,23 +550,17 @@ public class Output
         
 
 
-    // This is the lightweight semaphore between the Output thread and the primary
-    // voice thread.  The primary voice thread sets this to TRUE to indicate that 
-    // it has new partials to emit.  The Output thread grabs the partials and
-    // starts emitting them, and then sets the variable to TRUE.  The primary
-    // voice thread works in the background on the next partials, then spin-waits
-    // until the variable is TRUE, then submits new partials etc.
-    volatile boolean emitsReady;
+    // The primary voice thread, which the Output thread wakes up when it has taken a
+    // frame of partials.  See checkAndSwap().
+    volatile Thread primaryVoiceThread;
     
     
     // This reminds the Primary Voice Thread that it has already created the
     // per-voice threads.
     boolean soundThreadsStarted = false;
 
-    // Locks for negotiating between the primary voice thread and the per-voice threads
-    // These are managed via blockVoiceUntil() and signalVoice()
-    Object[] voiceLocks;
-    boolean[] lightweightSemaphores;
+    // Pulses the Sounds, spread over the per-voice threads.  See Scheduler.
+    Scheduler voiceScheduler;
         
     volatile boolean onlyPlayFirstSound;
     /** Returns whether we are only playing the first sound, or all sounds. */
@@ -499,6 +592,11 @@ public class Output
         float reverbDamp = 0.5f;
         boolean dephase[];
         boolean reset[];
+        boolean fresh;                  // has this frame been published but not yet taken?
+        int[][] active;                 // indexes of the partials which need rendering, see buildActivePartials()
+        int[] numActive;
+        boolean asleep[];               // voices which are asleep and should just emit silence
+        int gateOffset[];               // samples into the block at which voices were gated, see renderVoice()
               
         public Swap()
             {
@@ -510,15 +608,28 @@ public class Output
             velocities = new double[numVoices];
             dephase = new boolean[numVoices];
             reset = new boolean[numVoices];
+            active = new int[numVoices][Unit.NUM_PARTIALS];
+            numActive = new int[numVoices];
+            asleep = new boolean[numVoices];
+            gateOffset = new int[numVoices];
             }
         }
     
-    // The primary voice thread sets these
+    //// The partials are handed from the primary voice thread to the Output thread
+    //// through a triple buffer.  The primary voice thread owns "swap", and builds the
+    //// next frame in it: the Outs write their partials straight into it.  It then publishes 
+    //// the frame by exchanging it with "ready".  The Output thread owns "with", and
+    //// whenever "ready" holds a fresh frame it exchanges "with" for it.  Each exchange is
+    //// a single atomic operation, so neither side ever holds a lock on the other.
+    
+    // The primary voice thread builds new partials here
     Swap swap;
     
-    // The Output thread swaps "swap" with "with", and then uses the
-    // with-partials while the primary thread is busy building new 
-    // partials for swap again.
+    // The most recently published frame, or the frame the Output thread last gave back
+    final AtomicReference<Swap> ready = new AtomicReference<Swap>();
+    
+    // The Output thread emits these partials while the primary thread is busy building 
+    // new partials in swap.
     Swap with;
         
     
@@ -526,23 +637,28 @@ public class Output
     // waiting, and if so, to swap and use them.    
     void checkAndSwap()
         {
-        // notice that we're effectively spin-waiting here.  
-        //while(!emitsReady)
-        //    {
-        //    Thread.currentThread().yield();
-        //    }
-
-        if (emitsReady)
+        if (ready.get().fresh)
             {
-            Swap temp = swap;
-            swap = with;
-            with = temp;
-            emitsReady = false;
+            with = ready.getAndSet(with);
+            with.fresh = false;
+            
+            // The primary voice thread may be waiting for us to take the frame
+            Thread thread = primaryVoiceThread;
+            if (thread != null) LockSupport.unpark(thread);
             }
-        else
+        }
+    
+    // Called by go() to publish the frame in swap, once the Output thread has taken the
+    // previous one.  This paces the primary voice thread to one tick per block of samples.
+    void publishSwap()
+        {
+        primaryVoiceThread = Thread.currentThread();
+        while(ready.get().fresh)
             {
-            //Thread.currentThread().yield();           // we don't want the output thread to yield...
+            LockSupport.park(this);
             }
+        swap.fresh = true;
+        swap = ready.getAndSet(swap);
         }
       
     float[][] freeverbInput = new float[2][1];
@@ -556,6 +672,7 @@ public class Output
     void resetPositions(int voice)
         {
         System.arraycopy(blankPositions, 0, positions[voice], 0, blankPositions.length);
+        Arrays.fill(partialClocks[voice], voiceClocks[voice]);
         }
 
 
@@ -609,24 +726,16 @@ public class Output
     */
 
 
-    // Builds a single sample from the partials.  ALPHA is the current interpolation
-    // factor (from 0...1) 
-    double buildSample(int s, double[][] currentAmplitudes)
+    // Builds a single sample from the partials of a voice.  POS and CURRENTAMP
+    // are indexed by ORDER and are updated in place.  V is the voice's velocity.
+    static double buildSample(double[] amp, double[] freq, byte[] orders, double[] pos, double[] currentAmp,
+        double pitch, double v, boolean dephase)
         {        
         // build the sample
         double sample = 0;
-        Swap _with = with;
-        double[] amp = _with.amplitudes[s];
-        double[] freq = _with.frequencies[s];
-        byte[] orders = _with.orders[s];
-        double[] pos = positions[s];
-        double[] currentAmp = currentAmplitudes[s];
-        double v = _with.velocities[s];
-        double pitch = _with.pitches[s];
         double tr = pitch * INV_SAMPLING_RATE;
-        int sinQuality = this.sinQuality;
         
-        if (_with.dephase[s])                    // this is a manual hoist
+        if (dephase)                    // this is a manual hoist
             {
             for (int i = 0; i < pos.length; i++)
                 {
@@ -725,119 +834,709 @@ public class Output
         return sample * v;
         }
         
-    volatile boolean clipped = false;
-    // Obviously this is not atomic, but it's not a big deal as we're just
-    // using it in the GUI to display possible clips, so if we drop a clip by wild
-    // chance it's not a big deal.
-    public boolean getAndResetClipped() { boolean val = clipped; clipped = false; return val; }
+    //// ACTIVE PARTIALS
+    ////
+    //// Most patches only have a few dozen partials loud enough to hear at any one time.  So 
+    //// when go() fills the Swap, it also builds for each voice a list of the partial indexes
+    //// which are worth rendering: those below Nyquist which are loud, or which were loud
+    //// recently enough that their interpolated amplitude may not yet have decayed below 
+    //// MINIMUM_VOLUME.  Renderers which support it only touch the partials in this list.
+    ////
+    //// A partial which is left out has its position and interpolated amplitude frozen.
+    //// When it shows up in the list again, renderVoice() catches it up in closed form: its
+    //// position advances by its increment times the number of samples it missed, and its
+    //// amplitude decays as if its target had been zero all along.  To do this we keep a
+    //// sample clock for each voice, and the clock time up to which each partial (by ORDER)
+    //// has been brought.  These are only touched by the output threads.
+    ////
+    //// Partials above Nyquist are inaudible and are left out as well.  When the pitch drops
+    //// and they come back below Nyquist, they thus fade in from zero rather than appearing
+    //// at full amplitude.
+    ////
+    //// When the machine can't keep up, the Governor caps the length of the list, leaving out
+    //// the highest-numbered partials, which come back the same way once the load drops.
+    
+    long[] voiceClocks;
+    long[][] partialClocks;
+    
+    // How many more ticks each partial (by ORDER) must be rendered before its interpolated
+    // amplitude is guaranteed to be below MINIMUM_VOLUME.  Only touched by go().
+    int[][] partialHolds;
 
-    volatile boolean glitched = false;
-    // Obviously this is not atomic, but it's not a big deal as we're just
-    // using it in the GUI to display possible glitches, so if we drop a glitch by wild
-    // chance it's not a big deal.
-    public boolean getAndResetGlitched() { boolean val = glitched; glitched = false; return val; }
+    // The number of samples it takes an interpolated amplitude to decay by half
+    static final double SAMPLES_PER_HALVING = -1.0 / (Math.log(ONE_MINUS_PARTIALS_INTERPOLATION_ALPHA) / Math.log(2.0));
+    static final int MINIMUM_VOLUME_EXPONENT = Math.getExponent(MINIMUM_VOLUME);
+    
+    /** Indexes of all the partials in order, for rendering every partial with buildSamples() */
+    static final int[] ALL_PARTIALS = new int[Unit.NUM_PARTIALS];
+    static
+        {
+        for(int i = 0; i < ALL_PARTIALS.length; i++)
+            ALL_PARTIALS[i] = i;
+        }
+
+    // Called by go() once the partials and pitch of the given voice have been loaded into swap.
+    // Returns false if the voice is silent: no partial is loud or may still be decaying.
+    boolean buildActivePartials(int voice)
+        {
+        double[] amp = swap.amplitudes[voice];
+        double[] freq = swap.frequencies[voice];
+        byte[] orders = swap.orders[voice];
+        int[] active = swap.active[voice];
+        int[] holds = partialHolds[voice];
+        double pitch = swap.pitches[voice];
+        int cap = governor.getPartialCap();
+        int numActive = 0;
+        boolean audible = false;
+        
+        for(int i = 0; i < amp.length; i++)
+            {
+            int oi = orders[i] & 0xFF;
+            int hold = holds[oi] - 1;
+            double a = amp[i];
+            if (a > MINIMUM_VOLUME)
+                {
+                // a is below 2^(exponent + 1), so this many samples takes it below MINIMUM_VOLUME.  
+                // The interpolated amplitude is never above the largest recent target.
+                int ticks = (int)((Math.getExponent(a) + 1 - MINIMUM_VOLUME_EXPONENT) * SAMPLES_PER_HALVING) / skip + 2;
+                if (ticks > hold) hold = ticks;
+                }
+            if (hold < 0) hold = 0;
+            else audible = true;
+            holds[oi] = hold;
+            
+            if (hold > 0 && freq[i] * pitch <= NYQUIST && numActive < cap)
+                {
+                active[numActive++] = i;
+                }
+            }
+        swap.numActive[voice] = numActive;
+        return audible;
+        }
 
+    // Called by renderVoice() before rendering only the active partials of a voice.  Brings each
+    // active partial which was skipped up to date, then advances the clocks past the coming block.
+    void catchUpActivePartials(int voice, double[] currentAmp)
+        {
+        Swap _with = with;
+        double[] freq = _with.frequencies[voice];
+        byte[] orders = _with.orders[voice];
+        int[] active = _with.active[voice];
+        int numActive = _with.numActive[voice];
+        double[] pos = positions[voice];
+        long[] clocks = partialClocks[voice];
+        long now = voiceClocks[voice];
+        double tr = _with.pitches[voice] * INV_SAMPLING_RATE;
+
+        for(int k = 0; k < numActive; k++)
+            {
+            int i = active[k];
+            int oi = orders[i] & 0xFF;
+            long elapsed = now - clocks[oi];
+            if (elapsed > 0)
+                {
+                double position = pos[oi] + freq[i] * tr * elapsed;
+                pos[oi] = position - Math.floor(position);
+                double amplitude = currentAmp[oi] * Math.pow(ONE_MINUS_PARTIALS_INTERPOLATION_ALPHA, elapsed);
+                if (amplitude < WELL_ABOVE_SUBNORMALS) amplitude = 0;
+                currentAmp[oi] = amplitude;
+                }
+            clocks[oi] = now + skip;
+            }
+        voiceClocks[voice] = now + skip;
+        }
 
 
+    // Builds LENGTH samples from the partials of a voice, multiplied by DEFAULT_VOLUME_MULTIPLIER.  
+    // This is the same computation as calling buildSample() LENGTH times, with exactly the same
+    // results, but it is turned inside out: the outer loop is over partials and the inner loop over
+    // samples, so each partial's amplitude and position stay in registers for the whole block rather
+    // than being reloaded from the arrays for every sample.  Because each partial's amplitude and
+    // position depend on their values at the previous sample, a single partial per inner loop
+    // would stall on these dependencies; so we do four partials at a time.  They are still 
+    // added to each sample in partial order, as buildSample() does, so the sums are identical.
+    //
+    // Only the partials whose indexes appear in the first COUNT slots of INDEXES are rendered.
+    // To render them all, pass in ALL_PARTIALS and the number of partials.
+    static void buildSamples(double[] samples, int length, double[] amp, double[] freq, byte[] orders, int[] indexes, int count,
+        double[] pos, double[] currentAmp, double pitch, double v, boolean dephase)
+        {
+        for (int s = 0; s < length; s++)
+            {
+            samples[s] = 0;
+            }
 
-    // Locks for negotiating between the primary output thread and the per-output threads
-    // These are managed via blockOutputUntil() and signalOutput()
-    Object[] outputLocks;
-    boolean[] lightweightOutputSemaphores;
+        double tr = pitch * INV_SAMPLING_RATE;
         
+        if (dephase)
+            {
+            // See buildSample(): we stop at the first partial above Nyquist
+            for (int k = 0; k < count; k++)
+                {
+                if (freq[indexes[k]] * pitch > NYQUIST)
+                    {
+                    count = k;
+                    break;
+                    }
+                }
+            }
 
-    //// When the semaphore is FALSE, the per-output thread is in charge of its Sound.
-    //// When the semaphore is TRUE, the primary output thread is in charge.
-    ////
-    //// The primary output thread signals TRUE, then blocks until FALSE.
-    //// The reverse is true for the per-output threads.
+        int k = 0;
+        for ( ; k + 4 <= count; k += 4)
+            {
+            int i0 = indexes[k];
+            int i1 = indexes[k + 1];
+            int i2 = indexes[k + 2];
+            int i3 = indexes[k + 3];
+            int o0 = orders[i0] & 0xFF;           // if we're using 256 partials, they need to be all positive
+            int o1 = orders[i1] & 0xFF;
+            int o2 = orders[i2] & 0xFF;
+            int o3 = orders[i3] & 0xFF;
+            double t0 = amp[i0] * PARTIALS_INTERPOLATION_ALPHA;
+            double t1 = amp[i1] * PARTIALS_INTERPOLATION_ALPHA;
+            double t2 = amp[i2] * PARTIALS_INTERPOLATION_ALPHA;
+            double t3 = amp[i3] * PARTIALS_INTERPOLATION_ALPHA;
+            double f0 = freq[i0] * tr;
+            double f1 = freq[i1] * tr;
+            double f2 = freq[i2] * tr;
+            double f3 = freq[i3] * tr;
+            double a0 = currentAmp[o0];
+            double a1 = currentAmp[o1];
+            double a2 = currentAmp[o2];
+            double a3 = currentAmp[o3];
+            double p0 = pos[o0];
+            double p1 = pos[o1];
+            double p2 = pos[o2];
+            double p3 = pos[o3];
+
+            if (dephase)
+                {
+                double m0 = MIXING[o0];
+                double m1 = MIXING[o1];
+                double m2 = MIXING[o2];
+                double m3 = MIXING[o3];
+                for (int s = 0; s < length; s++)
+                    {
+                    a0 = (a0 * ONE_MINUS_PARTIALS_INTERPOLATION_ALPHA) + t0;
+                    if (a0 < WELL_ABOVE_SUBNORMALS) a0 = 0;
+                    a1 = (a1 * ONE_MINUS_PARTIALS_INTERPOLATION_ALPHA) + t1;
+                    if (a1 < WELL_ABOVE_SUBNORMALS) a1 = 0;
+                    a2 = (a2 * ONE_MINUS_PARTIALS_INTERPOLATION_ALPHA) + t2;
+                    if (a2 < WELL_ABOVE_SUBNORMALS) a2 = 0;
+                    a3 = (a3 * ONE_MINUS_PARTIALS_INTERPOLATION_ALPHA) + t3;
+                    if (a3 < WELL_ABOVE_SUBNORMALS) a3 = 0;
+
+                    double sample = samples[s];
+                    if (a0 > MINIMUM_VOLUME)
+                        {
+                        p0 = p0 + f0;
+                        p0 = p0 - (int) p0;
+                        sample += Utility.fastSin(p0 * PI2 + m0) * a0;
+                        }
+                    if (a1 > MINIMUM_VOLUME)
+                        {
+                        p1 = p1 + f1;
+                        p1 = p1 - (int) p1;
+                        sample += Utility.fastSin(p1 * PI2 + m1) * a1;
+                        }
+                    if (a2 > MINIMUM_VOLUME)
+                        {
+                        p2 = p2 + f2;
+                        p2 = p2 - (int) p2;
+                        sample += Utility.fastSin(p2 * PI2 + m2) * a2;
+                        }
+                    if (a3 > MINIMUM_VOLUME)
+                        {
+                        p3 = p3 + f3;
+                        p3 = p3 - (int) p3;
+                        sample += Utility.fastSin(p3 * PI2 + m3) * a3;
+                        }
+                    samples[s] = sample;
+                    }
+                }
+            else
+                {
+                // Above Nyquist we still MUST update the amplitude and position, but don't add the sine
+                boolean n0 = (freq[i0] * pitch <= NYQUIST);
+                boolean n1 = (freq[i1] * pitch <= NYQUIST);
+                boolean n2 = (freq[i2] * pitch <= NYQUIST);
+                boolean n3 = (freq[i3] * pitch <= NYQUIST);
+                for (int s = 0; s < length; s++)
+                    {
+                    a0 = (a0 * ONE_MINUS_PARTIALS_INTERPOLATION_ALPHA) + t0;
+                    if (a0 < WELL_ABOVE_SUBNORMALS) a0 = 0;
+                    a1 = (a1 * ONE_MINUS_PARTIALS_INTERPOLATION_ALPHA) + t1;
+                    if (a1 < WELL_ABOVE_SUBNORMALS) a1 = 0;
+                    a2 = (a2 * ONE_MINUS_PARTIALS_INTERPOLATION_ALPHA) + t2;
+                    if (a2 < WELL_ABOVE_SUBNORMALS) a2 = 0;
+                    a3 = (a3 * ONE_MINUS_PARTIALS_INTERPOLATION_ALPHA) + t3;
+                    if (a3 < WELL_ABOVE_SUBNORMALS) a3 = 0;
+
+                    p0 = p0 + f0;
+                    p0 = p0 - (int) p0;
+                    p1 = p1 + f1;
+                    p1 = p1 - (int) p1;
+                    p2 = p2 + f2;
+                    p2 = p2 - (int) p2;
+                    p3 = p3 + f3;
+                    p3 = p3 - (int) p3;
+
+                    double sample = samples[s];
+                    if (n0 && a0 > MINIMUM_VOLUME) sample += Utility.fastSin(p0 * PI2) * a0;
+                    if (n1 && a1 > MINIMUM_VOLUME) sample += Utility.fastSin(p1 * PI2) * a1;
+                    if (n2 && a2 > MINIMUM_VOLUME) sample += Utility.fastSin(p2 * PI2) * a2;
+                    if (n3 && a3 > MINIMUM_VOLUME) sample += Utility.fastSin(p3 * PI2) * a3;
+                    samples[s] = sample;
+                    }
+                }
+
+            currentAmp[o0] = a0;
+            currentAmp[o1] = a1;
+            currentAmp[o2] = a2;
+            currentAmp[o3] = a3;
+            pos[o0] = p0;
+            pos[o1] = p1;
+            pos[o2] = p2;
+            pos[o3] = p3;
+            }
+                
+        // Leftover partials, one at a time
+        for ( ; k < count; k++)
+            {
+            int i = indexes[k];
+            int oi = orders[i] & 0xFF;
+            double target = amp[i] * PARTIALS_INTERPOLATION_ALPHA;
+            double increment = freq[i] * tr;
+            double mixing = MIXING[oi];
+            boolean nyquist = (freq[i] * pitch <= NYQUIST);
+            double amplitude = currentAmp[oi];
+            double position = pos[oi];
+            for (int s = 0; s < length; s++)
+                {
+                amplitude = (amplitude * ONE_MINUS_PARTIALS_INTERPOLATION_ALPHA) + target;
+                if (amplitude < WELL_ABOVE_SUBNORMALS) amplitude = 0;
+                if (dephase)
+                    {
+                    if (amplitude > MINIMUM_VOLUME)
+                        {
+                        position = position + increment;
+                        position = position - (int) position;
+                        samples[s] += Utility.fastSin(position * PI2 + mixing) * amplitude;
+                        }
+                    }
+                else
+                    {
+                    position = position + increment;
+                    position = position - (int) position;
+                    if (nyquist && amplitude > MINIMUM_VOLUME)
+                        samples[s] += Utility.fastSin(position * PI2) * amplitude;
+                    }
+                }
+            currentAmp[oi] = amplitude;
+            pos[oi] = position;
+            }
+
+        for (int s = 0; s < length; s++)
+            {
+            samples[s] = samples[s] * v * DEFAULT_VOLUME_MULTIPLIER;
+            }
+        }
+        
+    /** The default Renderer, which builds the whole block of samples at once with buildSamples().
+        Unless the voice is dephased, only the active partials are rendered; otherwise those below the cap. */
+    public static class ScalarRenderer implements Renderer
+        {
+        public void render(int voice, double[] samples, int length, double[] amp, double[] freq, byte[] orders,
+            int[] active, int numActive, int cap, double[] pos, double[] currentAmp, double pitch, double velocity, boolean dephase)
+            {
+            if (active == null || dephase)
+                buildSamples(samples, length, amp, freq, orders, ALL_PARTIALS, Math.min(cap, pos.length), pos, currentAmp, pitch, velocity, dephase);
+            else
+                buildSamples(samples, length, amp, freq, orders, active, numActive, pos, currentAmp, pitch, velocity, dephase);
+            }
+            
+        public boolean usesActivePartials() { return true; }
+        }
+
+    // Set when we have failed to build a VectorRenderer, so we only complain once
+    static boolean vectorRendererUnavailable = false;
     
-    void blockOutputUntil(int output, boolean val)
+    // The FFTRenderer shared by all output threads
+    static FFTRenderer fftRenderer = null;
+    
+    /** Builds a new Renderer of the kind chosen in the preferences.  If a VectorRenderer was 
+        requested but cannot be loaded (typically because the jdk.incubator.vector module is
+        missing), a ScalarRenderer is returned instead.  All calls share the same FFTRenderer. */
+    public static Renderer buildRenderer()
         {
-        synchronized(outputLocks[output])
+        if (rendererType == RENDERER_FFT)
             {
-            while(lightweightOutputSemaphores[output] != val)
+            // FFTRenderer holds per-voice state, so all the threads share one
+            synchronized(Output.class)
+                {
+                if (fftRenderer == null)
+                    fftRenderer = new FFTRenderer(numVoices);
+                return fftRenderer;
+                }
+            }
+        if (rendererType == RENDERER_VECTOR && !vectorRendererUnavailable)
+            {
+            try
+                {
+                return (Renderer)(Class.forName("flow.VectorRenderer").getDeclaredConstructor().newInstance());
+                }
+            catch (Throwable ex)            // NoClassDefFoundError, ClassNotFoundException, etc.
                 {
-                try { outputLocks[output].wait(); } catch (Exception e) { }
+                vectorRendererUnavailable = true;
+                System.err.println("Output.buildRenderer() WARNING: Could not load the vector renderer, using the scalar renderer instead.\n" +
+                    "Is Flow running with --add-modules jdk.incubator.vector ?  Error: " + ex);
                 }
             }
+        return new ScalarRenderer();
         }
+
+    // Renders SKIP samples of voice S into SAMPLESSND using the given renderer.
+    void renderVoice(int s, double[] samplessnd, double[][] currentAmplitudes, Renderer renderer)
+        {
+        Swap _with = with;
+        if (_with.reset[s])
+            {
+            resetPositions(s);
+            _with.reset[s] = false;
+            }
+        
+        if (_with.asleep[s])
+            {
+            Arrays.fill(samplessnd, 0, skip, 0.0);
+            voiceClocks[s] += skip;
+            return;
+            }
+
+        // A note which starts from silence partway into the block is rendered from that point on
+        int offset = _with.gateOffset[s];
+        _with.gateOffset[s] = 0;
+        if (offset > 0 && offset < skip && isSilent(currentAmplitudes[s]))
+            {
+            renderVoiceFrom(s, samplessnd, offset, currentAmplitudes, renderer);
+            return;
+            }
                 
-    void signalOutput(int output, boolean val)
+        if (renderer.usesActivePartials() && !_with.dephase[s])
+            {
+            catchUpActivePartials(s, currentAmplitudes[s]);
+            }
+        else
+            {
+            // Everything gets rendered, so everything is up to date
+            voiceClocks[s] += skip;
+            Arrays.fill(partialClocks[s], voiceClocks[s]);
+            }
+
+        render(s, samplessnd, skip, currentAmplitudes, renderer);
+        }
+
+    // Renders LENGTH samples of voice S into SAMPLESSND using the given renderer.  The active partials
+    // are already capped by the Governor (see buildActivePartials()).  A voice rendered in full is capped
+    // here instead: the partials above the cap are silenced, so they come back in from silence.
+    void render(int s, double[] samplessnd, int length, double[][] currentAmplitudes, Renderer renderer)
         {
-        synchronized(outputLocks[output])
+        Swap _with = with;
+        int cap = governor.getPartialCap();
+        byte[] orders = _with.orders[s];
+        if (cap < orders.length && !(renderer.usesActivePartials() && !_with.dephase[s]))
             {
-            lightweightOutputSemaphores[output] = val;
-            outputLocks[output].notify();
+            double[] currentAmp = currentAmplitudes[s];
+            for(int i = cap; i < orders.length; i++)
+                currentAmp[orders[i] & 0xFF] = 0;
             }
+        renderer.render(s, samplessnd, length, _with.amplitudes[s], _with.frequencies[s], orders, 
+            _with.active[s], _with.numActive[s], cap, positions[s], currentAmplitudes[s], _with.pitches[s], _with.velocities[s], _with.dephase[s]);
+        }
+
+    //// SAMPLE-ACCURATE GATES
+    ////
+    //// Input notes for each gate how many samples into the coming block its MIDI message
+    //// arrived (see Input.go()), and go() passes this on in the Swap.  If the voice was silent, 
+    //// renderVoice() leaves the block silent up to that sample, and renders the note's first
+    //// SKIP - OFFSET samples after it, so notes start on the sample rather than on the block.
+    //// A voice which is still sounding (a stolen or legato voice) changes at the start of the
+    //// block as before, since its old partials are gone by the time we render.
+    ////
+    //// A Sound applies its gate at the start of its go() (see Sound.post()), after the tick has
+    //// been synced, but its modules see the tick from before (see Output.getGateTick()), so its
+    //// envelopes have already begun to rise in the gate's own block, as they would if the gate
+    //// had been applied the moment its MIDI arrived.
+    
+    // Returns true if all of a voice's interpolated amplitudes are inaudible
+    boolean isSilent(double[] currentAmp)
+        {
+        for(int i = 0; i < currentAmp.length; i++)
+            if (currentAmp[i] > MINIMUM_VOLUME)
+                return false;
+        return true;
+        }
+    
+    // Renders voice S silent for OFFSET samples and then sounding for the rest of the block
+    void renderVoiceFrom(int s, double[] samplessnd, int offset, double[][] currentAmplitudes, Renderer renderer)
+        {
+        Swap _with = with;
+        int length = skip - offset;
+
+        // The voice was silent, so its partials needn't be caught up: they start now
+        voiceClocks[s] += skip;
+        Arrays.fill(partialClocks[s], voiceClocks[s]);
+
+        render(s, samplessnd, length, currentAmplitudes, renderer);
+        System.arraycopy(samplessnd, 0, samplessnd, offset, length);
+        Arrays.fill(samplessnd, 0, offset, 0.0);
         }
 
+    volatile boolean clipped = false;
+    // Obviously this is not atomic, but it's not a big deal as we're just
+    // using it in the GUI to display possible clips, so if we drop a clip by wild
+    // chance it's not a big deal.
+    public boolean getAndResetClipped() { boolean val = clipped; clipped = false; return val; }
+
+    volatile boolean glitched = false;
+    // Obviously this is not atomic, but it's not a big deal as we're just
+    // using it in the GUI to display possible glitches, so if we drop a glitch by wild
+    // chance it's not a big deal.  Telemetry counts every one.
+    public boolean getAndResetGlitched() { boolean val = glitched; glitched = false; return val; }
+
+
+
+
+    // Renders the Sounds, spread over the per-output threads.  See Scheduler.
+    Scheduler outputScheduler;
+    
+    /** Returns how unevenly the work of pulsing the Sounds is spread over the threads: 1.0 is perfectly even. */
+    public double getVoiceImbalance() { Scheduler s = voiceScheduler; return (s == null ? 1.0 : s.getImbalance()); }
+    
+    /** Returns how unevenly the work of rendering the Sounds is spread over the threads: 1.0 is perfectly even. */
+    public double getOutputImbalance() { Scheduler s = outputScheduler; return (s == null ? 1.0 : s.getImbalance()); }
+
 
 
     double samples[][] = new double[0][skip];
 
-    // Starts the output thread.  Called from the constructor.
-    void startOutputThread()
+    /// The last amplitudes (used for interpolation between the past partials and new ones)
+    /// Note that these are indexed by ORDER, not by actual index position
+    double[][] currentAmplitudes;
+    Renderer[] renderers;
+
+    // Builds the renderers and the output Scheduler.  Called by the Output Thread, or by
+    // an offline Output's first renderBlock().
+    void buildOutputScheduler()
         {
-        Thread thread = new Thread(new Runnable()
+        currentAmplitudes = new double[numVoices][Unit.NUM_PARTIALS];
+        renderers = new Renderer[Math.min(Scheduler.getDefaultNumWorkers(), numVoices)];
+        for(int i = 0; i < renderers.length; i++)
+            renderers[i] = buildRenderer();
+        outputScheduler = new Scheduler("Output", numVoices, renderers.length, new Scheduler.Task()
             {
-            public void run()
+            public void run(int voice, int worker)
                 {
-                /// The last amplitudes (used for interpolation between the past partials and new ones)
-                /// Note that these are indexed by ORDER, not by actual index position
-                final double[][] currentAmplitudes = new double[numVoices][Unit.NUM_PARTIALS];
-  
-                lightweightOutputSemaphores = new boolean[numVoices];
-                outputLocks = new Object[numVoices];
-                for (int i = 0; i < numVoices; i++) 
+                if (voice < samples.length)         // voice hasn't been loaded yet, hang tight
                     {
-                    outputLocks[i] = new Object[0];
-                    lightweightOutputSemaphores[i] = true;
+                    renderVoice(voice, samples[voice], currentAmplitudes, renderers[worker]);
                     }
+                }
+            });
+        }
+
+    /** Renders the latest partials published by go() into the next SKIP samples of audioBuffer.
+        The Output Thread calls this for you.  If the Output is offline, you call it yourself,
+        once after each go(), and then read the samples with getAudioBuffer(). */
+    public void renderBlock()
+        {
+        if (outputScheduler == null)
+            {
+            buildOutputScheduler();
+            }
+        long start = System.nanoTime();
 
-                for(int i = 0; i < numVoices; i += numOutputsPerThread)
+        boolean stereo = Output.isStereo();
+        int solo = -1;
+
+        if (samples.length != numSounds)
+            {
+            samples = new double[numSounds][skip];
+            }
+                        
+        checkAndSwap();
+                    
+        if (onlyPlayFirstSound)
+            {
+            Sound sound = input.getLastPlayedSound();
+            if (sound == null)
+                solo = 0;
+            else
+                solo = sound.getIndex();
+                                                        
+            //                        for(int i = 0; i < currentAmplitudes[0].length; i++)
+            //                              System.err.println("" + i + " " + currentAmplitudes[0][i]);
+            renderVoice(solo, samples[solo], currentAmplitudes, renderers[0]);
+            }
+        else
+            {
+            // Fire up output threads
+            outputScheduler.run(numSounds);
+            }
+                        
+        if (with.reverbWet > 0.0f)
+            {        
+            freeverb.setWet(with.reverbWet);
+            freeverb.setRoomSize(with.reverbRoomSize);
+            freeverb.setDamp(with.reverbDamp);
+            }
+            
+        double gain = masterGain;           // so we're not reading a volatile variable!
+                     
+        int j = 0;       
+        for (int samp = 0; samp < skip; samp++)
+            {
+            double left = 0;
+            double right = 0;
+            if (solo != -1)
+                {
+                if (stereo)
+                    {
+                    left += samples[solo][samp] * (1.0 - with.pan[solo]);
+                    right += samples[solo][samp] * with.pan[solo];
+                    }
+                else
                     {
-                    final int _i = i;
-                    Thread thread = new Thread(new Runnable()
+                    left += samples[solo][samp];
+                    }
+                }
+            else
+                {
+                if (stereo)
+                    {
+                    for(int snd = 0; snd < samples.length; snd++)
                         {
-                        public void run()
-                            {
-                            while(true) 
-                                {
-                                blockOutputUntil(_i, true); 
-                                
-                                if (with.reset[_i])
-                                    {
-                                    resetPositions(_i);
-                                    with.reset[_i] = false;
-                                    }
-
-                                int n = numVoices;
-                                if (n >  _i + numOutputsPerThread)
-                                    n =  _i + numOutputsPerThread;
+                        left += samples[snd][samp] * (1.0 - with.pan[snd]);
+                        right += samples[snd][samp] * with.pan[snd];
+                        }
+                    }
+                else
+                    {
+                    for(int snd = 0; snd < samples.length; snd++)
+                        {
+                        left += samples[snd][samp];
+                        }
+                    }
+                }
+                
+            // add reverb?
+            if (with.reverbWet > 0.0f)
+                {
+                // I think freeverb sounds better going in both channels and taking
+                // both channel results.  But you may have a different opinion, in
+                // which I think you do: 
+                //
+                //freeverbInput[0][0] = (float)d;
+                //freeverb.compute(1, freeverbInput, freeverbOutput);
+                //d = freeverbOutput[0][0]; 
+                    
+                if (stereo)
+                    {
+                    freeverbInput[0][0] = (float)left;
+                    freeverbInput[1][0] = (float)right;
+                    freeverb.compute(1, freeverbInput, freeverbOutput);
+                    left = freeverbOutput[0][0];
+                    right = freeverbOutput[1][0];
+                    }
+                else
+                    {
+                    freeverbInput[0][0] = (float)left;
+                    freeverbInput[1][0] = (float)left;
+                    freeverb.compute(1, freeverbInput, freeverbOutput);
+                    left = (freeverbOutput[0][0] + freeverbOutput[1][0]) * 0.5;
+                    }
+                }
                                         
-                                for(int j = _i; j < n; j++)
-                                    {
-                                    if (j < samples.length)         // voice hasn't been loaded yet, hang tight
-                                        {
-                                        double[] samplessnd = samples[j];
-                                        for (int samp = 0; samp < skip; samp++)
-                                            {
-                                            samplessnd[samp] = buildSample(j, currentAmplitudes) * DEFAULT_VOLUME_MULTIPLIER;
-                                            }
-                                        }
-                                    }
-                                                        
-                                signalOutput(_i, false);
-                                }
-                            }
-                        });
-                    thread.setName("Output " + _i);
-                    thread.setDaemon(true);
-                    thread.start();
+            left *= gain;
+                                                
+            if (left > 32767)
+                {
+                left = 32767;
+                clipped = true;
+                }
+            else if (left < -32768)
+                {
+                left = -32768;
+                clipped = true;
+                }
+
+            if (stereo)
+                {
+                right *= gain;
+                if (right > 32767)
+                    {
+                    right = 32767;
+                    clipped = true;
+                    }
+                else if (right < -32768)
+                    {
+                    right = -32768;
+                    clipped = true;
                     }
+                }
             
-                boolean stereo = Output.isStereo();
+            if (stereo)
+                {
+                int val = (int)(left);
+                audioBuffer[samp * 2 * 2 + 0] = (byte)(val & 255);
+                audioBuffer[samp * 2 * 2 + 1] = (byte)((val >> 8) & 255);
+                val = (int)(right);
+                audioBuffer[samp * 2 * 2 + 2] = (byte)(val & 255);
+                audioBuffer[samp * 2 * 2 + 3] = (byte)((val >> 8) & 255);
+                }
+            else
+                {
+                int val = (int)(left);
+                audioBuffer[samp * 2 + 0] = (byte)(val & 255);
+                audioBuffer[samp * 2 + 1] = (byte)((val >> 8) & 255);
+                }
+            j++;
+            if (j >= 4)
+                {
+                leftSamples[sampleCounter] = left;
+                if (stereo)
+                    {
+                    rightSamples[sampleCounter] = right;
+                    }
+                else
+                    {
+                    rightSamples[sampleCounter] = left;
+                    }
+                sampleCounter++;
+                j = 0;
+                }
+            tick++;                                 /// See documentation elsewhere about threadsafe nature of tick
+            }
+        
+        if (sampleCounter >= leftSamples.length)
+            updateOutputOscilloscope();
+        telemetry.recordOutputBlock(System.nanoTime() - start);
+        }
+
+    /** Returns the buffer holding the latest block of 16-bit little-endian samples (interleaved
+        left and right if stereo) built by renderBlock(). */
+    public byte[] getAudioBuffer() { return audioBuffer; }
+
+    // Converts bytes queued in the sink to nanoseconds of audio
+    final double nanosPerByte = 1000000000.0 / (SAMPLING_RATE * 2 * (isStereo() ? 2 : 1));
+
+    // Starts the output thread.  Called from the constructor.
+    void startOutputThread()
+        {
+        Thread thread = new Thread(new Runnable()
+            {
+            public void run()
+                {
+                buildOutputScheduler();
                                 
                 while(true)
                     {
@@ -847,194 +1546,23 @@ public class Output
                         continue;
                         }
                     
-                    int solo = -1;
-                    
-                    int available = sdl.available();
-                    if (available >= ((bufferSize - 128) * (stereo ? 2 : 1)))
+                    AudioSink sink = Output.this.sink;
+                    boolean underran = sink.isStarving();
+                    if (underran)
                         {
                         glitched = true;
+                        telemetry.recordUnderrun();
                         }
-                        
-                    if (samples.length != numSounds)
-                        {
-                        samples = new double[numSounds][skip];
-                        }
-                        
-                    checkAndSwap();
                     
-                    if (onlyPlayFirstSound)
-                        {
-                        Sound sound = input.getLastPlayedSound();
-                        if (sound == null)
-                            solo = 0;
-                        else
-                            solo = sound.getIndex();
-                        
-                        if (with.reset[solo])
-                            {
-                            resetPositions(solo);
-                            with.reset[solo] = false;
-                            }
-                                                        
-                        //                        for(int i = 0; i < currentAmplitudes[0].length; i++)
-                        //                              System.err.println("" + i + " " + currentAmplitudes[0][i]);
-                        double[] samplessnd = samples[solo];
-                        for (int samp = 0; samp < skip; samp++)
-                            {
-                            samplessnd[samp] = buildSample(solo, currentAmplitudes) * DEFAULT_VOLUME_MULTIPLIER;
-                            //                            System.err.println(samplessnd[samp]);
-                            }
-                        }
-                    else
-                        {
-                        // Fire up output threads
-                        for(int snd = 0; snd < numSounds; snd += numOutputsPerThread)
-                            {
-                            signalOutput(snd, true);
-                            }
-                        for(int snd = 0; snd < numSounds; snd += numOutputsPerThread)
-                            {
-                            blockOutputUntil(snd, false);
-                            }
-                        }
-                        
-                    if (with.reverbWet > 0.0f)
-                        {        
-                        freeverb.setWet(with.reverbWet);
-                        freeverb.setRoomSize(with.reverbRoomSize);
-                        freeverb.setDamp(with.reverbDamp);
-                        }
-                        
-                    double gain = masterGain;           // so we're not reading a volatile variable!
-                                 
-                    int j = 0;       
-                    for (int samp = 0; samp < skip; samp++)
+                    renderBlock();
+                    int queued = sink.getQueued();
+                    if (queued >= 0)            // only real-time sinks have deadlines
                         {
-                        double left = 0;
-                        double right = 0;
-                        if (solo != -1)
-                            {
-                            if (stereo)
-                                {
-                                left += samples[solo][samp] * (1.0 - with.pan[solo]);
-                                right += samples[solo][samp] * with.pan[solo];
-                                }
-                            else
-                                {
-                                left += samples[solo][samp];
-                                }
-                            }
-                        else
-                            {
-                            if (stereo)
-                                {
-                                for(int snd = 0; snd < samples.length; snd++)
-                                    {
-                                    left += samples[snd][samp] * (1.0 - with.pan[snd]);
-                                    right += samples[snd][samp] * with.pan[snd];
-                                    }
-                                }
-                            else
-                                {
-                                for(int snd = 0; snd < samples.length; snd++)
-                                    {
-                                    left += samples[snd][samp];
-                                    }
-                                }
-                            }
-                            
-                        // add reverb?
-                        if (with.reverbWet > 0.0f)
-                            {
-                            // I think freeverb sounds better going in both channels and taking
-                            // both channel results.  But you may have a different opinion, in
-                            // which I think you do: 
-                            //
-                            //freeverbInput[0][0] = (float)d;
-                            //freeverb.compute(1, freeverbInput, freeverbOutput);
-                            //d = freeverbOutput[0][0]; 
-                                
-                            if (stereo)
-                                {
-                                freeverbInput[0][0] = (float)left;
-                                freeverbInput[1][0] = (float)right;
-                                freeverb.compute(1, freeverbInput, freeverbOutput);
-                                left = freeverbOutput[0][0];
-                                right = freeverbOutput[1][0];
-                                }
-                            else
-                                {
-                                freeverbInput[0][0] = (float)left;
-                                freeverbInput[1][0] = (float)left;
-                                freeverb.compute(1, freeverbInput, freeverbOutput);
-                                left = (freeverbOutput[0][0] + freeverbOutput[1][0]) * 0.5;
-                                }
-                            }
-                                                    
-                        left *= gain;
-                                                            
-                        if (left > 32767)
-                            {
-                            left = 32767;
-                            clipped = true;
-                            }
-                        else if (left < -32768)
-                            {
-                            left = -32768;
-                            clipped = true;
-                            }
-
-                        if (stereo)
-                            {
-                            right *= gain;
-                            if (right > 32767)
-                                {
-                                right = 32767;
-                                clipped = true;
-                                }
-                            else if (right < -32768)
-                                {
-                                right = -32768;
-                                clipped = true;
-                                }
-                            }
-                        
-                        if (stereo)
-                            {
-                            int val = (int)(left);
-                            audioBuffer[samp * 2 * 2 + 0] = (byte)(val & 255);
-                            audioBuffer[samp * 2 * 2 + 1] = (byte)((val >> 8) & 255);
-                            val = (int)(right);
-                            audioBuffer[samp * 2 * 2 + 2] = (byte)(val & 255);
-                            audioBuffer[samp * 2 * 2 + 3] = (byte)((val >> 8) & 255);
-                            }
-                        else
-                            {
-                            int val = (int)(left);
-                            audioBuffer[samp * 2 + 0] = (byte)(val & 255);
-                            audioBuffer[samp * 2 + 1] = (byte)((val >> 8) & 255);
-                            }
-                        j++;
-                        if (j >= 4)
-                            {
-                            leftSamples[sampleCounter] = left;
-                            if (stereo)
-                                {
-                                rightSamples[sampleCounter] = right;
-                                }
-                            else
-                                {
-                                rightSamples[sampleCounter] = left;
-                                }
-                            sampleCounter++;
-                            j = 0;
-                            }
-                        tick++;                                 /// See documentation elsewhere about threadsafe nature of tick
+                        telemetry.recordSinkHeadroom((long)(queued * nanosPerByte));
+                        if (Governor.ENABLED)
+                            governor.update(telemetry.getLastVoiceTick(), telemetry.getLastBlock(), underran);
                         }
-                    
-                    sdl.write(audioBuffer, 0, audioBuffer.length);
-                    if (sampleCounter >= leftSamples.length)
-                        updateOutputOscilloscope();
+                    sink.write(audioBuffer, 0, audioBuffer.length);
                     }
                 }
             });
@@ -1063,50 +1591,16 @@ public class Output
 
 
 
-    // Starts the per-voice threads.  Called from primary voice thread if it needs to.
-    void startPerVoiceThreads(int numThreads)
+    // Builds the voice scheduler.  Called from primary voice thread the first time it needs it.
+    void startPerVoiceThreads()
         {
-        // build the sound threads
-        lightweightSemaphores = new boolean[numThreads];
-        voiceLocks = new Object[numThreads];
-        for (int i = 0; i < numThreads; i++) 
-            {
-            voiceLocks[i] = new Object[0];
-            lightweightSemaphores[i] = true;
-            }
-                                                
-        for (int i = 0; i < numThreads; i++)
+        voiceScheduler = new Scheduler("Voice", numVoices, new Scheduler.Task()
             {
-            final int _i = i;
-            Thread thread = new Thread(new Runnable()
+            public void run(int voice, int worker)
                 {
-                public void run()
-                    {
-                    long lastTick = -1;
-                    int tickCount = 0;
-                    double tickAvg = 0;
-                                                
-                    while(true) 
-                        {
-                        blockVoiceUntil(_i, true); 
-                        for (int j = 0; j < numVoicesPerThread; j++)
-                            {
-                            int voice = _i * numVoicesPerThread + j;
-                            if (voice >= numSounds) 
-                                break;
-                            else
-                                {
-                                sounds[voice].go(); 
-                                }
-                            }
-                        signalVoice(_i, false);
-                        }
-                    }
-                });
-            thread.setName("Voice " + _i);
-            thread.setDaemon(true);
-            thread.start();
-            }       
+                sounds[voice].go();
+                }
+            });
         }
                 
                 
@@ -1137,34 +1631,44 @@ public class Output
         thread.start();
         }
         
-        
-    //// When the semaphore is FALSE, the per-voice thread is in charge of its Sound.
-    //// When the semaphore is TRUE, the primary voice thread is in charge.
-    ////
-    //// The primary voice thread signals TRUE, then blocks until FALSE.
-    //// The reverse is true for the per-voice threads.
+
+    volatile int count = 0;
+
+    /** Whether each group's voice-invariant modules are run once per tick and shared by all its Sounds.
+        On unless -DShareInvariants=false.  See Sound.classify(). */
+    public static final boolean SHARE_INVARIANTS = !"false".equals(System.getProperty("ShareInvariants"));
     
-    void blockVoiceUntil(int thread, boolean val)
+    // For each group, the Sound which ran its voice-invariant modules this tick, or null
+    Sound[] invariantLeaders = new Sound[MAX_GROUPS];
+    
+    /** Returns the Sound which ran the voice-invariant modules of group G this tick, for the group's other 
+        Sounds to borrow from, or null if there is none and each Sound must run its own. */
+    public Sound getInvariantLeader(int g) { return invariantLeaders[g]; }
+    
+    // Picks a leader for each group, the first of its Sounds which is awake, and has it run the group's
+    // voice-invariant modules, before the voice threads run the Sounds.  Each candidate's mailbox is drained
+    // first, as it would be at the start of go(): gate() may look at the modules' outputs (Tinkle does), and
+    // must see the last tick's, as it would if every Sound ran its own.  This also wakes a candidate which
+    // is newly gated.  The other Sounds drain their own mailboxes in go(), on their voice threads, before
+    // they borrow anything from the leader.
+    void goInvariants(int ns)
         {
-        synchronized(voiceLocks[thread])
-            {
-            while(lightweightSemaphores[thread] != val)
+        for(int g = 0; g < MAX_GROUPS; g++)
+            invariantLeaders[g] = null;
+        if (!SHARE_INVARIANTS) return;
+        for(int i = 0; i < ns; i++)
+            {
+            Sound s = sounds[i];
+            int g = s.getGroup();
+            if (invariantLeaders[g] != null) continue;
+            if (s.hasMail()) s.drainMailbox();
+            if (!s.isAsleep())
                 {
-                try { voiceLocks[thread].wait(); } catch (Exception e) { }
+                invariantLeaders[g] = s;
+                s.goInvariants();
                 }
             }
         }
-                
-    void signalVoice(int thread, boolean val)
-        {
-        synchronized(voiceLocks[thread])
-            {
-            lightweightSemaphores[thread] = val;
-            voiceLocks[thread].notify();
-            }
-        }
-
-    volatile int count = 0;
 
     double[] zeroAmplitudes = new double[Unit.NUM_PARTIALS];
     double[] zeroFrequencies = new double[Unit.NUM_PARTIALS];
@@ -1187,6 +1691,7 @@ public class Output
         input.go();
 
         lock();
+        long start = System.nanoTime();
         try
             {
             if (!soundThreadsStarted)
@@ -1194,59 +1699,54 @@ public class Output
                     {
                     sounds[i].reset();
                     }
-            if (ns <= numVoicesPerThread)
-                {                
-                for (int i = 0; i < ns; i++)
+                    
+            // Have the Outs write their partials straight into our frame
+            for (int i = 0; i < ns; i++)
+                {
+                Unit emits = sounds[i].getEmits();
+                if (emits instanceof Out)
                     {
-                    sounds[i].go();
+                    ((Out)emits).setFrame(swap.amplitudes[i], swap.frequencies[i], swap.orders[i]);
                     }
-                soundThreadsStarted = true;
                 }
-            else
+                
+            if (voiceScheduler == null)
                 {
-                int numThreads = (int)(Math.ceil(ns / (double)numVoicesPerThread));
-                if (voiceLocks == null)
-                    {
-                    startPerVoiceThreads(numThreads);
-
-                    for (int i = 0; i < numThreads; i++)
-                        {
-                        blockVoiceUntil(i, false);
-                        }
-                    }
+                startPerVoiceThreads();
+                }
+            goInvariants(ns);
+            voiceScheduler.run(ns);
+            soundThreadsStarted = true;
 
-                for (int i = 0; i < numThreads; i++)
-                    {
-                    signalVoice(i, true);
-                    }
-                for (int i = 0; i < numThreads; i++)
-                    {
-                    blockVoiceUntil(i, false);
-                    }
-                soundThreadsStarted = true;
+            // Sounds left out because we're monophonic must still take their mail
+            for (int i = ns; i < numSounds; i++)
+                {
+                sounds[i].drainMailbox();
                 }
-            }
-        finally 
-            {
-            unlock();
-            }
 
-        // Spin-wait.  It's both faster and more efficient than a mutex in this case, but it eats up cycles
-        while(emitsReady)
-            {
-            Thread.currentThread().yield();
-            }
-                
-        lock();
-        try
-            {
             Unit e = sounds[0].getEmits();
             for (int i = 0 ; i < ns; i++)
                 {
+                if (sounds[i].isDozing())
+                    {
+                    // Nothing has changed since it went to sleep
+                    swap.reset[i] = false;
+                    swap.asleep[i] = true;
+                    swap.gateOffset[i] = 0;
+                    continue;
+                    }
+                swap.asleep[i] = false;
                 swap.reset[i] = sounds[i].requestReset;
                 sounds[i].requestReset = false;
+                swap.gateOffset[i] = sounds[i].gateOffset;
+                sounds[i].gateOffset = 0;
                 Unit emits = sounds[i].getEmits();
-                if (emits != null)
+                if (emits != null && emits.amplitudes[0] == swap.amplitudes[i])
+                    {
+                    // The Out wrote straight into our frame
+                    undenormalize(swap.amplitudes[i]);
+                    }
+                else if (emits != null)
                     {
                     System.arraycopy(emits.amplitudes[0], 0, swap.amplitudes[i], 0, emits.amplitudes[0].length); 
                     undenormalize(swap.amplitudes[i]);
@@ -1266,6 +1766,10 @@ public class Output
                     
                 swap.pitches[i] = sounds[i].getPitch();
                 swap.velocities[i] = (velocitySensitive ? sounds[i].getVelocity() : Sound.DEFAULT_VELOCITY);
+                if (buildActivePartials(i) || sounds[i].isGated() || sounds[i].hasFreeRunningModulations())
+                    sounds[i].wake();
+                else
+                    sounds[i].sleep();
                 if (emits instanceof Out)
                     {
                     Out _out = (Out)emits;
@@ -1285,13 +1789,14 @@ public class Output
                 swap.reverbDamp = (float)(out.modulate(out.MOD_REVERB_DAMP));
                 swap.reverbRoomSize = (float)(out.modulate(out.MOD_REVERB_ROOM_SIZE));
                 }
+            telemetry.recordVoiceTick(System.nanoTime() - start);
             }
         finally 
             {
             unlock();
             }
         
-        emitsReady = true;
+        publishSwap();
         }  
 
 
@@ -1509,9 +2014,13 @@ public class Output
         return counter; 
         }
 
-    /** Reassign sounds to groups */    
+    /** Reassign sounds to groups, and reload each sound outside the primary group with its group's patch.
+        The patches are parsed and their modules built without holding the lock, which is then taken
+        only to swap the new modules in (see Sound.install()).  If you call this holding the lock
+        already, of course, it stays held throughout. */    
     public void assignGroupsToSounds()
         {
+        int[] groups = new int[numSounds];
         lock();
         
         // This is an opportunity to cancel the audio input
@@ -1519,14 +2028,8 @@ public class Output
                 
         try
             {
-            // by default we're the primary group
-            for(int j = 0; j < numSounds; j++)
-                {
-                sounds[j].setGroup(Output.PRIMARY_GROUP);
-                sounds[j].setChannel(Input.CHANNEL_OMNI);
-                }
-            
-            // override by sub-patches
+            // by default we're the primary group, but we're
+            // overridden by sub-patches
             int snd = 1;                                                        // because sound 0 always belongs to the primary group
             for(int i = 1; i < numGroups; i++)              // note 1, we skip the primary group
                 {
@@ -1534,8 +2037,7 @@ public class Output
                     {
                     if (snd < numSounds)                            // we still have space
                         {
-                        sounds[snd].setGroup(i);
-                        sounds[snd].setChannel(Input.CHANNEL_OMNI);
+                        groups[snd] = i;
                         snd++;
                         }
                     }
@@ -1543,36 +2045,42 @@ public class Output
                                 
             /// FIXME -- this won't save out the subpatches will it?
             sounds[0].saveModules(group[0].getPatch());                // so we have the latest when we reload them
+            }
+        finally
+            {
+            unlock();
+            }
                                 
-            // reload patches.  We assume we have the correct patches in each group, and the latest and greatest in group 0
-            for(int i = 1; i < numSounds; i++)          // the first sound is already assigned to group 0 and doesn't change, else we'd have to update the GUI module panels
+        // reload patches.  We assume we have the correct patches in each group, and the latest and greatest in group 0
+        Modulation[][] mods = new Modulation[groups.length][];
+        Unit[] emits = new Unit[groups.length];
+        for(int i = 1; i < groups.length; i++)          // the first sound is already assigned to group 0 and doesn't change, else we'd have to update the GUI module panels
+            {
+            mods[i] = new Modulation[0];
+            try 
+                { 
+                // load modules into an array to prepare to load into the sound
+                mods[i] = Sound.loadModules(group[groups[i]].getPatch(), Sound.loadFlowVersion(group[groups[i]].getPatch()));
+                }
+            catch (Exception ex) { ex.printStackTrace(); }
+            // version
+            emits[i] = sounds[i].prepare(mods[i]);
+            }
+
+        lock();
+        try
+            {
+            for(int j = 0; j < groups.length; j++)
                 {
-                int g = sounds[i].getGroup();
-                Modulation[] mods = new Modulation[0];
-                try 
-                    { 
-                    // load modules into an array to prepare to load into the sound
-                    mods = Sound.loadModules(group[g].getPatch(), Sound.loadFlowVersion(group[g].getPatch()));
-                    }
-                catch (Exception ex) { ex.printStackTrace(); }
-                // version
-                                        
-                // remove any old modules from sound
-                int numRegistered = sounds[i].getNumRegistered();
-                for(int j = 0; j < numRegistered; j++)
-                    sounds[i].removeRegistered(0);
-                                                
-                // Add new modules from the array
-                for(int j = 0; j < mods.length; j++)
-                    {
-                    sounds[i].register(mods[j]);
-                    mods[j].setSound(sounds[i]);
-                    if (mods[j] instanceof Out)
-                        {
-                        sounds[i].setEmits((Out)(mods[j]));
-                        }
-                    mods[j].reset();
-                    }
+                sounds[j].drainMailbox();           // so no pending channel change undoes ours
+                sounds[j].setGroup(groups[j]);
+                sounds[j].setChannel(Input.CHANNEL_OMNI);
+                }
+
+            // Swap in the new modules
+            for(int i = 1; i < groups.length; i++)
+                {
+                sounds[i].install(mods[i], emits[i]);
                 }
             redistributeGains();
             }
@@ -1580,6 +2088,7 @@ public class Output
             {
             unlock();
             }
+        input.regroup();
         }
 
     public void removeGroup(int g)
@@ -1754,7 +2263,43 @@ public class Output
             return getNumGroups() - 1;
             }
         }
-    
+
+    /** Loads a patch, and its subpatches, into the Sounds, replacing whatever they had before.
+        This is AppMenu.doLoad() without the Rack: it builds no ModulePanels, so it's what you
+        use to load patches when Flow is running without a GUI. */
+    public void loadPatch(JSONObject obj) throws Exception
+        {
+        int flowVersion = Sound.loadFlowVersion(obj);
+
+        // Load the primary patch into the first Sound.  assignGroupsToSounds() will copy it
+        // to the other Sounds in the primary group.  We build it before taking the lock.
+        Modulation[] mods = Sound.loadModules(obj, flowVersion);
+        Sound s = getSound(0);
+        Unit emits = s.prepare(mods);
+
+        lock();
+        try
+            {
+            // Remove old subpatches
+            setNumGroups(1);
+
+            s.install(mods, emits);
+            getGroup(PRIMARY_GROUP).setPatchName(Sound.loadName(obj));
+
+            int numNewGroups = Sound.loadGroups(getGroups(), obj);
+            if (numNewGroups > 0)
+                {
+                setNumGroupsUnsafe(numNewGroups + 1);
+                }
+            getGroup(PRIMARY_GROUP).setBothNotes(0, 127);           // reset
+            }
+        finally
+            {
+            unlock();
+            }
+        assignGroupsToSounds();
+        }
+
     public void reset()
         {
         lock();
@@ -1762,9 +2307,10 @@ public class Output
             {
             int len = getNumSounds();
             
-            // Clear all notes
+            // Clear all notes, including any still in the mailboxes
             for(int i = 0; i < len; i++)
                 {
+                getSound(i).drainMailbox();
                 getSound(i).release();
                 }
             
@@ -150,34 +150,6 @@ public class Prefs {
         return Output.DEFAULT_NUM_VOICES;
         }
 
-    public static void setLastNumVoicesPerThread(int voicesPerThread) {
-        setLastX("" + voicesPerThread, "VoicesPerThread");
-        }
-
-    public static int getLastNumVoicesPerThread() {
-        String s = getLastX("VoicesPerThread");
-        try {
-            if (s != null)
-                return Integer.parseInt(s);
-            } catch (NumberFormatException e) {
-            }
-        return Output.DEFAULT_NUM_VOICES_PER_THREAD;
-        }
-
-    public static void setLastNumOutputsPerThread(int outputsPerThread) {
-        setLastX("" + outputsPerThread, "OutputsPerThread");
-        }
-
-    public static int getLastNumOutputsPerThread() {
-        String s = getLastX("OutputsPerThread");
-        try {
-            if (s != null)
-                return Integer.parseInt(s);
-            } catch (NumberFormatException e) {
-            }
-        return Output.DEFAULT_NUM_OUTPUTS_PER_THREAD;
-        }
-
     public static void setLastBufferSize(int bufferSize) {
         setLastX("" + bufferSize, "BufferSize");
         }
@@ -510,6 +482,23 @@ public class Prefs {
         setLastX("" + val, "SinQuality");
         }
 
+    public static int getLastRenderer() {
+        String s = getLastX("Renderer");
+        try {
+            if (s != null) {
+                int x = Integer.parseInt(s);
+                if (x >= Output.RENDERER_SCALAR && x <= Output.RENDERER_FFT)
+                    return x;
+                }
+            } catch (NumberFormatException e) {
+            }
+        return Output.RENDERER_DEFAULT;
+        }
+
+    public static void setLastRenderer(int val) {
+        setLastX("" + val, "Renderer");
+        }
+
     public static int getLastXAsInt(String slot, String moduleName, int defaultVal) {
         String tnls = getLastX(slot, moduleName);
         try {
@@ -0,0 +1,163 @@
+// Copyright 2018 by George Mason University
+// Licensed under the Apache 2.0 License
+
+
+package flow;
+
+import java.io.*;
+import java.util.*;
+
+/**
+   Reports how much CPU time each Modulation spends in go(), per voice.
+
+   <p>While the Output is profiling (see Output.setProfiling()), Sound.go() adds the nanoseconds
+   each Modulation spent in go() to that Modulation's running total.  The Profiler never touches
+   the voice threads: instead, whoever wants the numbers (typically a GUI timer) calls sample()
+   every so often, which copies each Modulation's total and the Output's tick into a ring of
+   the last WINDOW samples.  The cost of a Modulation is then the growth of its total across the
+   ring divided by the number of ticks that passed, that is, a sliding window of WINDOW samples.
+
+   <p>A tick is one call to Sound.go(), which happens every Output.getSkip() samples: that's
+   getTickMicros() microseconds, the tick budget.  If the Modulations of all voices together
+   need more than that, the Output cannot keep up and glitches.
+**/
+
+public class Profiler
+    {
+    /** The number of samples in the sliding window. */
+    public static final int WINDOW = 8;
+
+    Output output;
+
+    // Each Modulation's total profileNanos at each of the last WINDOW samples
+    IdentityHashMap<Modulation, long[]> history = new IdentityHashMap<Modulation, long[]>();
+    // The Output's tick at each of the last WINDOW samples
+    int[] ticks = new int[WINDOW];
+    // The number of samples taken since clear()
+    int samples = 0;
+
+    // The Sounds' Modulations and groups as of the last sample, so we can report
+    // on them without holding the Output lock
+    Modulation[][] modulations = new Modulation[0][];
+    int[] groups = new int[0];
+
+    public Profiler(Output output)
+        {
+        this.output = output;
+        }
+
+    /** Returns the tick budget in microseconds: the time between two calls to Sound.go(). */
+    public static double getTickMicros()
+        {
+        return Output.getSkip() * 1000000.0 / Output.SAMPLING_RATE;
+        }
+
+    /** Forgets all samples. */
+    public synchronized void clear()
+        {
+        history.clear();
+        samples = 0;
+        modulations = new Modulation[0][];
+        groups = new int[0];
+        }
+
+    /** Takes a sample of every Modulation's running total.  This briefly grabs the Output lock. */
+    public synchronized void sample()
+        {
+        int slot = samples % WINDOW;
+        IdentityHashMap<Modulation, long[]> newHistory = new IdentityHashMap<Modulation, long[]>();
+        output.lock();
+        try
+            {
+            ticks[slot] = output.getTick();
+            int numSounds = output.getNumSounds();
+            modulations = new Modulation[numSounds][];
+            groups = new int[numSounds];
+            for(int i = 0; i < numSounds; i++)
+                {
+                Sound sound = output.getSoundUnsafe(i);
+                groups[i] = sound.getGroup();
+                modulations[i] = new Modulation[sound.getNumRegistered()];
+                for(int j = 0; j < modulations[i].length; j++)
+                    {
+                    Modulation mod = sound.getRegistered(j);
+                    long[] nanos = history.get(mod);
+                    if (nanos == null)
+                        {
+                        // A new Modulation: pretend it's been around for the whole window, at no cost
+                        nanos = new long[WINDOW];
+                        Arrays.fill(nanos, mod.profileNanos);
+                        }
+                    nanos[slot] = mod.profileNanos;
+                    newHistory.put(mod, nanos);
+                    modulations[i][j] = mod;
+                    }
+                }
+            }
+        finally
+            {
+            output.unlock();
+            }
+        history = newHistory;           // drops Modulations which have gone away
+        samples++;
+        }
+
+    int newest() { return (samples - 1) % WINDOW; }
+    int oldest() { return (samples <= WINDOW ? 0 : samples % WINDOW); }
+
+    // The number of ticks covered by the window
+    double windowTicks()
+        {
+        if (samples < 2) return 0;
+        return (ticks[newest()] - ticks[oldest()]) / (double) Output.getSkip();         // int subtraction survives rollover
+        }
+
+    /** Returns the average microseconds per tick which MOD spent in go() over the window,
+        or 0 if it's not known. */
+    public synchronized double getMicrosPerTick(Modulation mod)
+        {
+        double windowTicks = windowTicks();
+        long[] nanos = history.get(mod);
+        if (windowTicks <= 0 || nanos == null) return 0;
+        return (nanos[newest()] - nanos[oldest()]) / windowTicks / 1000.0;
+        }
+
+    /** Returns the average microseconds per tick spent in go() by the Modulation at position INDEX
+        of every Sound in the given GROUP, that is, by that module summed over all of the group's voices. */
+    public synchronized double getMicrosPerTick(int group, int index)
+        {
+        double total = 0;
+        for(int i = 0; i < modulations.length; i++)
+            if (groups[i] == group && index < modulations[i].length)
+                total += getMicrosPerTick(modulations[i][index]);
+        return total;
+        }
+
+    /** Returns MICROS as a percentage of the tick budget. */
+    public static double getPercent(double micros)
+        {
+        return micros * 100.0 / getTickMicros();
+        }
+
+    /** Writes the costs of every Modulation in every voice as CSV, one line per Modulation, with a header line. */
+    public synchronized void writeCSV(Writer writer) throws IOException
+        {
+        PrintWriter out = new PrintWriter(writer);
+        out.println("voice,group,index,module,us_per_tick,percent_of_tick");
+        for(int i = 0; i < modulations.length; i++)
+            for(int j = 0; j < modulations[i].length; j++)
+                {
+                double micros = getMicrosPerTick(modulations[i][j]);
+                out.println(i + "," + groups[i] + "," + j + "," + csv(modulations[i][j].getNameForModulation()) + "," +
+                    String.format("%.3f", micros) + "," + String.format("%.3f", getPercent(micros)));
+                }
+        out.flush();
+        if (out.checkError()) throw new IOException("Could not write profile");
+        }
+
+    static String csv(String s)
+        {
+        if (s.indexOf(',') < 0 && s.indexOf('"') < 0) return s;
+        return "\"" + s.replace("\"", "\"\"") + "\"";
+        }
+    }
@@ -0,0 +1,36 @@
+// Copyright 2018 by George Mason University
+// Licensed under the Apache 2.0 License
+
+
+package flow;
+
+/**
+   A Renderer converts the partials of a single voice into a block of samples.
+   The Output Thread and its subsidiary output threads each get a Renderer from
+   Output.buildRenderer().  A Renderer may keep per-voice state by VOICE, but then it
+   must be shared among the threads, as a given voice may be rendered by different
+   threads at different times (though never by two at once).
+
+   <p>AMP, FREQ, and ORDERS are the voice's latest partials, in index order.  POS
+   and CURRENTAMP are the voice's sine positions (0...1) and interpolated amplitudes,
+   which are indexed by ORDER, and must be updated in place.  The first LENGTH
+   slots of SAMPLES are filled with the resulting samples, already multiplied by
+   the velocity and Output.DEFAULT_VOLUME_MULTIPLIER.
+
+   <p>The first NUMACTIVE slots of ACTIVE hold the indexes of the partials worth rendering
+   (see Output.buildActivePartials()).  If usesActivePartials() returns true, then for voices
+   which aren't dephased the Renderer must only touch the positions and interpolated amplitudes
+   of those partials: Output catches the others up in closed form when they become active
+   again.  Otherwise the Renderer must ignore ACTIVE and render every partial below CAP, in index
+   order: the Governor's cap (see Governor.getPartialCap()), which may be more than there are.
+   Output has already silenced the interpolated amplitudes of the partials above it.
+**/
+
+public interface Renderer
+    {
+    public void render(int voice, double[] samples, int length, double[] amp, double[] freq, byte[] orders,
+        int[] active, int numActive, int cap, double[] pos, double[] currentAmp, double pitch, double velocity, boolean dephase);
+        
+    /** Returns true if the Renderer only renders the active partials of voices which aren't dephased. */
+    public boolean usesActivePartials();
+    }
@@ -0,0 +1,71 @@
+// Copyright 2018 by George Mason University
+// Licensed under the Apache 2.0 License
+
+
+package flow;
+
+/**
+   An AudioSink which keeps the most recent audio in memory, in a ring buffer of fixed size,
+   for another thread to read().  If the reader falls behind, the oldest audio is overwritten
+   and counted as dropped: the sink never blocks, so the Output runs as fast as it can.
+   This is meant for tests, which want to look at what Flow actually produced.
+**/
+
+public class RingBufferSink implements AudioSink
+    {
+    byte[] ring;
+    int start = 0;              // the oldest byte not yet read
+    int count = 0;              // the number of bytes not yet read
+    long dropped = 0;
+    
+    /** Builds a ring buffer holding up to CAPACITY bytes. */
+    public RingBufferSink(int capacity)
+        {
+        ring = new byte[capacity];
+        }
+        
+    public synchronized void write(byte[] buffer, int offset, int length)
+        {
+        for(int i = 0; i < length; i++)
+            {
+            ring[(start + count) % ring.length] = buffer[offset + i];
+            if (count == ring.length)           // full, overwrite the oldest
+                {
+                start = (start + 1) % ring.length;
+                dropped++;
+                }
+            else count++;
+            }
+        notifyAll();
+        }
+
+    /** Returns the number of bytes available to read. */
+    public synchronized int available() { return count; }
+
+    /** Returns the number of bytes overwritten before they could be read. */
+    public synchronized long getDropped() { return dropped; }
+        
+    /** Reads up to LENGTH bytes into BUFFER at OFFSET, and returns how many were read. Does not block. */
+    public synchronized int read(byte[] buffer, int offset, int length)
+        {
+        int n = Math.min(length, count);
+        for(int i = 0; i < n; i++)
+            buffer[offset + i] = ring[(start + i) % ring.length];
+        start = (start + n) % ring.length;
+        count -= n;
+        return n;
+        }
+        
+    /** Waits until at least LENGTH bytes are available (or LENGTH is more than the capacity and the
+        buffer is full), then reads LENGTH of them into BUFFER at OFFSET.  Returns how many were read. */
+    public synchronized int readFully(byte[] buffer, int offset, int length) throws InterruptedException
+        {
+        while(count < Math.min(length, ring.length))
+            wait();
+        return read(buffer, offset, length);
+        }
+        
+    public boolean isStarving() { return false; }
+    public int getQueued() { return -1; }
+    public void close() { }
+    }
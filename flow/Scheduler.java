@@ -0,0 +1,188 @@
+// Copyright 2018 by George Mason University
+// Licensed under the Apache 2.0 License
+
+
+package flow;
+
+import java.util.concurrent.atomic.*;
+
+/**
+   A Scheduler runs a Task on a number of items (voices) once per tick, spread over a pool of
+   threads.  Output uses one to pulse the Sounds and another to render them.
+
+   <p>The pool is sized from the number of available processors, and the thread which calls
+   run() works as one of the pool's workers.  Rather than assigning each thread a fixed
+   stripe of items, the Scheduler keeps a running average of how long each item took, and each
+   tick sorts the items from most to least costly.  The workers then deal themselves the next
+   item from this list with an atomic counter until it runs out.  This is longest-processing-time-first
+   list scheduling: the expensive items are spread out first, and the cheap ones fill in
+   the gaps, so a thread which got a busy voice simply takes fewer of the others.
+
+   <p>The Scheduler also keeps a running average of its <b>imbalance</b>: the busiest worker's
+   time divided by the mean worker time for a tick.  1.0 is perfect balance; N (the number of
+   workers) means one worker did everything.  If the System property <tt>LoadReport</tt> is
+   set to true, the Schedulers print their imbalances every ten seconds or so.
+**/
+
+public class Scheduler
+    {
+    /** The work done on each item. */
+    public interface Task
+        {
+        /** Performs the task on ITEM, in the given WORKER (0 is the thread calling run()). */
+        public void run(int item, int worker);
+        }
+
+    // How fast the running averages follow the latest measurements
+    static final double ALPHA = 0.05;
+
+    // About how often to print reports, in ticks
+    static final int REPORT_INTERVAL = (int)(Output.SAMPLING_RATE * 10 / Output.DEFAULT_SKIP);
+    static final boolean REPORT = Boolean.getBoolean("LoadReport");
+
+    String name;
+    Task task;
+    int numWorkers;
+    Barrier barrier;                 // null if there is just one worker
+
+    double[] costs;                  // running average ns per item
+    int[] order;                     // items sorted by decreasing cost
+    int count;                       // the number of items this tick
+    final AtomicInteger next = new AtomicInteger();
+    long[] busy;                     // ns each worker spent on the task this tick
+    double imbalance = 1.0;
+    int ticks = 0;
+
+    /** Returns the number of workers a Scheduler will have by default: one per available processor. */
+    public static int getDefaultNumWorkers() { return Math.max(1, Runtime.getRuntime().availableProcessors()); }
+
+    /** Builds a Scheduler for up to MAXITEMS items, with getDefaultNumWorkers() workers.  The
+        extra threads are named NAME followed by their worker number. */
+    public Scheduler(String name, int maxItems, Task task)
+        {
+        this(name, maxItems, getDefaultNumWorkers(), task);
+        }
+
+    /** Builds a Scheduler for up to MAXITEMS items, with the given number of workers
+        (including the thread calling run()).  The extra threads are named NAME followed by
+        their worker number. */
+    public Scheduler(String name, int maxItems, int numWorkers, Task task)
+        {
+        this.name = name;
+        this.task = task;
+        this.numWorkers = Math.max(1, Math.min(numWorkers, maxItems));
+        costs = new double[maxItems];
+        order = new int[maxItems];
+        busy = new long[this.numWorkers];
+        if (this.numWorkers > 1)
+            {
+            barrier = new Barrier(this.numWorkers - 1);
+            final int initialGeneration = barrier.getGeneration();
+            for(int i = 1; i < this.numWorkers; i++)
+                {
+                final int _i = i;
+                Thread thread = new Thread(new Runnable()
+                    {
+                    public void run()
+                        {
+                        int generation = initialGeneration;
+                        while(true)
+                            {
+                            generation = barrier.awaitRelease(_i - 1, generation);
+                            work(_i);
+                            barrier.complete();
+                            }
+                        }
+                    });
+                thread.setName(name + " " + _i);
+                thread.setDaemon(true);
+                thread.start();
+                }
+            }
+        }
+
+    /** Returns the number of workers, including the thread calling run(). */
+    public int getNumWorkers() { return numWorkers; }
+
+    /** Returns the running average of the busiest worker's time over the mean worker time. */
+    public double getImbalance() { return imbalance; }
+
+    /** Returns the running average cost of the given item, in nanoseconds. */
+    public double getCost(int item) { return costs[item]; }
+
+    /** Runs the Task on items 0 ... COUNT-1, and returns when they are all done. */
+    public void run(int count)
+        {
+        if (count > costs.length) count = costs.length;
+
+        // Insertion sort by decreasing cost.  The order changes little from tick to tick.
+        for(int i = 0; i < count; i++)
+            order[i] = i;
+        for(int i = 1; i < count; i++)
+            {
+            int item = order[i];
+            double cost = costs[item];
+            int j = i - 1;
+            while(j >= 0 && costs[order[j]] < cost)
+                {
+                order[j + 1] = order[j];
+                j--;
+                }
+            order[j + 1] = item;
+            }
+
+        this.count = count;
+        next.set(0);
+        if (barrier != null)
+            {
+            barrier.release();
+            work(0);
+            barrier.awaitCompletion();
+            }
+        else
+            {
+            work(0);
+            }
+
+        updateImbalance();
+        }
+
+    // Deals items to WORKER until there are none left
+    void work(int worker)
+        {
+        long total = 0;
+        while(true)
+            {
+            int n = next.getAndIncrement();
+            if (n >= count) break;
+            int item = order[n];
+            long start = System.nanoTime();
+            task.run(item, worker);
+            long time = System.nanoTime() - start;
+            costs[item] += (time - costs[item]) * ALPHA;
+            total += time;
+            }
+        busy[worker] = total;
+        }
+
+    void updateImbalance()
+        {
+        long max = 0;
+        long sum = 0;
+        for(int i = 0; i < numWorkers; i++)
+            {
+            if (busy[i] > max) max = busy[i];
+            sum += busy[i];
+            }
+        if (sum > 0)
+            {
+            imbalance += (max * numWorkers / (double) sum - imbalance) * ALPHA;
+            }
+
+        if (REPORT && ++ticks >= REPORT_INTERVAL)
+            {
+            ticks = 0;
+            System.err.println(name + ": " + numWorkers + " workers, imbalance " + String.format("%.2f", imbalance));
+            }
+        }
+    }
@@ -44,8 +44,17 @@ public class Sound
     // Random number generator: each Sound has a unique random number generator
     // so they can be called in a threadsafe way
     Random random;
-    // The elements (Modulations, Units) associated with this Sound
+    // The elements (Modulations, Units) associated with this Sound.  This is the editing copy:
+    // the voice thread instead runs the snapshot in modules, which is republished whenever 
+    // elements changes.  See install().
     ArrayList<Modulation> elements = new ArrayList<Modulation>();
+    volatile Modulation[] modules = new Modulation[0];
+    // The compiled plan: the live modules in modules, which are all that go() runs.  Recompiled 
+    // by go() when planDirty says modules or the wiring among them has changed.  See compile().
+    Modulation[] plan = new Modulation[0];
+    // Which modules in the plan are voice-invariant.  See classify().
+    boolean[] invariant = new boolean[0];
+    volatile boolean planDirty = false;
     // The unit which will be queried to indicate the emitted partials at the end
     Unit emits;
     
@@ -74,6 +83,142 @@ public class Sound
     volatile int channel = Input.CHANNEL_OMNI;  // we need to assign it *something* initially...
 
     volatile boolean requestReset = false;
+    
+    // How many samples into the next block the latest gate() happened.  See gate(int).
+    int gateOffset = 0;
+    // Are we applying the events in the mailbox?  Then the modules see Output.getGateTick().  See drainMailbox().
+    boolean applyingMail = false;
+    
+    // Is a note currently held down on this Sound?
+    volatile boolean gated = false;
+    
+    // A Sound which is silent, has no note held down, and has no free-running Modulations 
+    // is put to sleep by Output.go(): its Modulations are no longer pulsed and its partials 
+    // are no longer rendered.  Every SLEEP_PROBE_TICKS ticks we pulse it anyway, in case it has
+    // been edited into making sound on its own.  gate(), reset(), and restart() wake it up.
+    static final int SLEEP_PROBE_TICKS = 64;
+    volatile boolean asleep = false;
+    int sleepTicks = 0;
+
+    //// MAILBOX
+    ////
+    //// Input tells a Sound about notes by posting events to its Mailbox rather than by
+    //// calling gate(), release(), setNote() etc. under Output.lock().  The Sound applies
+    //// them, in order, at the start of its next go(), on its own voice thread.
+    ////
+    //// Pitch bend and aftertouch can arrive far faster than notes, and only their latest
+    //// value matters, so they don't go into the mailbox: post() just notes the latest
+    //// value, and the Sound applies it before the events in the mailbox.  And the last
+    //// MAILBOX_RESERVE slots of the mailbox are kept for gates and releases, so if it ever
+    //// fills, a note may lose its parameters (its pitch, velocity, etc.) but it won't be
+    //// left hanging, and a release won't go missing.
+
+    /** The number of events a Sound's mailbox can hold.  Every Sound drains its mailbox every tick, and
+        Input posts at most seven events per note, so this holds over 100 notes sent to one voice in one tick. */
+    public static final int MAILBOX_CAPACITY = 1024;
+    /** The number of slots in a Sound's mailbox which only gates and releases may use. */
+    public static final int MAILBOX_RESERVE = 256;
+
+    /** Event: gate(offset), with the offset as the int argument. */
+    public static final int EVENT_GATE = 0;
+    /** Event: release() */
+    public static final int EVENT_RELEASE = 1;
+    /** Event: setNote(), with the note in Hz as the double argument, and setMIDINote(), with the MIDI note as the int argument. */
+    public static final int EVENT_NOTE = 2;
+    /** Event: setVelocity() */
+    public static final int EVENT_VELOCITY = 3;
+    /** Event: setReleaseVelocity() */
+    public static final int EVENT_RELEASE_VELOCITY = 4;
+    /** Event: setBend() */
+    public static final int EVENT_BEND = 5;
+    /** Event: setAftertouch() */
+    public static final int EVENT_AFTERTOUCH = 6;
+    /** Event: setChannel() */
+    public static final int EVENT_CHANNEL = 7;
+    /** Event: incrementNoteCounter() and setAllocation(), with the allocation as the int argument, or -1 to leave it be. */
+    public static final int EVENT_NEW_NOTE = 8;
+    /** Event: resetPartialPhases() */
+    public static final int EVENT_RESET_PHASES = 9;
+
+    Mailbox mailbox = new Mailbox(MAILBOX_CAPACITY);
+    // The latest bend and aftertouch posted, and whether they are yet to be applied.  See post().
+    volatile double postedBend;
+    volatile double postedAftertouch;
+    volatile boolean bendPosted = false;
+    volatile boolean aftertouchPosted = false;
+
+    /** Posts an event (one of the EVENT_ constants, with its int and double arguments) to be applied
+        at the start of the Sound's next go().  A bend or aftertouch replaces any not yet applied.  Any
+        thread may call this without holding Output.lock(), and Input calls it while holding its own lock,
+        so it mustn't take Output.lock() even if the mailbox is full: the event is then dropped and
+        counted instead (see getMailboxOverflows()).  Only a gate or a release may take the last
+        MAILBOX_RESERVE slots. */
+    public void post(int event, int intValue, double doubleValue)
+        {
+        if (event == EVENT_BEND)
+            {
+            postedBend = doubleValue;
+            bendPosted = true;              // after the value, so the Sound never sees the flag without it
+            }
+        else if (event == EVENT_AFTERTOUCH)
+            {
+            postedAftertouch = doubleValue;
+            aftertouchPosted = true;
+            }
+        else
+            {
+            mailbox.offer(event, intValue, doubleValue,
+                (event == EVENT_GATE || event == EVENT_RELEASE) ? 0 : MAILBOX_RESERVE);
+            }
+        }
+
+    /** Returns the number of events posted so far which were dropped because the mailbox was full. */
+    public long getMailboxOverflows() { return mailbox.getOverflows(); }
+    
+    /** Returns true if events have been posted which the Sound has yet to apply. */
+    public boolean hasMail() { return bendPosted || aftertouchPosted || !mailbox.isEmpty(); }
+
+    /** Applies the latest bend and aftertouch posted, if not yet applied, then every event waiting in
+        the mailbox.  Meanwhile the modules see the tick during which the events arrived, rather than
+        the one just synced (see Output.getGateTick()), so a gate's envelopes are already rising in its
+        own block.  This is done at the start of go(); anyone else
+        calling it must hold Output.lock(). */
+    public void drainMailbox()
+        {
+        applyingMail = true;
+        // Clear each flag before reading its value, so a value posted meanwhile is applied now or next time
+        if (bendPosted)
+            {
+            bendPosted = false;
+            apply(EVENT_BEND, 0, postedBend);
+            }
+        if (aftertouchPosted)
+            {
+            aftertouchPosted = false;
+            apply(EVENT_AFTERTOUCH, 0, postedAftertouch);
+            }
+        while(mailbox.poll())
+            apply(mailbox.getType(), mailbox.getInt(), mailbox.getDouble());
+        applyingMail = false;
+        }
+
+    void apply(int event, int intValue, double doubleValue)
+        {
+        switch(event)
+            {
+            case EVENT_GATE: gate(intValue); break;
+            case EVENT_RELEASE: release(); break;
+            case EVENT_NOTE: setNote(doubleValue); setMIDINote(intValue); break;
+            case EVENT_VELOCITY: setVelocity(doubleValue); break;
+            case EVENT_RELEASE_VELOCITY: setReleaseVelocity(doubleValue); break;
+            case EVENT_BEND: setBend(doubleValue); break;
+            case EVENT_AFTERTOUCH: setAftertouch(doubleValue); break;
+            case EVENT_CHANNEL: setChannel(intValue); break;
+            case EVENT_NEW_NOTE: incrementNoteCounter(); if (intValue >= 0) setAllocation(intValue); break;
+            case EVENT_RESET_PHASES: resetPartialPhases(); break;
+            default: System.err.println("Sound.apply() WARNING: unknown event " + event); break;
+            }
+        }
 
     public Sound(Output output)
         {
@@ -97,7 +242,7 @@ public class Sound
     public Output getOutput() { return output; }
 
     /** Adds a Modulation / Unit to the end of the registry. */
-    public void register(Modulation mod) { elements.add(mod); }
+    public void register(Modulation mod) { elements.add(mod); publish(); }
 
     /** Returns the number of Modulations / Units registered with this Sound.
         This does not include Constants.   */
@@ -106,14 +251,140 @@ public class Sound
     /** Returns a given registered Modulation / Unit */
     public Modulation getRegistered(int i) { return elements.get(i); }
     
-    /** Returns all the given registered Modulations / Units */
+    /** Returns all the given registered Modulations / Units.  Don't modify this list: use register(),
+        removeRegistered(), addRegistered(), or install(), which republish it to the voice thread. */
     public ArrayList<Modulation> getRegistered() { return elements; }
     
     /** Removes a Modulation / Unit */
-    public Modulation removeRegistered(int i) { return elements.remove(i); }
+    public Modulation removeRegistered(int i) { Modulation mod = elements.remove(i); publish(); return mod; }
     
     /** Adds a Modulation / Unit at position i*/
-    public void addRegistered(int i, Modulation modulation) { elements.add(i, modulation); }
+    public void addRegistered(int i, Modulation modulation) { elements.add(i, modulation); publish(); }
+    
+    // Republishes the snapshot of elements which the voice thread runs
+    void publish() { modules = elements.toArray(new Modulation[elements.size()]); planDirty = true; }
+
+    /** Tells the Sound that the wiring among its modules has changed, so it must recompile its plan
+        before its next tick.  Modulation.setModulation(), Unit.setInput() and so on call this for you. */
+    public void invalidatePlan() { planDirty = true; }
+
+    /** Compiles MODS, a patch's modules in rack order, into the plan which is actually run each tick:
+        just those modules which are live, in the same order.  A module is live if it has side effects
+        (see Modulation.hasSideEffects(): Out does, as it feeds the Output and the GUI's displays, and so
+        do Fix, which sets the note, Draw, whose panel displays its partials, and Seq when its panel
+        displays its position), or if a live module reads one of its outputs through its Unit inputs,
+        Modulation inputs or constraints.  Modules reaching neither cost nothing.  Rack order is kept
+        because it is already a topological order of the forward wires, and a wire running backwards
+        reads the previous tick's output: running the module it reads from earlier would change what
+        the patch sounds like.  Macro compiles its own modules the same way.  */
+    public static Modulation[] compile(Modulation[] mods)
+        {
+        IdentityHashMap<Modulation, Integer> positions = new IdentityHashMap<Modulation, Integer>();
+        for(int i = 0; i < mods.length; i++)
+            positions.put(mods[i], i);
+            
+        boolean[] live = new boolean[mods.length];
+        int[] stack = new int[mods.length];
+        int top = 0;
+        for(int i = 0; i < mods.length; i++)
+            if (mods[i].hasSideEffects())
+                {
+                live[i] = true;
+                stack[top++] = i;
+                }
+        
+        // Mark everything the live modules read from.  Constants and NIL aren't registered, so they're skipped.
+        int count = top;
+        while(top > 0)
+            {
+            Modulation mod = mods[stack[--top]];
+            int numModulations = mod.getNumModulations();
+            int numInputs = (mod instanceof Unit ? ((Unit)mod).getNumInputs() + 1 : 0);          // the last is the constraint
+            for(int j = 0; j < numModulations + numInputs; j++)
+                {
+                Modulation source = (j < numModulations ? mod.getModulation(j) :
+                        (j < numModulations + numInputs - 1 ? ((Unit)mod).getInput(j - numModulations) : ((Unit)mod).getConstraintIn()));
+                Integer pos = positions.get(source);
+                if (pos != null && !live[pos])
+                    {
+                    live[pos] = true;
+                    stack[top++] = pos;
+                    count++;
+                    }
+                }
+            }
+
+        Modulation[] p = new Modulation[count];
+        for(int i = 0, j = 0; i < mods.length; i++)
+            if (live[i]) p[j++] = mods[i];
+        return p;
+        }
+        
+    /** Returns, for each module in PLAN as compiled by compile(), whether it is voice-invariant: a Unit
+        which says it is (see Unit.isVoiceInvariant()), all of whose Unit inputs, Modulation inputs and 
+        constraints come from Constants, NIL, or voice-invariant modules before it in the plan.  Such a
+        module comes out the same in every Sound of a group, so the Output runs it in just one of them.  */
+    public static boolean[] classify(Modulation[] plan)
+        {
+        IdentityHashMap<Modulation, Integer> positions = new IdentityHashMap<Modulation, Integer>();
+        for(int i = 0; i < plan.length; i++)
+            positions.put(plan[i], i);
+            
+        boolean[] invariant = new boolean[plan.length];
+        for(int i = 0; i < plan.length; i++)
+            {
+            if (!(plan[i] instanceof Unit)) continue;
+            Unit unit = (Unit)plan[i];
+            if (!unit.isVoiceInvariant()) continue;
+            
+            boolean inv = isInvariantSource(unit.getConstraintIn(), i, positions, invariant);
+            for(int j = 0; j < unit.getNumModulations(); j++)
+                inv = inv && isInvariantSource(unit.getModulation(j), i, positions, invariant);
+            for(int j = 0; j < unit.getNumInputs(); j++)
+                inv = inv && isInvariantSource(unit.getInput(j), i, positions, invariant);
+            invariant[i] = inv;
+            }
+        return invariant;
+        }
+        
+    static boolean isInvariantSource(Modulation source, int reader, IdentityHashMap<Modulation, Integer> positions, boolean[] invariant)
+        {
+        if (source instanceof Constant || source instanceof Nil) return true;
+        Integer pos = positions.get(source);
+        return (pos != null && pos < reader && invariant[pos]);
+        }
+
+    /** Returns the compiled plan, the modules which go() presently runs.  See compile(). */
+    public Modulation[] getPlan() { return plan; }
+
+    /** Readies MODS, a new set of Modulations / Units for this Sound (typically fresh from loadModules()),
+        to replace its current ones: sets their Sound and resets them.  Returns the Out among them, or
+        null if there is none.  As the new modules aren't yet in use, you may do this without holding
+        Output.lock(): so may loadModules(), which is where the time goes when loading a patch. */
+    public Unit prepare(Modulation[] mods)
+        {
+        Unit out = null;
+        for(int i = 0; i < mods.length; i++)
+            {
+            mods[i].setSound(this);
+            if (mods[i] instanceof flow.modules.Out)
+                out = (Unit)mods[i];
+            mods[i].reset();
+            }
+        return out;
+        }
+
+    /** Replaces all of the Sound's Modulations / Units with MODS, already readied with prepare(), and 
+        its emitting Unit with EMITS, in a single swap.  Call this holding Output.lock(), so the swap 
+        happens between ticks: the lock is then held only for the swap itself.  Modules in both the old
+        and new sets keep their state. */
+    public void install(Modulation[] mods, Unit emits)
+        {
+        elements.clear();
+        elements.addAll(Arrays.asList(mods));
+        this.emits = emits;
+        publish();
+        }
     
     /** Value returned by findRegistered if it can't find a given Modulation / Unit in its registry */
     public static final int NOT_FOUND = -1;
@@ -171,14 +442,119 @@ public class Sound
     public double getPortamento() { return portamento; }
     void updatePortamento() { pitch = portamento * note + (1.0 - portamento) * pitch; }
     
-    /** Causes all Modulations / Units to have their go() methods called, in order. */
+    /** Returns true if a note is currently held down on this Sound. */
+    public boolean isGated() { return gated; }
+    
+    /** Returns true if this Sound has been put to sleep. */
+    public boolean isAsleep() { return asleep; }
+    
+    /** Returns true if this Sound is asleep and its most recent go() did nothing. */
+    boolean isDozing() { return asleep && sleepTicks != 0; }
+    
+    void sleep() { asleep = true; }
+    
+    void wake() { asleep = false; sleepTicks = 0; }
+
+    /** Returns true if any of the Sound's Modulations must keep running while the Sound is silent. */
+    public boolean hasFreeRunningModulations()
+        {
+        Modulation[] mods = modules;
+        for(int i = 0; i < mods.length; i++)
+            if (mods[i].isFreeRunning())
+                return true;
+        return false;
+        }
+
+    /** Applies any events waiting in the mailbox, then causes the live Modulations / Units to have 
+        their go() methods called, in order (see compile()).  If the Sound is asleep, the latter usually 
+        doesn't happen.  gate(), release(), reset() and restart() still go to all the modules, so a
+        module which becomes live when it is wired up is in step with the rest. */
     public void go()
         {
+        if (hasMail()) drainMailbox();
+        if (asleep)
+            {
+            if (++sleepTicks < SLEEP_PROBE_TICKS) return;
+            sleepTicks = 0;
+            }
+            
         updatePortamento();
-        int len = elements.size();
-        for(int i = 0; i < len; i++)
+        if (output.profiling) 
             {
-            elements.get(i).go();
+            goProfiled();
+            return;
+            }
+        Modulation[] mods = getCompiledPlan();
+        boolean[] inv = invariant;
+        Sound leader = output.getInvariantLeader(group);
+        for(int i = 0; i < mods.length; i++)
+            {
+            Modulation mod = mods[i];
+            if (inv[i] && leader != null && borrow(i, mod, leader))
+                continue;
+            if (!mod.isUpToDate())
+                mod.go();
+            }
+        }
+
+    /** Runs just the voice-invariant modules of the plan (see classify()), on behalf of the whole group.
+        The Output calls this at the start of a tick in one Sound of each group, the LEADER; in the 
+        group's other Sounds, go() then borrows their outputs, and in the leader itself go() skips them. */
+    void goInvariants()
+        {
+        Modulation[] mods = getCompiledPlan();
+        boolean[] inv = invariant;
+        for(int i = 0; i < mods.length; i++)
+            {
+            if (inv[i] && !mods[i].isUpToDate())
+                mods[i].go();
+            }
+        }
+        
+    // Stands in for the go() of the voice-invariant module MOD, at position I in the plan, given the
+    // group's LEADER: if we are the leader it has already run, else it takes the leader's output.
+    // Returns false if the leader's plan doesn't match ours (mid-edit, say), in which case MOD must run itself.
+    boolean borrow(int i, Modulation mod, Sound leader)
+        {
+        if (leader == this) return true;
+        Modulation[] leaderPlan = leader.plan;
+        boolean[] leaderInvariant = leader.invariant;
+        if (leaderPlan.length != plan.length || leaderInvariant.length != leaderPlan.length || !leaderInvariant[i] || leaderPlan[i].getClass() != mod.getClass())
+            return false;
+        ((Unit)mod).share((Unit)leaderPlan[i]);
+        return true;
+        }
+
+    // Returns the plan, recompiling it first if the modules or their wiring have changed since.
+    // The flag is cleared before reading modules, so an edit made meanwhile is caught next tick.
+    Modulation[] getCompiledPlan()
+        {
+        if (planDirty)
+            {
+            planDirty = false;
+            Modulation[] p = compile(modules);
+            invariant = classify(p);
+            plan = p;
+            }
+        return plan;
+        }
+
+    // Like the loop in go(), but charges the time spent in each Modulation's go() to its profileNanos.
+    // One nanoTime() per Modulation: each stamp ends one Modulation's interval and starts the next one's.
+    void goProfiled()
+        {
+        Modulation[] mods = getCompiledPlan();
+        boolean[] inv = invariant;
+        Sound leader = output.getInvariantLeader(group);
+        long then = System.nanoTime();
+        for(int i = 0; i < mods.length; i++)
+            {
+            Modulation mod = mods[i];
+            if (!(inv[i] && leader != null && borrow(i, mod, leader)) && !mod.isUpToDate())
+                mod.go();
+            long now = System.nanoTime();
+            mod.profileNanos += now - then;
+            then = now;
             }
         }
 
@@ -186,42 +562,57 @@ public class Sound
         gate() informs a Modulation / Unit that the user has pressed the key. */
     public void gate()
         {
-        int len = elements.size();
-        for(int i = 0; i < len; i++)
-            elements.get(i).gate();
+        Modulation[] mods = modules;
+        for(int i = 0; i < mods.length; i++)
+            mods[i].gate();
         requestReset = true;
+        gated = true;
+        wake();
+        }
+
+    /** Like gate(), but the note starts OFFSET samples (0 ... Output.getSkip() - 1) into the
+        next block of audio rather than at its start, if the Sound is silent. */
+    public void gate(int offset)
+        {
+        gate();
+        gateOffset = offset;
         }
 
     /** Causes all Modulations / Units to have their release() methods called, in order.
         release() informs a Modulation / Unit that the user has released the key. */
     public void release()
         { 
-        int len = elements.size();
-        for(int i = 0; i < len; i++)
-            elements.get(i).release();
+        Modulation[] mods = modules;
+        for(int i = 0; i < mods.length; i++)
+            mods[i].release();
+        gated = false;
+        gateOffset = 0;
         }
 
     /** Resets all Modulations / Units to their initial positions. */
     public void reset()
         {
-        int len = elements.size();
-        for(int i = 0; i < len; i++)
-            elements.get(i).reset();
+        Modulation[] mods = modules;
+        for(int i = 0; i < mods.length; i++)
+            mods[i].reset();
         requestReset = true;
+        wake();
         }
 
-    /** Resets all Modulations / Units to their initial positions. */
+    /** Sets the phases of all of the Sound's partials back to zero.  The Output clears them,
+        in place, before it next renders the Sound. */
     public void resetPartialPhases()
         {
-        output.positions[index] = new double[Unit.NUM_PARTIALS];        // FIXME: maybe we should bzero
+        requestReset = true;
         }
 
     /** Informs all Modulations / Units that a clock reset, or MIDI CLOCK START, occurred. */
     public void restart()
         {
-        int len = elements.size();
-        for(int i = 0; i < len; i++)
-            elements.get(i).restart();
+        Modulation[] mods = modules;
+        for(int i = 0; i < mods.length; i++)
+            mods[i].restart();
+        wake();
         }
 
 
@@ -0,0 +1,172 @@
+// Copyright 2018 by George Mason University
+// Licensed under the Apache 2.0 License
+
+
+package flow;
+
+import java.lang.management.*;
+import java.util.concurrent.atomic.*;
+import javax.management.*;
+
+/**
+   Records how close an Output is running to its deadlines, so glitches can be correlated with load.
+
+   <p>Each Output has a Telemetry which records histograms (see Histogram) of the time spent
+   pulsing the Sounds each tick, the time spent rendering each block, how much audio is
+   queued in the sink at each write (its headroom: when this reaches zero the sink underruns),
+   and the time spent waiting for Output.lock().  It also counts underruns (the sink found
+   starving) and keeps the wall-clock time and block time of the most recent ones.  Recording
+   never locks and never allocates, so it is safe on the voice and Output threads.
+
+   <p>The Output registers its Telemetry as the JMX MXBean <tt>flow:type=Telemetry</tt>, so
+   jconsole and friends can watch it.  If the System property <tt>TelemetryLog</tt> is
+   set to N, the Telemetry also prints a summary line every N seconds.
+**/
+
+public class Telemetry implements TelemetryMXBean
+    {
+    /** How many underruns getRecentUnderrunTimes() remembers. */
+    public static final int RECENT_UNDERRUNS = 32;
+    public static final String OBJECT_NAME = "flow:type=Telemetry";
+    static final int LOG_INTERVAL = Integer.getInteger("TelemetryLog", 0);
+
+    final Histogram voiceTick = new Histogram();
+    final Histogram outputBlock = new Histogram();
+    final Histogram sinkHeadroom = new Histogram();
+    final Histogram lockWait = new Histogram();
+
+    final AtomicLong underruns = new AtomicLong();
+    // Written only by the Output Thread
+    final long[] underrunTimes = new long[RECENT_UNDERRUNS];
+    final long[] underrunBlocks = new long[RECENT_UNDERRUNS];
+    volatile long lastBlock;
+    volatile long lastVoiceTick;
+
+    ObjectName name;
+
+    /** Records the time, in ns, taken to pulse the Sounds once. */
+    public void recordVoiceTick(long nanos) { voiceTick.record(nanos); lastVoiceTick = nanos; }
+
+    /** Records the time, in ns, taken to render a block. */
+    public void recordOutputBlock(long nanos) { outputBlock.record(nanos); lastBlock = nanos; }
+
+    /** Records the audio queued in the sink, in ns, just before a write. */
+    public void recordSinkHeadroom(long nanos) { sinkHeadroom.record(nanos); }
+
+    /** Records the time, in ns, spent waiting for Output.lock(). */
+    public void recordLockWait(long nanos) { lockWait.record(nanos); }
+
+    /** Returns the time, in ns, taken by the most recent pulse of the Sounds. */
+    public long getLastVoiceTick() { return lastVoiceTick; }
+
+    /** Returns the time, in ns, taken by the most recent block. */
+    public long getLastBlock() { return lastBlock; }
+
+    /** Records an underrun.  Called only by the Output Thread. */
+    public void recordUnderrun()
+        {
+        int slot = (int)(underruns.get() % RECENT_UNDERRUNS);
+        underrunTimes[slot] = System.currentTimeMillis();
+        underrunBlocks[slot] = lastBlock;
+        underruns.incrementAndGet();
+        }
+
+    public Histogram.Summary getVoiceTick() { return voiceTick.getSummary(1000.0); }
+    public Histogram.Summary getOutputBlock() { return outputBlock.getSummary(1000.0); }
+    public Histogram.Summary getSinkHeadroom() { return sinkHeadroom.getSummary(1000.0); }
+    public Histogram.Summary getLockWait() { return lockWait.getSummary(1000.0); }
+
+    public long getUnderruns() { return underruns.get(); }
+
+    public long[] getRecentUnderrunTimes()
+        {
+        long n = underruns.get();
+        int len = (int)Math.min(n, RECENT_UNDERRUNS);
+        long[] times = new long[len];
+        for(int i = 0; i < len; i++)
+            times[i] = underrunTimes[(int)((n - len + i) % RECENT_UNDERRUNS)];
+        return times;
+        }
+
+    public double[] getRecentUnderrunBlockTimes()
+        {
+        long n = underruns.get();
+        int len = (int)Math.min(n, RECENT_UNDERRUNS);
+        double[] blocks = new double[len];
+        for(int i = 0; i < len; i++)
+            blocks[i] = underrunBlocks[(int)((n - len + i) % RECENT_UNDERRUNS)] / 1000.0;
+        return blocks;
+        }
+
+    public void reset()
+        {
+        voiceTick.reset();
+        outputBlock.reset();
+        sinkHeadroom.reset();
+        lockWait.reset();
+        underruns.set(0);
+        }
+
+    /** Registers the Telemetry with the platform MBean server, as OBJECT_NAME, or
+        if another Output has already taken that, as OBJECT_NAME,id=N. */
+    public void register()
+        {
+        try
+            {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName n = new ObjectName(OBJECT_NAME);
+            for(int id = 1; server.isRegistered(n); id++)
+                n = new ObjectName(OBJECT_NAME + ",id=" + id);
+            server.registerMBean(this, n);
+            name = n;
+            }
+        catch (Exception ex)
+            {
+            System.err.println("Telemetry.register() WARNING: could not register with JMX: " + ex);
+            }
+        }
+
+    /** Unregisters the Telemetry from the platform MBean server, if it was registered. */
+    public void unregister()
+        {
+        if (name == null) return;
+        try
+            {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            }
+        catch (Exception ex)
+            {
+            System.err.println("Telemetry.unregister() WARNING: " + ex);
+            }
+        name = null;
+        }
+
+    /** If the TelemetryLog property is set, starts a thread which prints toString() every TelemetryLog seconds. */
+    public void startLogging()
+        {
+        if (LOG_INTERVAL <= 0) return;
+        Thread thread = new Thread(new Runnable()
+            {
+            public void run()
+                {
+                while(true)
+                    {
+                    try { Thread.sleep(LOG_INTERVAL * 1000L); } catch (InterruptedException ex) { return; }
+                    System.err.println(Telemetry.this);
+                    }
+                }
+            });
+        thread.setName("Telemetry Log");
+        thread.setDaemon(true);
+        thread.start();
+        }
+
+    public String toString()
+        {
+        return "Telemetry: underruns " + getUnderruns() +
+            ", voice tick us " + getVoiceTick() +
+            ", output block us " + getOutputBlock() +
+            ", headroom us " + getSinkHeadroom() +
+            ", lock wait us " + getLockWait();
+        }
+    }
@@ -0,0 +1,32 @@
+// Copyright 2018 by George Mason University
+// Licensed under the Apache 2.0 License
+
+
+package flow;
+
+/**
+   The JMX interface to an Output's Telemetry, registered as <tt>flow:type=Telemetry</tt>.
+   Times are in microseconds.  See Telemetry.
+**/
+
+public interface TelemetryMXBean
+    {
+    /** Time to pulse all the Sounds once (Output.go()). */
+    public Histogram.Summary getVoiceTick();
+    /** Time to render one block of SKIP samples (Output.renderBlock()). */
+    public Histogram.Summary getOutputBlock();
+    /** Audio queued in the sink, not yet played, at each write.  Empty if the sink isn't real-time. */
+    public Histogram.Summary getSinkHeadroom();
+    /** Time spent waiting to acquire Output.lock(). */
+    public Histogram.Summary getLockWait();
+
+    /** The number of times the sink was found starving since the last reset. */
+    public long getUnderruns();
+    /** The wall-clock times (ms since the epoch) of the most recent underruns, oldest first. */
+    public long[] getRecentUnderrunTimes();
+    /** The output block time (microseconds) at each of the most recent underruns, matching getRecentUnderrunTimes(). */
+    public double[] getRecentUnderrunBlockTimes();
+
+    /** Forgets everything recorded so far. */
+    public void reset();
+    }
@@ -45,7 +45,8 @@ import java.util.*;
    algorithms available to do this.  simpleSort() is a sorting algorithm tuned for situations
    when only small changes are necessary to get the partials back in sort, and particularly
    where the out-of-order partials only need to move a few steps.  bigSort() is tuned for
-   larger sorting situations.
+   larger sorting situations.  Neither allocates: if they must move partials whose orders or
+   amplitudes are direct links, they first copy them into buffers the Unit keeps for the purpose.
 */
 
 public class Unit extends Modulation
@@ -70,12 +71,7 @@ public class Unit extends Modulation
         super(sound);
 
         defineModulationOutputs(new String[] { } );  // no modulation outputs in a Unit by default
-        defineOutputs(new String[] { "Out" });
-        numOutputs = 1;
-        amplitudes = new double[numOutputs][NUM_PARTIALS];
-        frequencies = new double[numOutputs][NUM_PARTIALS];
-        orders = new byte[numOutputs][NUM_PARTIALS];
-        outputNames = new String[] { DEFAULT_UNIT_OUT_NAME };
+        defineOutputs(new String[] { DEFAULT_UNIT_OUT_NAME });
         constraintIn = Unit.NIL;
         constraint = CONSTRAINT_NONE;
         invertConstraints = false;
@@ -106,10 +102,23 @@ public class Unit extends Modulation
         super.reset();
         if (clearOnReset)
             {
-            amplitudes = new double[numOutputs][NUM_PARTIALS];
-            frequencies = new double[numOutputs][NUM_PARTIALS];
+            // Take back our own arrays and clear them, rather than allocating new ones
+            for(int i = 0; i < numOutputs; i++)
+                {
+                Arrays.fill(ownAmplitudes[i], 0);
+                amplitudes[i] = ownAmplitudes[i];
+                frequencies[i] = ownFrequencies[i];
+                }
             standardizeFrequencies();
             }
+        invalidate();
+        }
+
+    /** Called when the user presses the key.  Override this as you see fit, but be sure to call super.gate(). */
+    public void gate()
+        {
+        super.gate();
+        invalidate();
         }
                 
 
@@ -150,6 +159,174 @@ public class Unit extends Modulation
         
         
         
+    ////// MEMOIZATION
+    ////// 
+    ////// Many Units, such as Harmonics or a Filter whose cutoff is a Constant, produce the same 
+    ////// output tick after tick.  If such a Unit says so with isMemoizable(), the Sound skips its 
+    ////// go() whenever nothing it depends on has changed since it last ran, and it keeps its 
+    ////// previous output.  What it depends on are its Unit inputs (which Units, which of their 
+    ////// outputs, and their versions), the values of its Modulation inputs, its options, its
+    ////// constraints, and the Sound's pitch.  Every time go() does run, the Unit's 
+    ////// version goes up, which tells the Units reading from it to run in turn.
+
+    /** Override this to return true if go() is a function of only the things listed above: it
+        doesn't depend on time (as envelopes and LFOs do), nor on randomness, nor on triggers, nor on
+        anything else, and it doesn't fire triggers itself.  gate() and reset() always make the Unit run again.  
+        By default this returns false. */
+    public boolean isMemoizable() { return false; }
+
+    int version = 0;
+    /** Returns the Unit's version, which goes up each time its go() is called. */
+    public int getVersion() { return version; }
+
+    boolean memoized = false;
+    Unit[] memoInputs;
+    int[] memoInputIndexes;
+    int[] memoInputVersions;
+    double[] memoModulations;
+    int[] memoOptions;
+    Unit memoConstraintIn;
+    int memoConstraintIndex;
+    int memoConstraintVersion;
+    int memoConstraint;
+    boolean memoInvertConstraints;
+    double memoPitch;
+
+    /** Forgets the memoized state, so go() will be called next time even if the Unit is memoizable.  Call
+        this if you change something go() depends on which isn't among the things listed above.  If your
+        Unit keeps its own record of what it last computed from, override this to forget that too, as
+        it's also called when the Unit stops borrowing another's outputs (see share()). */
+    public void invalidate() { memoized = false; }
+
+    /** Returns true if the Unit is memoizable and nothing it depends on has changed since its last go(),
+        so go() need not be called this tick.  Otherwise remembers what it depends on now, counts a new 
+        version, and returns false: the caller must then call go(). */
+    public boolean isUpToDate()
+        {
+        if (sharing != null) unshare();         // we're running go() ourselves again
+        
+        if (!isMemoizable())
+            {
+            memoized = false;
+            version++;
+            return false;
+            }
+            
+        if (memoized && matchesMemo())
+            return true;
+                
+        // Remember everything afresh.  This allocates only the first time through.
+        int numInputs = inputs.length;
+        int numModulations = getNumModulations();
+        int numOptions = getNumOptions();
+        if (memoInputs == null || memoInputs.length != numInputs || memoModulations.length != numModulations || memoOptions.length != numOptions)
+            {
+            memoInputs = new Unit[numInputs];
+            memoInputIndexes = new int[numInputs];
+            memoInputVersions = new int[numInputs];
+            memoModulations = new double[numModulations];
+            memoOptions = new int[numOptions];
+            }
+        for(int i = 0; i < numInputs; i++)
+            {
+            memoInputs[i] = inputs[i];
+            memoInputIndexes[i] = inputIndexes[i];
+            memoInputVersions[i] = inputs[i].version;
+            }
+        for(int i = 0; i < numModulations; i++)
+            memoModulations[i] = modulate(i);
+        for(int i = 0; i < numOptions; i++)
+            memoOptions[i] = getOptionValue(i);
+        memoConstraintIn = constraintIn;
+        memoConstraintIndex = constraintIndex;
+        memoConstraintVersion = constraintIn.version;
+        memoConstraint = constraint;
+        memoInvertConstraints = invertConstraints;
+        memoPitch = sound.getPitch();
+        memoized = true;
+        version++;
+        return false;
+        }
+
+    
+
+
+    ////// VOICE-INVARIANT UNITS
+    //////
+    ////// A Unit like Harmonics whose Constant modulations are the same in every voice of a group 
+    ////// produces the same partials in all of them.  If the Unit says so with isVoiceInvariant(),
+    ////// and everything it reads from is Constant or voice-invariant in turn, then each tick the 
+    ////// Output runs it in just one Sound of the group, and the same Unit in the group's other
+    ////// Sounds borrows its output arrays rather than running.  See Sound.classify() and 
+    ////// Output.goInvariants().
+
+    /** Override this to return true if go() depends on nothing which can differ between the voices of a
+        group, as long as the Unit's inputs and modulations don't: not the Sound's note, pitch, velocity, 
+        or gate, nor randomness, nor state which differs from voice to voice.  Such a Unit should have 
+        no Modulation outputs.  By default this returns false. */
+    public boolean isVoiceInvariant() { return false; }
+
+    // The same Unit in another Sound whose output arrays we are presently borrowing, or null
+    Unit sharing = null;
+    int sharingVersion;
+    
+    /** Makes this Unit's outputs those of UNIT, the same Unit in another Sound of the group, which has
+        already run this tick: its output arrays are shared, not copied.  Called by Sound.go() instead of go(). */
+    public void share(Unit unit)
+        {
+        if (sharing != unit || sharingVersion != unit.version)
+            {
+            sharing = unit;
+            sharingVersion = unit.version;
+            memoized = false;
+            version++;
+            }
+        for(int i = 0; i < numOutputs; i++)
+            {
+            amplitudes[i] = unit.amplitudes[i];
+            frequencies[i] = unit.frequencies[i];
+            orders[i] = unit.orders[i];
+            }
+        }
+        
+    // Stops borrowing another Unit's output arrays: takes back our own, holding a copy of what we borrowed.
+    void unshare()
+        {
+        for(int i = 0; i < numOutputs; i++)
+            {
+            System.arraycopy(amplitudes[i], 0, ownAmplitudes[i], 0, ownAmplitudes[i].length);
+            System.arraycopy(frequencies[i], 0, ownFrequencies[i], 0, ownFrequencies[i].length);
+            System.arraycopy(orders[i], 0, ownOrders[i], 0, ownOrders[i].length);
+            amplitudes[i] = ownAmplitudes[i];
+            frequencies[i] = ownFrequencies[i];
+            orders[i] = ownOrders[i];
+            }
+        sharing = null;
+        invalidate();
+        }
+
+    boolean matchesMemo()
+        {
+        if (sound.getPitch() != memoPitch) return false;
+        for(int i = 0; i < memoInputs.length; i++)
+            {
+            Unit input = inputs[i];
+            if (input != memoInputs[i] || inputIndexes[i] != memoInputIndexes[i] || input.version != memoInputVersions[i])
+                return false;
+            }
+        for(int i = 0; i < memoModulations.length; i++)
+            if (modulate(i) != memoModulations[i])
+                return false;
+        for(int i = 0; i < memoOptions.length; i++)
+            if (getOptionValue(i) != memoOptions[i])
+                return false;
+        return constraintIn == memoConstraintIn && constraintIndex == memoConstraintIndex && constraintIn.version == memoConstraintVersion &&
+            constraint == memoConstraint && invertConstraints == memoInvertConstraints;
+        }
+        
+        
+        
+        
     ////// OUTPUTS
 
     int numOutputs;
@@ -175,6 +352,13 @@ public class Unit extends Modulation
     byte[][] orders;
     String[] outputNames;
     
+    // The arrays each output port was built with, which belong to this Unit alone, whatever the port
+    // presently points to.  copyAmplitudes() etc. copy into these when the port is a direct link to the
+    // very array they're copying, reset() clears them, and unshare() takes them back.
+    double[][] ownAmplitudes;
+    double[][] ownFrequencies;
+    byte[][] ownOrders;
+    
     /** Defines the UNIT OUTPUT ports by their names. */
     public void defineOutputs(String[] names)
         {
@@ -183,6 +367,9 @@ public class Unit extends Modulation
         amplitudes = new double[numOutputs][NUM_PARTIALS];
         frequencies = new double[numOutputs][NUM_PARTIALS];
         orders = new byte[numOutputs][NUM_PARTIALS];
+        ownAmplitudes = amplitudes.clone();
+        ownFrequencies = frequencies.clone();
+        ownOrders = orders.clone();
         standardizeFrequencies();
         }
     
@@ -219,6 +406,15 @@ public class Unit extends Modulation
  
     /** Returns the orders array for the partials of the given unit output port. */
     public byte[] getOrders(int val) { return orders[val]; }
+
+    /** Replaces the amplitudes, frequencies, and orders arrays of the given unit output port
+        with the given arrays, which the Unit may then write to. */
+    protected void setOutputArrays(int val, double[] amplitudes, double[] frequencies, byte[] orders)
+        {
+        this.amplitudes[val] = amplitudes;
+        this.frequencies[val] = frequencies;
+        this.orders[val] = orders;
+        }
     
     /** Override this to provide tooltips for unit outputs.  This array by default is null. 
         If any given String is null or empty, no tooltip is generated for it.  */
@@ -292,6 +488,7 @@ public class Unit extends Modulation
     /** Sets Input Unit port NUM to the provide Unit, with its output port index set to INDEX. */
     public void setInput(Unit in, int num, int index)
         {
+        if (sound != null) sound.invalidatePlan();
         inputs[num] = in;
         inputIndexes[num] = index;
         }
@@ -329,6 +526,7 @@ public class Unit extends Modulation
     /** Resets the Unit Input Port to its default Unit (typically Unit.NIL). */
     public void clearInput(int num)
         {
+        if (sound != null) sound.invalidatePlan();
         inputs[num] = defaultInputs[num];
         inputIndexes[num] = 0;
         }
@@ -391,8 +589,13 @@ public class Unit extends Modulation
         {
         double[] f1 = inputs[input].frequencies[inputIndexes[input]];
         double[] f2 = frequencies[output];
-        if (f1 == f2) 
-            frequencies[output] = (double[])(f1.clone());
+        if (f1 == f2)                   // we're linked to it: copy it into our own array instead
+            {
+            f2 = ownFrequencies[output];
+            if (f1 == f2) f2 = f1.clone();        // it IS our own array: we're wired to ourselves
+            else System.arraycopy(f1, 0, f2, 0, f2.length);
+            frequencies[output] = f2;
+            }
         else
             System.arraycopy(f1, 0, f2, 0, f2.length);
         //testDenormals(f2,  "" + this);                
@@ -405,8 +608,13 @@ public class Unit extends Modulation
         {
         double[] f1 = inputs[input].amplitudes[inputIndexes[input]];
         double[] f2 = amplitudes[output];
-        if (f1 == f2) 
-            amplitudes[output] = (double[])(f1.clone());
+        if (f1 == f2)                   // we're linked to it: copy it into our own array instead
+            {
+            f2 = ownAmplitudes[output];
+            if (f1 == f2) f2 = f1.clone();        // it IS our own array: we're wired to ourselves
+            else System.arraycopy(f1, 0, f2, 0, f2.length);
+            amplitudes[output] = f2;
+            }
         else
             System.arraycopy(f1, 0, f2, 0, f2.length);
         //testDenormals(f2, "" + this);         
@@ -419,8 +627,13 @@ public class Unit extends Modulation
         {
         byte[] f1 = inputs[input].orders[inputIndexes[input]];
         byte[] f2 = orders[output];
-        if (f1 == f2) 
-            orders[output] = (byte[])(f1.clone());
+        if (f1 == f2)                   // we're linked to it: copy it into our own array instead
+            {
+            f2 = ownOrders[output];
+            if (f1 == f2) f2 = f1.clone();        // it IS our own array: we're wired to ourselves
+            else System.arraycopy(f1, 0, f2, 0, f2.length);
+            orders[output] = f2;
+            }
         else
             System.arraycopy(f1, 0, f2, 0, f2.length);
         }
@@ -601,209 +814,194 @@ public class Unit extends Modulation
         }
 
 
-    // Swaps partials i and j
-    void swap(int i, int j, double[] f, double[] a, byte[] o)
+    ////// SORTING
+
+    // Each output port has two buffers for its orders, and if need be two for its amplitudes, which this Unit
+    // owns outright.  When simpleSort() or bigSort() must rearrange partials whose orders (or amplitudes) are 
+    // direct links to some other Unit's, it copies them into one of these and sorts them there, rather than
+    // into a fresh clone.  It alternates between the two so that anyone still holding the arrays it sorted 
+    // last time (a Unit reading us over a backward wire, say) sees them unchanged, as it would a clone.
+    byte[][][] sortOrders;
+    double[][][] sortAmplitudes;
+    boolean[] sortFlips;
+    
+    // Scratch space for merging in bigSort(), allocated the first time it's needed
+    double[] mergeFrequencies;
+    double[] mergeAmplitudes;
+    byte[] mergeOrders;
+
+    // Partials are sorted by insertion in runs of this size before bigSort() merges them
+    static final int MERGE_RUN = 32;
+
+    // Returns the position of the first partial whose frequency is less than the one before it,
+    // or freq.length if the partials are all in order.
+    static int firstInversion(double[] freq)
         {
-        double d = f[i];
-        f[i] = f[j];
-        f[j] = d;
-        d = a[i];
-        a[i] = a[j];
-        a[j] = d;
-        byte e = o[i];
-        o[i] = o[j];
-        o[j] = e;
+        for(int i = 1; i < freq.length; i++)
+            if (freq[i] < freq[i - 1])
+                return i;
+        return freq.length;
         }
 
-    // standard insertion sort
-    void insertionSort(double freq[], double[] amp, byte[] order) 
+    // Points the orders of output port J, and the amplitudes too if COPY_AMPLITUDES, at the port's
+    // sort buffers, having copied them in.
+    void ownPartials(int j, boolean copyAmplitudes)
         {
-        for (int i=1; i<freq.length; i++) // Insert i'th record
-            for (int j=i; (j>0) && (freq[j] < freq[j-1]); j--)
-                {
-                swap(j, j-1, freq, amp, order);
-                }
+        if (sortOrders == null)
+            {
+            sortOrders = new byte[numOutputs][][];
+            sortAmplitudes = new double[numOutputs][][];
+            sortFlips = new boolean[numOutputs];
+            }
+        
+        int len = orders[j].length;
+        if (sortOrders[j] == null || sortOrders[j][0].length != len)
+            sortOrders[j] = new byte[2][len];
+        if (copyAmplitudes && (sortAmplitudes[j] == null || sortAmplitudes[j][0].length != len))
+            sortAmplitudes[j] = new double[2][len];
+        
+        int side = (sortFlips[j] = !sortFlips[j]) ? 1 : 0;
+                
+        byte[] o = sortOrders[j][side];
+        if (o == orders[j]) o = sortOrders[j][1 - side];                // don't overwrite the partials we're moving
+        System.arraycopy(orders[j], 0, o, 0, len);
+        orders[j] = o;
+        
+        if (copyAmplitudes)
+            {
+            double[] a = sortAmplitudes[j][side];
+            if (a == amplitudes[j]) a = sortAmplitudes[j][1 - side];
+            System.arraycopy(amplitudes[j], 0, a, 0, len);
+            amplitudes[j] = a;
+            }
         }
-    
-    // quicksort partition
-    int quicksortPartition(double freq[], double[] amp, byte[] order, int low, int high)
-        {
-        double pivot = freq[high];
-         
-        // index of smaller element
-        int i = (low-1); 
-        for (int j = low; j <= high-1; j++)
+
+    // Sorts partials LO ... HI - 1 by frequency, stably, by insertion.  Partials LO ... FROM - 1 must already be in order.
+    static void insertionSort(double[] freq, double[] amp, byte[] order, int lo, int from, int hi)
+        {
+        for(int i = Math.max(from, lo + 1); i < hi; i++)
             {
-            // If current element is smaller than or
-            // equal to pivot
-            if (freq[j] <= pivot)
+            double f = freq[i];
+            if (!(f < freq[i - 1])) continue;
+            double a = amp[i];
+            byte o = order[i];
+            int k = i;
+            do
                 {
-                i++;
-                swap(i, j, freq, amp, order);
+                freq[k] = freq[k - 1];
+                amp[k] = amp[k - 1];
+                order[k] = order[k - 1];
+                k--;
                 }
+            while(k > lo && f < freq[k - 1]);
+            freq[k] = f;
+            amp[k] = a;
+            order[k] = o;
             }
- 
-        swap(i+1, high, freq, amp, order); 
-        return i+1;
-        }
-
-    int[] quickSortStack = null;
-    void quickSort (double freq[], double[] amp, byte[] order, int l, int h)
-        {
-        // Create an auxiliary stack
-        if (quickSortStack == null) quickSortStack = new int[h-l+1];
-  
-        // initialize top of stack
-        int top = -1;
-  
-        // push initial values of l and h to stack
-        quickSortStack[++top] = l;
-        quickSortStack[++top] = h;
-  
-        // Keep popping from stack while is not empty
-        while (top >= 0)
+        }
+    
+    // Merges the sorted runs of partials LO ... MID - 1 and MID ... HI - 1, stably.  Only the first run is set aside.
+    void merge(double[] freq, double[] amp, byte[] order, int lo, int mid, int hi)
+        {
+        int len = mid - lo;
+        System.arraycopy(freq, lo, mergeFrequencies, 0, len);
+        System.arraycopy(amp, lo, mergeAmplitudes, 0, len);
+        System.arraycopy(order, lo, mergeOrders, 0, len);
+        
+        int i = 0;
+        int j = mid;
+        int k = lo;
+        while(i < len && j < hi)
             {
-            // Pop h and l
-            h = quickSortStack[top--];
-            l = quickSortStack[top--];
-  
-            // Set pivot element at its correct position
-            // in sorted array
-            int p = quicksortPartition(freq, amp, order, l, h);
-  
-            // If there are elements on left side of pivot,
-            // then push left side to stack
-            if (p-1 > l)
+            if (freq[j] < mergeFrequencies[i])
                 {
-                quickSortStack[++top] = l;
-                quickSortStack[++top] = p - 1;
+                freq[k] = freq[j];
+                amp[k] = amp[j];
+                order[k] = order[j];
+                j++;
                 }
-  
-            // If there are elements on right side of pivot,
-            // then push right side to stack
-            if (p+1 < h)
+            else
                 {
-                quickSortStack[++top] = p + 1;
-                quickSortStack[++top] = h;
+                freq[k] = mergeFrequencies[i];
+                amp[k] = mergeAmplitudes[i];
+                order[k] = mergeOrders[i];
+                i++;
                 }
+            k++;
             }
+        // Whatever's left of the second run is already in place
+        System.arraycopy(mergeFrequencies, i, freq, k, len - i);
+        System.arraycopy(mergeAmplitudes, i, amp, k, len - i);
+        System.arraycopy(mergeOrders, i, order, k, len - i);
         }
-
-    // standard quicksort
-    void quickSort(double freq[], double amp[], byte order[])
+        
+    // Bottom-up merge sort: sorts runs of MERGE_RUN partials by insertion, then merges them pairwise,
+    // skipping any pair that's already in order.  Stable, and never allocates once the scratch space exists.
+    void mergeSort(double[] freq, double[] amp, byte[] order)
         {
-        quickSort(freq, amp, order, 0, freq.length - 1);
+        int n = freq.length;
+        for(int lo = 0; lo < n; lo += MERGE_RUN)
+            insertionSort(freq, amp, order, lo, lo + 1, Math.min(lo + MERGE_RUN, n));
+        if (n <= MERGE_RUN) return;
+                
+        if (mergeFrequencies == null || mergeFrequencies.length < n)
+            {
+            mergeFrequencies = new double[n];
+            mergeAmplitudes = new double[n];
+            mergeOrders = new byte[n];
+            }
+                
+        for(int width = MERGE_RUN; width < n; width *= 2)
+            for(int lo = 0; lo + width < n; lo += 2 * width)
+                {
+                int mid = lo + width;
+                if (freq[mid] < freq[mid - 1])
+                    merge(freq, amp, order, lo, mid, Math.min(mid + width, n));
+                }
         }
 
-    /** Sorts the partials of Unit Output port by frequency. Returns TRUE if any elements potentially changed positions. 
+    /** Sorts the partials of Unit Output port by frequency. Returns TRUE if any elements changed positions. 
     
         <p>This method is normally called because you believe you have rearranged the partials so that their
         frequencies are out of order.  This also implies that you have already copied the frequencies, so this
-        method doesn't copy them again.  However, orders are always copied.  Amplitudes are
-        only copied if indicated: you should pass in TRUE if you have not already copied the amplitudes, else FALSE.  */
+        method doesn't copy them again.  However, if anything must move, orders are always copied.  Amplitudes are
+        only copied if indicated: you should pass in TRUE if you have not already copied the amplitudes, else FALSE.
+        Either way they're copied into buffers the Unit keeps for the purpose, so sorting doesn't allocate.
+        
+        <p>This is a stable merge sort, which is quick on partials which are already largely in order as well as on
+        partials which are thoroughly scrambled.  */
     public boolean bigSort(int j, boolean copyAmplitudes)
         {
-        if (copyAmplitudes)
-            {
-            this.amplitudes[j] = this.amplitudes[j].clone();
-            }
-
-        this.orders[j] = this.orders[j].clone();
-
-        double[] frequencies = this.frequencies[j];
-        double[] amplitudes = this.amplitudes[j];
-        byte[] orders = this.orders[j];
-        
-        quickSort(frequencies, amplitudes, orders);
+        if (firstInversion(this.frequencies[j]) == this.frequencies[j].length)
+            return false;
+                
+        ownPartials(j, copyAmplitudes);
+        mergeSort(this.frequencies[j], this.amplitudes[j], this.orders[j]);
         return true;
         }
 
-
-
-
-
-    // This is basically a somewhat better bubble sort.  I think bubble sort
-    // will likely be the best option in most cases because we won't have big
-    // frequency randomization.
-    //
-    // Modified from https://www.geeksforgeeks.org/cocktail-sort/
-        
-    /** Sorts the partials of Unit Output port by frequency. Returns TRUE if any elements potentially changed positions.
+    /** Sorts the partials of Unit Output port by frequency. Returns TRUE if any elements changed positions.
         You might find this method more efficient than bigSort(...) when the partials are almost in sorted order, only
         differing by one or two positions. 
         
         <p>This method is normally called because you believe you have rearranged the partials so that their
         frequencies are out of order.  This also implies that you have already copied the frequencies, so this
-        method doesn't copy them again.  However, orders are always copied.  Amplitudes are
-        only copied if indicated: you should pass in TRUE if you have not already copied the amplitudes, else FALSE.  */
+        method doesn't copy them again.  However, if anything must move, orders are always copied.  Amplitudes are
+        only copied if indicated: you should pass in TRUE if you have not already copied the amplitudes, else FALSE.
+        Either way they're copied into buffers the Unit keeps for the purpose, so sorting doesn't allocate.
+        
+        <p>This is a stable insertion sort, which takes time in proportion to the number of partials plus the
+        distance the out-of-order ones have to move.  */
     public boolean simpleSort(int j, boolean copyAmplitudes) 
         {
-        boolean swapped = true;
-        boolean everSwapped = false;
-        
-        if (copyAmplitudes)
-            {
-            this.amplitudes[j] = this.amplitudes[j].clone();
-            }
-        
-        this.orders[j] = this.orders[j].clone();
-
         double[] frequencies = this.frequencies[j];
-        double[] amplitudes = this.amplitudes[j];
-        byte[] orders = this.orders[j];
-        
-        int start = 0;
-        int end = frequencies.length;
- 
-        while (swapped==true)
-            {
-            // reset the swapped flag on entering the 
-            // loop, because it might be true from a 
-            // previous iteration.
-            swapped = false;
- 
-            // loop from bottom to top same as
-            // the bubble sort
-            for (int i = start; i < end-1; ++i)
-                {
-                if (frequencies[i] > frequencies[i + 1])
-                    {
-                    swap(i, i+1, frequencies, amplitudes, orders);
-                    swapped = true;
-                    }
-                }
- 
-            // if nothing moved, then array is sorted.
-            if (swapped==false)
-                break;
- 
-            // otherwise, reset the swapped flag so that it
-            // can be used in the next stage
-            swapped = false;
- 
-            // move the end point back by one, because
-            // item at the end is in its rightful spot
-            end = end-1;
- 
-            // from top to bottom, doing the
-            // same comparison as in the previous stage
-            for (int i = end-1; i >=start; i--)
-                {
-                if (frequencies[i] > frequencies[i+1])
-                    {
-                    swap(i, i+1, frequencies, amplitudes, orders);
-                    swapped = true;
-                    }
-                }
- 
-            // increase the starting point, because
-            // the last stage would have moved the next
-            // smallest number to its rightful spot.
-            start = start+1;
-        
-            everSwapped = everSwapped || swapped;
-            }
-        return everSwapped;
+        int from = firstInversion(frequencies);
+        if (from == frequencies.length)
+            return false;
+                
+        ownPartials(j, copyAmplitudes);
+        insertionSort(frequencies, this.amplitudes[j], this.orders[j], 0, from, frequencies.length);
+        return true;
         }
     
     /*
@@ -939,7 +1137,7 @@ public class Unit extends Modulation
 
     /** Sets the constraints to the non-zero amplitude harmonics in the Unit attached to the given Unit Input Port whose output port is index.
         Setting to Unit.NIL indicates that the constraints are not based on these harmonics.  */
-    public void setConstraintIn(Unit constraintIn, int index) { this.constraintIn = constraintIn; this.constraintIndex = index; }
+    public void setConstraintIn(Unit constraintIn, int index) { if (sound != null) sound.invalidatePlan(); this.constraintIn = constraintIn; this.constraintIndex = index; }
     /** Returns the unit defining the constraints, if any, or Unit.NIL. */
     public Unit getConstraintIn() { return constraintIn; }
     /** Returns the output port of the Unit defining the constraints, if any. */
@@ -1281,6 +1479,26 @@ public class Unit extends Modulation
         if (obj.constraintInPartials != null)
             obj.constraintInPartials = (int[])(obj.constraintInPartials.clone());
 
+        // ---- Its own arrays are the copies it was just given ----
+        obj.ownAmplitudes = obj.amplitudes.clone();
+        obj.ownFrequencies = obj.frequencies.clone();
+        obj.ownOrders = obj.orders.clone();
+
+        // ---- The clone starts with nothing memoized or shared, and with its own sort buffers ----
+        obj.sharing = null;
+        obj.sortOrders = null;
+        obj.sortAmplitudes = null;
+        obj.sortFlips = null;
+        obj.mergeFrequencies = null;
+        obj.mergeAmplitudes = null;
+        obj.mergeOrders = null;
+        obj.memoized = false;
+        obj.memoInputs = null;
+        obj.memoInputIndexes = null;
+        obj.memoInputVersions = null;
+        obj.memoModulations = null;
+        obj.memoOptions = null;
+
         return obj;
         }
 
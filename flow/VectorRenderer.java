@@ -0,0 +1,323 @@
+// Copyright 2018 by George Mason University
+// Licensed under the Apache 2.0 License
+
+
+package flow;
+
+import jdk.incubator.vector.*;
+import java.util.*;
+
+/**
+   A Renderer which uses the Java Vector API to process several partials at a time in
+   SIMD lanes (4 doubles under AVX2, 8 under AVX-512).  The amplitude interpolation, phase
+   advance, wrap, sine, and accumulation are all done lane-wise.
+
+   <p>The scalar renderer walks the partials in index order and touches the positions and
+   interpolated amplitudes by ORDER.  To give the vector loads contiguous memory, this renderer
+   first scatters the target amplitudes and frequencies into order space once per block,
+   then walks through the partials a vector at a time for each sample.
+
+   <p>The sine is not looked up in Utility's sine table, because gathers and double-to-int
+   conversions are very slow in the incubating Vector API.  Instead it is computed with a
+   polynomial, which is more accurate than the table.  Thus the output differs from the scalar 
+   renderer by roughly the table's error, about 1 part in 10000.
+
+   <p>This class requires the jdk.incubator.vector module, both to compile and to run
+   (java --add-modules jdk.incubator.vector ...).  Output loads it by name and falls back to
+   the scalar renderer if it is not available.  If the partials aren't a multiple of the
+   vector length, or the orders aren't a permutation, this renderer falls back to the scalar
+   code as well.
+
+   <p>You can benchmark it against the scalar renderer with
+   <tt>java --add-modules jdk.incubator.vector flow.VectorRenderer [seconds]</tt> (or
+   <tt>make vectorbench</tt>).  On AVX-512 machines you can compare against AVX2 by adding
+   <tt>-XX:UseAVX=2</tt>.
+**/
+
+public class VectorRenderer implements Renderer
+    {
+    static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    static final int LANES = SPECIES.length();
+    static final double[] MIXING_OFFSET = new double[Output.MIXING.length];
+    static
+        {
+        // Output.MIXING is in radians, but we need it in cycles, from 0...1
+        for(int i = 0; i < MIXING_OFFSET.length; i++)
+            {
+            double m = Output.MIXING[i] / Output.PI2;
+            MIXING_OFFSET[i] = m - (int) m;
+            }
+        }
+
+    Renderer scalar = new Output.ScalarRenderer();
+
+    // Target amplitudes, per-sample position increments, and flags, by ORDER
+    double[] target = new double[0];
+    double[] increment = new double[0];
+    boolean[] active = new boolean[0];           // may we update the amplitude?
+    boolean[] audible = new boolean[0];          // are we below Nyquist?
+    int[] seen = new int[0];                     // for checking that the orders are a permutation
+    int stamp = 0;
+
+    void allocate(int numPartials)
+        {
+        if (target.length != numPartials)
+            {
+            target = new double[numPartials];
+            increment = new double[numPartials];
+            active = new boolean[numPartials];
+            audible = new boolean[numPartials];
+            seen = new int[numPartials];
+            stamp = 0;
+            }
+        }
+
+    public void render(int voice, double[] samples, int length, double[] amp, double[] freq, byte[] orders,
+        int[] activePartials, int numActivePartials, int cap, double[] pos, double[] currentAmp, double pitch, double velocity, boolean dephase)
+        {
+        int numPartials = pos.length;
+        if (numPartials % LANES != 0 || numPartials > Output.MIXING.length)
+            {
+            scalar.render(voice, samples, length, amp, freq, orders, null, 0, cap, pos, currentAmp, pitch, velocity, dephase);
+            return;
+            }
+        allocate(numPartials);
+        int bound = 0;                  // the kernels only need walk the orders of the partials below the cap
+
+        // Scatter into order space
+        double tr = pitch * Output.INV_SAMPLING_RATE;
+        Arrays.fill(active, false);
+        Arrays.fill(audible, false);
+        stamp++;
+        boolean aboveNyquist = false;
+        for(int i = 0; i < numPartials; i++)
+            {
+            int oi = orders[i] & 0xFF;
+            if (oi >= numPartials || seen[oi] == stamp)              // not a permutation
+                {
+                scalar.render(voice, samples, length, amp, freq, orders, null, 0, cap, pos, currentAmp, pitch, velocity, dephase);
+                return;
+                }
+            seen[oi] = stamp;
+            if (i >= cap)                           // silenced by Output, and kept silent
+                {
+                target[oi] = 0;
+                increment[oi] = 0;
+                continue;
+                }
+            if (oi >= bound) bound = oi + 1;
+            target[oi] = amp[i] * Output.PARTIALS_INTERPOLATION_ALPHA;
+            double inc = freq[i] * tr;
+            increment[oi] = inc - (int) inc;           // only matters for partials above Nyquist
+            if (dephase)
+                {
+                // buildSample() stops at the first partial above Nyquist
+                if (freq[i] * pitch > Output.NYQUIST) aboveNyquist = true;
+                active[oi] = audible[oi] = !aboveNyquist;
+                }
+            else
+                {
+                active[oi] = true;
+                audible[oi] = (freq[i] * pitch <= Output.NYQUIST);
+                }
+            }
+
+        // Round up to whole vectors
+        bound = Math.min(numPartials, (bound + LANES - 1) / LANES * LANES);
+
+        double velocityMultiplier = velocity * Output.DEFAULT_VOLUME_MULTIPLIER;
+        if (dephase)
+            renderDephased(samples, length, bound, pos, currentAmp, velocityMultiplier);
+        else
+            renderNormal(samples, length, bound, pos, currentAmp, velocityMultiplier);
+        }
+
+    // The kernels walk all the partials in order space a vector at a time, so we don't use the active partials
+    public boolean usesActivePartials() { return false; }
+
+    // The two kernels are kept separate and branch-free on vectors: C2 can only keep vectors
+    // in registers (rather than boxing them) if they aren't merged from different branches.
+
+    void renderNormal(double[] samples, int length, int numPartials, double[] pos, double[] currentAmp, double velocityMultiplier)
+        {
+        DoubleVector zero = DoubleVector.zero(SPECIES);
+        DoubleVector one = DoubleVector.broadcast(SPECIES, 1.0);
+        for(int s = 0; s < length; s++)
+            {
+            DoubleVector sum = zero;
+            for(int o = 0; o < numPartials; o += LANES)
+                {
+                // Interpolate and undenormalize
+                DoubleVector cur = DoubleVector.fromArray(SPECIES, currentAmp, o);
+                cur = cur.mul(Output.ONE_MINUS_PARTIALS_INTERPOLATION_ALPHA).add(DoubleVector.fromArray(SPECIES, target, o));
+                cur = cur.blend(zero, cur.compare(VectorOperators.LT, Output.WELL_ABOVE_SUBNORMALS));
+                cur.intoArray(currentAmp, o);
+
+                // Advance and wrap all partials
+                DoubleVector p = DoubleVector.fromArray(SPECIES, pos, o).add(DoubleVector.fromArray(SPECIES, increment, o));
+                p = p.sub(one).blend(p, p.compare(VectorOperators.LT, 1.0));
+                p.intoArray(pos, o);
+
+                // Accumulate the loud ones below Nyquist
+                VectorMask<Double> on = cur.compare(VectorOperators.GT, Output.MINIMUM_VOLUME).and(VectorMask.fromArray(SPECIES, audible, o));
+                sum = sum.add(sin(p).mul(cur), on);
+                }
+            samples[s] = sum.reduceLanes(VectorOperators.ADD) * velocityMultiplier;
+            }
+        }
+
+    void renderDephased(double[] samples, int length, int numPartials, double[] pos, double[] currentAmp, double velocityMultiplier)
+        {
+        DoubleVector zero = DoubleVector.zero(SPECIES);
+        DoubleVector one = DoubleVector.broadcast(SPECIES, 1.0);
+        for(int s = 0; s < length; s++)
+            {
+            DoubleVector sum = zero;
+            for(int o = 0; o < numPartials; o += LANES)
+                {
+                // Partials above Nyquist aren't touched at all
+                VectorMask<Double> act = VectorMask.fromArray(SPECIES, active, o);
+
+                // Interpolate and undenormalize
+                DoubleVector cur = DoubleVector.fromArray(SPECIES, currentAmp, o);
+                DoubleVector a = cur.mul(Output.ONE_MINUS_PARTIALS_INTERPOLATION_ALPHA).add(DoubleVector.fromArray(SPECIES, target, o));
+                a = a.blend(zero, a.compare(VectorOperators.LT, Output.WELL_ABOVE_SUBNORMALS));
+                cur = cur.blend(a, act);
+                cur.intoArray(currentAmp, o);
+                VectorMask<Double> loud = cur.compare(VectorOperators.GT, Output.MINIMUM_VOLUME).and(act);
+
+                // Advance and wrap only the loud partials
+                DoubleVector p = DoubleVector.fromArray(SPECIES, pos, o);
+                DoubleVector np = p.add(DoubleVector.fromArray(SPECIES, increment, o));
+                np = np.sub(one).blend(np, np.compare(VectorOperators.LT, 1.0));
+                p = p.blend(np, loud);
+                p.intoArray(pos, o);
+
+                // Offset the phase by the mixing, and accumulate
+                DoubleVector phase = p.add(DoubleVector.fromArray(SPECIES, MIXING_OFFSET, o));
+                phase = phase.sub(one).blend(phase, phase.compare(VectorOperators.LT, 1.0));
+                sum = sum.add(sin(phase).mul(cur), loud);
+                }
+            samples[s] = sum.reduceLanes(VectorOperators.ADD) * velocityMultiplier;
+            }
+        }
+
+    /** Returns sin(2 PI x) for 0 &lt;= x &lt; 1. */
+    static DoubleVector sin(DoubleVector x)
+        {
+        // sin(2 PI x) = sin(PI - 2 PI x), so map to -1/2...1/2, then fold into -1/4...1/4 
+        x = x.neg().add(0.5);
+        x = x.blend(x.neg().add(0.5), x.compare(VectorOperators.GT, 0.25));
+        x = x.blend(x.neg().sub(0.5), x.compare(VectorOperators.LT, -0.25));
+        DoubleVector y = x.mul(Output.PI2);
+        DoubleVector y2 = y.mul(y);
+        // Taylor series out to y^11, good to about 6e-8 over -PI/2 ... PI/2
+        DoubleVector r = y2.mul(S11).add(S9);
+        r = r.mul(y2).add(S7);
+        r = r.mul(y2).add(S5);
+        r = r.mul(y2).add(S3);
+        r = r.mul(y2).add(1.0);
+        return r.mul(y);
+        }
+
+    static final double S3 = -1.0 / 6.0;
+    static final double S5 = 1.0 / 120.0;
+    static final double S7 = -1.0 / 5040.0;
+    static final double S9 = 1.0 / 362880.0;
+    static final double S11 = -1.0 / 39916800.0;
+
+
+
+    //// BENCHMARK
+
+    static double[][] buildVoice(int numPartials, Random random, boolean shuffle)
+        {
+        double[] amp = new double[numPartials];
+        double[] freq = new double[numPartials];
+        double[] orders = new double[numPartials];
+        for(int i = 0; i < numPartials; i++)
+            {
+            freq[i] = i + 1;
+            amp[i] = random.nextDouble() / (i + 1);
+            orders[i] = i;
+            }
+        if (shuffle)
+            {
+            for(int i = numPartials - 1; i > 0; i--)
+                {
+                int j = random.nextInt(i + 1);
+                double t = orders[i]; orders[i] = orders[j]; orders[j] = t;
+                }
+            }
+        return new double[][] { amp, freq, orders };
+        }
+
+    static double time(Renderer renderer, double[] samples, int skip, double[][] voice, byte[] orders, double pitch, boolean dephase, double seconds)
+        {
+        int numPartials = voice[0].length;
+        double[] pos = new double[numPartials];
+        double[] currentAmp = new double[numPartials];
+        long blocks = 0;
+        long start = System.nanoTime();
+        long end = start + (long)(seconds * 1000000000L);
+        long now = start;
+        while(now < end)
+            {
+            for(int i = 0; i < 1000; i++)
+                renderer.render(0, samples, skip, voice[0], voice[1], orders, null, 0, pos.length, pos, currentAmp, pitch, 1.0, dephase);
+            blocks += 1000;
+            now = System.nanoTime();
+            }
+        return (now - start) / (double)blocks;
+        }
+
+    /** Compares the scalar and vector renderers for correctness and speed. */
+    public static void main(String[] args)
+        {
+        double seconds = (args.length > 0 ? Double.parseDouble(args[0]) : 2.0);
+        int skip = Output.DEFAULT_SKIP;
+        double pitch = 110.0;
+        Random random = new Random(500);
+        System.out.println("Vector species: " + SPECIES + "  (" + LANES + " lanes)");
+        System.out.println("Partials\tDephase\tShuffled\tScalar ns/block\tVector ns/block\tSpeedup\tMax Relative Error");
+
+        for(int numPartials : new int[] { 64, 128, 256 })
+            for(int d = 0; d < 2; d++)
+                for(int sh = 0; sh < 2; sh++)
+                    {
+                    boolean dephase = (d == 1);
+                    double[][] voice = buildVoice(numPartials, random, sh == 1);
+                    byte[] orders = new byte[numPartials];
+                    for(int i = 0; i < numPartials; i++) orders[i] = (byte)voice[2][i];
+
+                    // correctness
+                    Renderer scalar = new Output.ScalarRenderer();
+                    Renderer vector = new VectorRenderer();
+                    double[] pos1 = new double[numPartials];
+                    double[] pos2 = new double[numPartials];
+                    double[] cur1 = new double[numPartials];
+                    double[] cur2 = new double[numPartials];
+                    double[] s1 = new double[skip];
+                    double[] s2 = new double[skip];
+                    double maxError = 0;
+                    double maxSample = 0;
+                    for(int block = 0; block < 1000; block++)
+                        {
+                        scalar.render(0, s1, skip, voice[0], voice[1], orders, null, 0, pos1.length, pos1, cur1, pitch, 1.0, dephase);
+                        vector.render(0, s2, skip, voice[0], voice[1], orders, null, 0, pos2.length, pos2, cur2, pitch, 1.0, dephase);
+                        for(int s = 0; s < skip; s++)
+                            {
+                            maxError = Math.max(maxError, Math.abs(s1[s] - s2[s]));
+                            maxSample = Math.max(maxSample, Math.abs(s1[s]));
+                            }
+                        }
+
+                    // speed
+                    double[] samples = new double[skip];
+                    double scalarTime = time(scalar, samples, skip, voice, orders, pitch, dephase, seconds);
+                    double vectorTime = time(vector, samples, skip, voice, orders, pitch, dephase, seconds);
+                    System.out.printf("%d\t\t%b\t%b\t\t%.1f\t\t%.1f\t\t%.2fx\t%.3g\n", numPartials, dephase, sh == 1,
+                        scalarTime, vectorTime, scalarTime / vectorTime, maxError / maxSample);
+                    }
+        }
+    }
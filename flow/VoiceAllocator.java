@@ -0,0 +1,426 @@
+// Copyright 2018 by George Mason University
+// Licensed under the Apache 2.0 License
+
+
+package flow;
+
+import java.util.*;
+
+/**
+   Keeps track, for Input, of which Sounds are holding notes and which are free, so that
+   allocating a voice, finding the voice playing a note, and finding the voices on a channel
+   don't require scanning every Sound.
+
+   <p>Each Sound is known by its index (Sound.getIndex()), and every list is intrusive: it's
+   threaded through arrays indexed by voice, so nothing is allocated once the Sounds are added.
+   There are:
+
+   <ul>
+   <li>For each group, a list of its <b>held</b> voices and a list of its <b>free</b> voices
+   (released, but perhaps still sounding), newest first.  A new note takes the oldest free voice
+   of its group, or if there are none, steals the oldest held one.
+   <li>For each channel (0...15, OMNI, and one for everything else) and MIDI note, a stack of the
+   held voices playing that note on that channel, newest first.  This is how NOTE OFF and POLY
+   AFTERTOUCH find their voice.
+   <li>For each channel, a list of all the voices, held or free, on that channel.  This is how
+   PITCH BEND and CHANNEL AFTERTOUCH find theirs.
+   <li>The set of voices whose release is being held off by the sustain pedal.
+   </ul>
+
+   <p>The allocator files each voice under the channel and note Input gives it in hold() or
+   update(), which Input must call whenever it changes either, and under the group the Sound
+   had when added; Input calls regroup() once Output has reassigned the Sounds to groups.  None of this is threadsafe: Input calls it all
+   while holding its lock.
+**/
+
+public class VoiceAllocator
+    {
+    static final byte NONE = 0;
+    static final byte FREE = 1;
+    static final byte HELD = 2;
+
+    static final int NUM_NOTES = 128;
+    /** The channel slot for Input.CHANNEL_OMNI. */
+    static final int SLOT_OMNI = Input.NUM_MIDI_CHANNELS;
+    /** The channel slot for Input.CHANNEL_NONE and anything else which no message can match. */
+    static final int SLOT_OTHER = Input.NUM_MIDI_CHANNELS + 1;
+    static final int NUM_SLOTS = Input.NUM_MIDI_CHANNELS + 2;
+
+    Sound[] sounds;
+    int numSounds = 0;
+
+    // Which list each voice is in, and the group, channel and note it's filed under
+    byte[] state;
+    int[] groupOf;
+    int[] channelOf;
+    int[] noteOf;
+    // When each voice was last taken for a note
+    long[] stamp;
+    long clock = 0;
+    int numHeld = 0;
+
+    // Per-group held and free lists, newest at the head.  A voice is in at most one, so they share links.
+    int[] heldHead = new int[Output.MAX_GROUPS];
+    int[] heldTail = new int[Output.MAX_GROUPS];
+    int[] freeHead = new int[Output.MAX_GROUPS];
+    int[] freeTail = new int[Output.MAX_GROUPS];
+    int[] prev;
+    int[] next;
+
+    // Per-(channel slot, note) stacks of held voices
+    int[] keyHead = new int[NUM_SLOTS * NUM_NOTES];
+    int[] keyOf;
+    int[] keyPrev;
+    int[] keyNext;
+
+    // Per-channel-slot lists of all voices
+    int[] slotHead = new int[NUM_SLOTS];
+    int[] slotOf;
+    int[] slotPrev;
+    int[] slotNext;
+
+    // The voices held by the sustain pedal
+    int[] sustained;
+    int numSustained = 0;
+    int[] sustainPos;               // position in sustained, or -1
+
+    /** Builds an allocator for up to MAXSOUNDS Sounds. */
+    public VoiceAllocator(int maxSounds)
+        {
+        sounds = new Sound[maxSounds];
+        state = new byte[maxSounds];
+        groupOf = new int[maxSounds];
+        channelOf = new int[maxSounds];
+        noteOf = new int[maxSounds];
+        stamp = new long[maxSounds];
+        prev = new int[maxSounds];
+        next = new int[maxSounds];
+        keyOf = new int[maxSounds];
+        keyPrev = new int[maxSounds];
+        keyNext = new int[maxSounds];
+        slotOf = new int[maxSounds];
+        slotPrev = new int[maxSounds];
+        slotNext = new int[maxSounds];
+        sustained = new int[maxSounds];
+        sustainPos = new int[maxSounds];
+        Arrays.fill(heldHead, -1);
+        Arrays.fill(heldTail, -1);
+        Arrays.fill(freeHead, -1);
+        Arrays.fill(freeTail, -1);
+        Arrays.fill(keyHead, -1);
+        Arrays.fill(slotHead, -1);
+        Arrays.fill(keyOf, -1);
+        Arrays.fill(slotOf, -1);
+        Arrays.fill(sustainPos, -1);
+        }
+
+    /** Returns the channel slot for CHANNEL. */
+    static int slot(int channel)
+        {
+        if (channel >= 0 && channel < Input.NUM_MIDI_CHANNELS) return channel;
+        if (channel == Input.CHANNEL_OMNI) return SLOT_OMNI;
+        return SLOT_OTHER;
+        }
+
+    /** Adds a new Sound, as the oldest free voice of its group. */
+    public void add(Sound sound)
+        {
+        int v = sound.getIndex();
+        sounds[v] = sound;
+        if (v >= numSounds) numSounds = v + 1;
+        groupOf[v] = sound.getGroup();
+        channelOf[v] = sound.getChannel();
+        noteOf[v] = sound.getMIDINote();
+        state[v] = FREE;
+        linkTail(v);
+        linkSlot(v, slot(channelOf[v]));
+        }
+
+    /** Returns the number of voices holding notes. */
+    public int getNumHeld() { return numHeld; }
+
+    /** Returns the number of voices sounding: those holding notes, and those released but not yet
+        asleep (see Sound.isAsleep()).  Unlike the rest, this scans every voice. */
+    public int getNumSounding()
+        {
+        int n = numHeld;
+        for(int v = 0; v < numSounds; v++)
+            if (state[v] == FREE && !sounds[v].isAsleep()) n++;
+        return n;
+        }
+
+    /** Returns the channel voice V is filed under. */
+    public int getChannel(int v) { return channelOf[v]; }
+
+    /** Returns the Sound for voice V. */
+    public Sound getSound(int v) { return sounds[v]; }
+
+    /** Returns true if the given Sound is holding a note. */
+    public boolean isHeld(Sound sound) { return state[sound.getIndex()] == HELD; }
+
+    /** Removes and returns the oldest free voice in group G, or null if there is none.  Follow with hold(). */
+    public Sound takeFree(int g)
+        {
+        int v = freeTail[g];
+        if (v < 0) return null;
+        unlink(v);
+        return sounds[v];
+        }
+
+    /** Removes and returns the oldest free voice in group G which is still sounding, or null if there is none.  Follow with hold(). */
+    public Sound takeFreeSounding(int g)
+        {
+        for(int v = freeTail[g]; v >= 0; v = prev[v])
+            if (!sounds[v].isAsleep())
+                {
+                unlink(v);
+                return sounds[v];
+                }
+        return null;
+        }
+
+    /** Removes and returns the oldest held voice in group G, or null if there is none.  Follow with hold(). */
+    public Sound takeHeld(int g)
+        {
+        int v = heldTail[g];
+        if (v < 0) return null;
+        unlink(v);
+        return sounds[v];
+        }
+
+    /** Removes the given Sound from whichever list it's in, and returns true if it was held.  Follow with hold(). */
+    public boolean take(Sound sound)
+        {
+        int v = sound.getIndex();
+        boolean held = (state[v] == HELD);
+        unlink(v);
+        return held;
+        }
+
+    /** Makes the given Sound the newest held voice of its group, playing NOTE on CHANNEL. */
+    public void hold(Sound sound, int channel, int note)
+        {
+        int v = sound.getIndex();
+        unlink(v);
+        state[v] = HELD;
+        stamp[v] = ++clock;
+        linkHead(v);
+        update(sound, channel, note);
+        }
+
+    /** Makes the given held Sound the newest free voice of its group. */
+    public void free(Sound sound)
+        {
+        int v = sound.getIndex();
+        unlink(v);
+        state[v] = FREE;
+        linkHead(v);
+        }
+
+    /** Moves every held voice to the free lists, and posts a release to each (see Sound.post()). */
+    public void releaseAll()
+        {
+        for(int g = 0; g < Output.MAX_GROUPS; g++)
+            {
+            while(heldTail[g] >= 0)
+                {
+                Sound sound = sounds[heldTail[g]];
+                free(sound);
+                sound.post(Sound.EVENT_RELEASE, 0, 0);
+                }
+            }
+        }
+
+    /** Refiles the given Sound under CHANNEL and (if held) NOTE.  Call this whenever Input
+        changes either of them. */
+    public void update(Sound sound, int channel, int note)
+        {
+        int v = sound.getIndex();
+        channelOf[v] = channel;
+        noteOf[v] = note;
+        int s = slot(channel);
+        if (slotOf[v] != s)
+            {
+            unlinkSlot(v);
+            linkSlot(v, s);
+            }
+        int key = (state[v] == HELD ? s * NUM_NOTES + (note & (NUM_NOTES - 1)) : -1);
+        if (keyOf[v] != key)
+            {
+            unlinkKey(v);
+            if (key >= 0) linkKey(v, key);
+            }
+        }
+
+    /** Refiles every Sound under its current group and channel (Sound.getGroup() and
+        Sound.getChannel()).  Call this after the Sounds have been reassigned to groups. */
+    public void regroup()
+        {
+        Arrays.fill(heldHead, -1);
+        Arrays.fill(heldTail, -1);
+        Arrays.fill(freeHead, -1);
+        Arrays.fill(freeTail, -1);
+        numHeld = 0;
+
+        // Refile oldest note first, so the newest wind up at the heads
+        Integer[] order = new Integer[numSounds];
+        for(int v = 0; v < numSounds; v++) order[v] = Integer.valueOf(v);
+        Arrays.sort(order, new Comparator<Integer>()
+            {
+            public int compare(Integer a, Integer b) { return Long.compare(stamp[a.intValue()], stamp[b.intValue()]); }
+            });
+        for(int i = 0; i < numSounds; i++)
+            {
+            int v = order[i].intValue();
+            if (sounds[v] == null || state[v] == NONE) continue;
+            groupOf[v] = sounds[v].getGroup();
+            linkHead(v);
+            update(sounds[v], sounds[v].getChannel(), noteOf[v]);
+            }
+        }
+
+    /** Returns the newest held voice playing NOTE on CHANNEL, or on OMNI, or, if MPE is
+        non-null, on any channel c for which MPE[c] is true.  Returns null if there is none. */
+    public Sound findHeld(int channel, int note, boolean[] mpe)
+        {
+        int best = newer(-1, keyHead[slot(channel) * NUM_NOTES + note]);
+        best = newer(best, keyHead[SLOT_OMNI * NUM_NOTES + note]);
+        if (mpe != null)
+            for(int c = 0; c < Input.NUM_MIDI_CHANNELS; c++)
+                if (mpe[c])
+                    best = newer(best, keyHead[c * NUM_NOTES + note]);
+        return (best < 0 ? null : sounds[best]);
+        }
+
+    int newer(int a, int b)
+        {
+        if (a < 0) return b;
+        if (b < 0) return a;
+        return (stamp[b] > stamp[a] ? b : a);
+        }
+
+    /** Returns the first voice (as a voice index) in channel SLOT, or -1 if there is none.  Slots
+        0...15 are MIDI channels, and SLOT_OMNI is OMNI.  Iterate with nextInSlot(). */
+    public int firstInSlot(int slot) { return slotHead[slot]; }
+
+    /** Returns the voice after V in its channel slot, or -1 if there is none. */
+    public int nextInSlot(int v) { return slotNext[v]; }
+
+    /** Adds the given Sound to the set whose release is held off by the sustain pedal, if it isn't already there. */
+    public void sustain(Sound sound)
+        {
+        int v = sound.getIndex();
+        if (sustainPos[v] >= 0) return;
+        sustainPos[v] = numSustained;
+        sustained[numSustained++] = v;
+        }
+
+    /** Removes the given Sound from the sustain set, returning true if it was there. */
+    public boolean unsustain(Sound sound)
+        {
+        int v = sound.getIndex();
+        int pos = sustainPos[v];
+        if (pos < 0) return false;
+        int last = sustained[--numSustained];
+        sustained[pos] = last;
+        sustainPos[last] = pos;
+        sustainPos[v] = -1;
+        return true;
+        }
+
+    /** Posts a release to every Sound in the sustain set (see Sound.post()), and empties it. */
+    public void releaseSustained()
+        {
+        for(int i = 0; i < numSustained; i++)
+            {
+            sounds[sustained[i]].post(Sound.EVENT_RELEASE, 0, 0);
+            sustainPos[sustained[i]] = -1;
+            }
+        numSustained = 0;
+        }
+
+
+    //// LIST PLUMBING
+
+    // Pushes V onto the head (newest end) of its group's list for its state
+    void linkHead(int v)
+        {
+        int g = groupOf[v];
+        int[] head = (state[v] == HELD ? heldHead : freeHead);
+        int[] tail = (state[v] == HELD ? heldTail : freeTail);
+        prev[v] = -1;
+        next[v] = head[g];
+        if (head[g] >= 0) prev[head[g]] = v;
+        else tail[g] = v;
+        head[g] = v;
+        if (state[v] == HELD) numHeld++;
+        }
+
+    // Appends V to the tail (oldest end) of its group's list for its state
+    void linkTail(int v)
+        {
+        int g = groupOf[v];
+        int[] head = (state[v] == HELD ? heldHead : freeHead);
+        int[] tail = (state[v] == HELD ? heldTail : freeTail);
+        next[v] = -1;
+        prev[v] = tail[g];
+        if (tail[g] >= 0) next[tail[g]] = v;
+        else head[g] = v;
+        tail[g] = v;
+        if (state[v] == HELD) numHeld++;
+        }
+
+    // Removes V from its group's list, and from its note stack
+    void unlink(int v)
+        {
+        if (state[v] == NONE) return;
+        int g = groupOf[v];
+        int[] head = (state[v] == HELD ? heldHead : freeHead);
+        int[] tail = (state[v] == HELD ? heldTail : freeTail);
+        if (prev[v] >= 0) next[prev[v]] = next[v];
+        else head[g] = next[v];
+        if (next[v] >= 0) prev[next[v]] = prev[v];
+        else tail[g] = prev[v];
+        if (state[v] == HELD) numHeld--;
+        state[v] = NONE;
+        unlinkKey(v);
+        }
+
+    void linkKey(int v, int key)
+        {
+        keyOf[v] = key;
+        keyPrev[v] = -1;
+        keyNext[v] = keyHead[key];
+        if (keyHead[key] >= 0) keyPrev[keyHead[key]] = v;
+        keyHead[key] = v;
+        }
+
+    void unlinkKey(int v)
+        {
+        int key = keyOf[v];
+        if (key < 0) return;
+        if (keyPrev[v] >= 0) keyNext[keyPrev[v]] = keyNext[v];
+        else keyHead[key] = keyNext[v];
+        if (keyNext[v] >= 0) keyPrev[keyNext[v]] = keyPrev[v];
+        keyOf[v] = -1;
+        }
+
+    void linkSlot(int v, int s)
+        {
+        slotOf[v] = s;
+        slotPrev[v] = -1;
+        slotNext[v] = slotHead[s];
+        if (slotHead[s] >= 0) slotPrev[slotHead[s]] = v;
+        slotHead[s] = v;
+        }
+
+    void unlinkSlot(int v)
+        {
+        int s = slotOf[v];
+        if (s < 0) return;
+        if (slotPrev[v] >= 0) slotNext[slotPrev[v]] = slotNext[v];
+        else slotHead[s] = slotNext[v];
+        if (slotNext[v] >= 0) slotPrev[slotNext[v]] = slotPrev[v];
+        slotOf[v] = -1;
+        }
+    }
@@ -0,0 +1,124 @@
+// Copyright 2018 by George Mason University
+// Licensed under the Apache 2.0 License
+
+
+package flow;
+
+import java.io.*;
+import javax.sound.sampled.*;
+
+/**
+   An AudioSink which streams its audio to a WAV file.  Unlike WavFile, it doesn't need to
+   know the length beforehand: it writes the header with zero lengths, and fills them in on
+   close().  It doesn't block, so the Output runs as fast as it can: the file is
+   a recording of whatever Flow plays, not of real time.
+**/
+
+public class WavSink implements AudioSink
+    {
+    static final int HEADER_SIZE = 44;
+    
+    File file;
+    OutputStream out;
+    long bytes = 0;
+    IOException error = null;
+    
+    /** Creates FILE and writes a WAV header for the given FORMAT, which must be 16-bit little-endian PCM. */
+    public WavSink(File file, AudioFormat format) throws IOException
+        {
+        if (format.getSampleSizeInBits() != 16 || format.isBigEndian() || 
+            format.getEncoding() != AudioFormat.Encoding.PCM_SIGNED)
+            throw new IllegalArgumentException("WavSink only handles 16-bit little-endian PCM, not " + format);
+            
+        this.file = file;
+        out = new BufferedOutputStream(new FileOutputStream(file));
+        int channels = format.getChannels();
+        int rate = (int)format.getSampleRate();
+        byte[] header = new byte[HEADER_SIZE];
+        putString(header, 0, "RIFF");
+        putInt(header, 4, 0);                               // RIFF chunk size, filled in by close()
+        putString(header, 8, "WAVE");
+        putString(header, 12, "fmt ");
+        putInt(header, 16, 16);                             // fmt chunk size
+        putShort(header, 20, 1);                            // PCM
+        putShort(header, 22, channels);
+        putInt(header, 24, rate);
+        putInt(header, 28, rate * channels * 2);            // bytes per second
+        putShort(header, 32, channels * 2);                 // block align
+        putShort(header, 34, 16);                           // bits per sample
+        putString(header, 36, "data");
+        putInt(header, 40, 0);                              // data chunk size, filled in by close()
+        out.write(header);
+        }
+        
+    /** Returns the file being written. */
+    public File getFile() { return file; }
+
+    /** Returns the number of bytes of audio written so far. */
+    public long getBytesWritten() { return bytes; }
+        
+    public void write(byte[] buffer, int offset, int length)
+        {
+        if (error != null) return;
+        try
+            {
+            out.write(buffer, offset, length);
+            bytes += length;
+            }
+        catch (IOException ex)
+            {
+            // We can't throw from the Output Thread, so we stop writing, and complain once
+            error = ex;
+            System.err.println("WavSink.write() WARNING: could not write to " + file + ", " + ex);
+            }
+        }
+        
+    public boolean isStarving() { return false; }
+    
+    public int getQueued() { return -1; }
+        
+    public void close()
+        {
+        try
+            {
+            out.close();
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try
+                {
+                byte[] size = new byte[4];
+                putInt(size, 0, (int)(HEADER_SIZE - 8 + bytes));
+                raf.seek(4);
+                raf.write(size);
+                putInt(size, 0, (int)bytes);
+                raf.seek(40);
+                raf.write(size);
+                }
+            finally
+                {
+                raf.close();
+                }
+            }
+        catch (IOException ex)
+            {
+            System.err.println("WavSink.close() WARNING: could not finish " + file + ", " + ex);
+            }
+        }
+        
+    static void putString(byte[] b, int pos, String s)
+        {
+        for(int i = 0; i < s.length(); i++)
+            b[pos + i] = (byte)s.charAt(i);
+        }
+        
+    static void putShort(byte[] b, int pos, int val)
+        {
+        b[pos] = (byte)(val & 255);
+        b[pos + 1] = (byte)((val >> 8) & 255);
+        }
+        
+    static void putInt(byte[] b, int pos, int val)
+        {
+        putShort(b, pos, val & 0xFFFF);
+        putShort(b, pos + 2, (val >>> 16) & 0xFFFF);
+        }
+    }
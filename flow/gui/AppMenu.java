@@ -23,6 +23,7 @@ import org.json.*;
 public class AppMenu
     {
     public static final String PATCH_EXTENSION = ".flow";
+    public static final String PROFILE_EXTENSION = ".csv";
     
     // Returns a menu for a given module class.
     static JMenuItem menuFor(Class moduleClass, Rack rack)
@@ -473,7 +474,6 @@ public class AppMenu
     public static void doLoad(Rack rack, JSONObject obj, boolean clearSubpatches) throws Exception
         {
         String[] patchName = new String[1];
-        rack.getOutput().lock();
         int flowVersion = 0;
         try 
             { 
@@ -481,25 +481,28 @@ public class AppMenu
             }
         catch (Exception ex) { ex.printStackTrace(); }
         // version
+
+        // Build the modules before acquiring the lock, so the voices keep playing meanwhile
+        Modulation[][] mods = new Modulation[rack.getOutput().getNumSounds()][];
+        for(int i = 0; i < mods.length; i++)
+            {
+            mods[i] = Sound.loadModules(obj, flowVersion);
+            }
+
+        Output out = rack.getOutput();
+        out.lock();
         try
             {
-            Modulation[][] mods = new Modulation[rack.getOutput().getNumSounds()][];
-            for(int i = 0; i < mods.length; i++)
-                {
-                mods[i] = Sound.loadModules(obj, flowVersion);
-                }
-                                                                                                                                                                                        
             // Remove old subpatches
             if (clearSubpatches)
                 {
-                rack.getOutput().setNumGroups(1);
+                out.setNumGroups(1);
                 }
 
             // Create and update Modulations and create ModulePanels
             load(mods, rack, obj == null ? patchName[0] : Sound.loadName(obj));
 
             // reload
-            Output out = rack.getOutput();
             if (obj != null)
                 {
                 rack.setPatchVersion(Sound.loadPatchVersion(obj));
@@ -516,15 +519,17 @@ public class AppMenu
                         }
                     }
                 }
-            rack.getOutput().getGroup(Output.PRIMARY_GROUP).setBothNotes(0, 127);           // reset
-            out.assignGroupsToSounds();
-            rack.rebuildSubpatches();
-            rack.checkOrder();
+            out.getGroup(Output.PRIMARY_GROUP).setBothNotes(0, 127);           // reset
             }
         finally 
             {
-            rack.getOutput().unlock();
+            out.unlock();
             }
+
+        // This builds the other Sounds' modules outside the lock too
+        out.assignGroupsToSounds();
+        rack.rebuildSubpatches();
+        rack.checkOrder();
         rack.scrollToRight();
         ((Out.OutModulePanel)(rack.findOut())).updatePatchInfo();
         } 
@@ -1043,6 +1048,68 @@ public class AppMenu
         }
 
 
+    // Produces the Profile Modules menu
+    static JMenuItem profileModulesMenu(Rack rack)
+        {
+        final JCheckBoxMenuItem profile = new JCheckBoxMenuItem("Profile Modules");
+        profile.addActionListener(new ActionListener()
+            {
+            public void actionPerformed(ActionEvent e)
+                {
+                rack.setProfiling(profile.isSelected());
+                }
+            });
+        return profile;
+        }
+
+
+    // Produces the Export Profile menu
+    static JMenuItem exportProfileMenu(Rack rack)
+        {
+        JMenuItem export = new JMenuItem("Export Profile...");
+        export.addActionListener(new ActionListener()
+            {
+            public void actionPerformed(ActionEvent e)
+                {
+                if (!rack.getOutput().isProfiling())
+                    {
+                    showSimpleError("Export Profile", "Turn on Options > Profile Modules and play the patch first.", rack);
+                    return;
+                    }
+                    
+                FileDialog fd = new FileDialog((Frame)(SwingUtilities.getRoot(rack)), "Export Profile to File...", FileDialog.SAVE);
+                String name = rack.getPatchName();
+                if (name == null) name = Sound.UNTITLED_PATCH_NAME;
+                fd.setFile(name + PROFILE_EXTENSION);
+                if (dirFile != null)
+                    fd.setDirectory(dirFile.getParentFile().getPath());
+                rack.disableMenuBar();
+                fd.setVisible(true);
+                rack.enableMenuBar();
+                
+                if (fd.getFile() != null)
+                    {
+                    File f = new File(fd.getDirectory(), ensureFileEndsWith(fd.getFile(), PROFILE_EXTENSION));
+                    Profiler profiler = rack.getOutput().getProfiler();
+                    profiler.sample();
+                    try
+                        {
+                        Writer writer = new FileWriter(f);
+                        try { profiler.writeCSV(writer); }
+                        finally { writer.close(); }
+                        }
+                    catch (IOException ex) 
+                        { 
+                        ex.printStackTrace(); 
+                        showSimpleError("Profile Writing Error", "The profile could not be written", rack); 
+                        }
+                    }
+                }
+            });
+        return export;
+        }
+
+
     // Produces the Add New Modules At End menu
     static JMenuItem addModulesAfterMenu(Rack rack)
         {
@@ -1275,6 +1342,8 @@ public class AppMenu
         menu.add(addModulesAfterMenu(rack));
         menu.add(setupPatchMenu(rack));
         menu.add(setupTuningMenu(rack));
+        menu.addSeparator();
+        menu.add(profileModulesMenu(rack));
         //menu.add(sin(rack));
         return menu;
         }
@@ -1293,6 +1362,7 @@ public class AppMenu
         menu.add(loadPrimaryPatchMenu(rack));
         menu.add(loadSubpatchMenu(rack));
         menu.add(exportPrimaryPatchMenu(rack));
+        menu.add(exportProfileMenu(rack));
 
         if (!Style.isMac())
             {
@@ -31,6 +31,7 @@ public class ModulePanel extends JPanel implements Transferable
     JComponent title;
     
     JLabel titleLabel;
+    JLabel profileLabel;
     JComponent titlePanel;
     JScrollPane helpPanel;
     // It seems that Java's JTextPane, in HTML mode, doesn't handle word wraps
@@ -249,6 +250,12 @@ public class ModulePanel extends JPanel implements Transferable
         titleLabel.setForeground(getTitleForeground());
         titleLabel.setFont(Style.SMALL_FONT());
         titlePanel.add(titleLabel, BorderLayout.CENTER);
+
+        profileLabel = new JLabel();
+        profileLabel.setForeground(getTitleForeground());
+        profileLabel.setFont(Style.SMALL_FONT());
+        profileLabel.setVisible(false);
+        titlePanel.add(profileLabel, BorderLayout.EAST);
         
         if (!(modulation instanceof Out))  // Out doesn't have a remove button
             {
@@ -275,6 +282,23 @@ public class ModulePanel extends JPanel implements Transferable
         return outer;
         }
 
+    /** Shows in the title bar what the module costs, summed over all the voices of its group, per
+        Profiler, or hides the cost if PROFILER is null. */
+    public void updateProfile(Profiler profiler)
+        {
+        if (profiler == null)
+            {
+            profileLabel.setVisible(false);
+            return;
+            }
+        Sound sound = modulation.getSound();
+        int index = sound.findRegistered(modulation);
+        if (index < 0) return;
+        double micros = profiler.getMicrosPerTick(sound.getGroup(), index);
+        profileLabel.setText(String.format("%.1f\u00B5s %.1f%% ", micros, Profiler.getPercent(micros)));
+        profileLabel.setVisible(true);
+        }
+
     /** Called to inform the ModulePanel that a title has changed in a given
         InputOutput.  Override this as you see fit; the default does nothing. */
     public void updateTitleChange(InputOutput inout, int number, String newTitle) { }
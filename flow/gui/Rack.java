@@ -399,6 +399,39 @@ public class Rack extends JPanel
     
     /** Returns the global Output */
     public Output getOutput() { return output; }
+
+    /** How often the Rack samples the Profiler and updates the ModulePanels' costs, in ms */
+    public static final int PROFILE_INTERVAL_MS = 500;
+    javax.swing.Timer profileTimer;
+    
+    /** Turns per-module profiling on or off.  While it's on, each ModulePanel shows in its
+        title bar the module's cost (summed over all voices) in microseconds per tick and as a percentage of the tick budget. */
+    public void setProfiling(boolean val)
+        {
+        if (val == output.isProfiling()) return;
+        output.setProfiling(val);
+        if (val)
+            {
+            profileTimer = new javax.swing.Timer(PROFILE_INTERVAL_MS, new ActionListener()
+                {
+                public void actionPerformed(ActionEvent e)
+                    {
+                    Profiler profiler = output.getProfiler();
+                    profiler.sample();
+                    for(ModulePanel panel : allModulePanels)
+                        panel.updateProfile(profiler);
+                    }
+                });
+            profileTimer.start();
+            }
+        else
+            {
+            profileTimer.stop();
+            profileTimer = null;
+            for(ModulePanel panel : allModulePanels)
+                panel.updateProfile(null);
+            }
+        }
     
     /** Returns the component which, on repainting, draws the wires.  */
     public Component getWirePaintComponent() { return box; }
@@ -959,20 +992,6 @@ public class Rack extends JPanel
             }
         bufferSizeCombo.setSelectedIndex(index);
 
-        // Voices Per Thread
-        int[] voicesPerThread = new int[] { 1, 2, 4, 8, 16 };
-        String[] s_voicesPerThread = new String[] { "1", "2", "4", "8", "16" };
-        JComboBox voicesPerThreadCombo = new JComboBox(s_voicesPerThread);
-        int voicePerThread = Prefs.getLastNumVoicesPerThread();
-        voicesPerThreadCombo.setSelectedIndex(voicePerThread == 1 ? 0 : (voicePerThread == 2 ? 1 : (voicePerThread == 4 ? 2 : (voicePerThread == 8 ? 3 : 4))));
-
-        // Outputs Per Thread
-        int[] outputsPerThread = new int[] { 1, 2, 4, 8, 16 };
-        String[] s_outputsPerThread = new String[] { "1", "2", "4", "8", "16" };
-        JComboBox outputsPerThreadCombo = new JComboBox(s_outputsPerThread);
-        int outputPerThread = Prefs.getLastNumOutputsPerThread();
-        outputsPerThreadCombo.setSelectedIndex(outputPerThread == 1 ? 0 : (outputPerThread == 2 ? 1 : (outputPerThread == 4 ? 2 : (outputPerThread == 8 ? 3 : 4))));
-
         // Skip
         int[] skips = new int[] { 1, 2, 4, 6, 8, 12, 16, 24, 32, 36, 40, 48, 64, 80, 96, 128 };
         String[] s_skips = new String[] { "1", "2", "4", "6", "8", "12", "16", "24", "32", "36", "40", "48", "64", "80", "96", "128" };
@@ -995,6 +1014,11 @@ public class Rack extends JPanel
         JComboBox sinQCombo = new JComboBox(sinQs);
         int sinQuality = Prefs.getLastSinQuality();
         sinQCombo.setSelectedIndex(sinQuality);
+
+        // Renderer
+        String[] renderers = new String[] { "Scalar", "Vector (SIMD)", "Inverse FFT (Approximate)" };
+        JComboBox rendererCombo = new JComboBox(renderers);
+        rendererCombo.setSelectedIndex(Prefs.getLastRenderer());
         
         JCheckBox stereoCheckbox = new JCheckBox();
         stereoCheckbox.setSelected(Prefs.getLastStereo());
@@ -1004,8 +1028,8 @@ public class Rack extends JPanel
         b.add(Stretch.makeHorizontalStretch(), BorderLayout.CENTER);
 
         int result = showMultiOption(this, 
-            new String[] { "Polyphony", "Buffer Size Per Channel", "Partials", "Voices Per Thread", "Outputs Per Thread", "Samples Per Partials Update", "Sine Quality", "Stereo" }, 
-            new JComponent[] { voicesCombo, bufferSizeCombo, partialsCombo, voicesPerThreadCombo, outputsPerThreadCombo, skipsCombo, sinQCombo, b }, 
+            new String[] { "Polyphony", "Buffer Size Per Channel", "Partials", "Samples Per Partials Update", "Sine Quality", "Renderer", "Stereo" }, 
+            new JComponent[] { voicesCombo, bufferSizeCombo, partialsCombo, skipsCombo, sinQCombo, rendererCombo, b }, 
             "Tuning Parameters", 
             "<html>Parameter changes don't take effect<br>until the synthesizer is restarted.",
             new String[] { "Okay", "Reset", "Cancel", });
@@ -1015,22 +1039,20 @@ public class Rack extends JPanel
             Prefs.setLastNumVoices(voices[voicesCombo.getSelectedIndex()]);
             Prefs.setLastBufferSize(bufferSize[bufferSizeCombo.getSelectedIndex()]);
             Prefs.setLastNumPartials(partials[partialsCombo.getSelectedIndex()]);
-            Prefs.setLastNumVoicesPerThread(voicesPerThread[voicesPerThreadCombo.getSelectedIndex()]);
-            Prefs.setLastNumOutputsPerThread(outputsPerThread[outputsPerThreadCombo.getSelectedIndex()]);
             Prefs.setLastStereo(stereoCheckbox.isSelected());
             Prefs.setLastSkip(skips[skipsCombo.getSelectedIndex()]);
             Prefs.setLastSinQuality(sinQCombo.getSelectedIndex());
+            Prefs.setLastRenderer(rendererCombo.getSelectedIndex());
             }
         else if (result == 1) // RESET
             {
             Prefs.setLastNumVoices(Output.DEFAULT_NUM_VOICES);
             Prefs.setLastBufferSize(Output.DEFAULT_BUFFER_SIZE);
             Prefs.setLastNumPartials(Unit.DEFAULT_NUM_PARTIALS);
-            Prefs.setLastNumVoicesPerThread(Output.DEFAULT_NUM_VOICES_PER_THREAD);
-            Prefs.setLastNumOutputsPerThread(Output.DEFAULT_NUM_OUTPUTS_PER_THREAD);
             Prefs.setLastStereo(Output.DEFAULT_STEREO);
             Prefs.setLastSkip(Output.DEFAULT_SKIP);
             Prefs.setLastSinQuality(Output.SIN_QUALITY_DEFAULT);
+            Prefs.setLastRenderer(Output.RENDERER_DEFAULT);
             }
         else if (result == 2 || result == -1)           // CANCEL
             {
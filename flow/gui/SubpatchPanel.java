@@ -278,11 +278,11 @@ public class SubpatchPanel extends JPanel implements Transferable
                 if (!sounds.getValueIsAdjusting())
                     {
                     Output out = rack.getOutput();
+                    out.getGroup(group).setNumRequestedSounds(sounds.getValue());
+                    out.assignGroupsToSounds();             // this takes the lock itself, only briefly
                     out.lock();
                     try
                         {
-                        out.getGroup(group).setNumRequestedSounds(sounds.getValue());
-                        out.assignGroupsToSounds();
                         SubpatchPanel[] sub = rack.getSubpatches();
                         for(int i = 0; i < sub.length; i++)
                             sub[i].updateSoundAllocation();
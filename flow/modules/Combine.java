@@ -5,6 +5,7 @@
 package flow.modules;
 
 import flow.*;
+import java.util.*;
 
 /** 
     A Unit which combines the lower partials of two sources, A, and B.  The way the
@@ -34,6 +35,16 @@ public class Combine extends Unit
 
     int[] outstandingOrders;
     int[] outstandingOrderPositions;
+    boolean[] filledOrders;
+
+    public Object clone()
+        {
+        Combine obj = (Combine)(super.clone());
+        obj.outstandingOrders = null;
+        obj.outstandingOrderPositions = null;
+        obj.filledOrders = null;
+        return obj;
+        }
         
     /// Do we attempt to merge identical frequencies into one frequency, or load them independently?
     boolean merge = false;
@@ -103,9 +114,10 @@ public class Combine extends Unit
         // 1. All of A's orders are preserved
         // 2. Any of B's orders which CAN be preserved without conflicting with #1 will be preserved
         // 3. We arbitrarily assign the remainder
-        // To do this we need some arrays, and we'll have to allocate them every time or otherwise
-        // zero them out.  This allows us to avoid doing sorts, yay.
-        boolean[] filledOrders = new boolean[amplitudes.length];  // all false
+        // To do this we need some arrays, which we allocate once and zero out every time.
+        // This allows us to avoid doing sorts, yay.
+        if (filledOrders == null) filledOrders = new boolean[amplitudes.length];
+        else Arrays.fill(filledOrders, false);
 
         if (outstandingOrders == null) outstandingOrders = new int[amplitudes.length];
         if (outstandingOrderPositions == null) outstandingOrderPositions = new int[amplitudes.length];
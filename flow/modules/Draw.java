@@ -79,6 +79,9 @@ public class Draw extends Unit implements UnitSource
         }
     
     public boolean isConstrainable() { return false; }
+
+    /** Draw's panel displays its partials, so it always runs, whether or not anything reads them. */
+    public boolean hasSideEffects() { return true; }
     
     public void takeSnapshot()
         {
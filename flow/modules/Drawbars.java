@@ -39,7 +39,7 @@ public class Drawbars extends Unit implements UnitSource, Presetable
 
     public static final int NUM_DRAWBARS = 11;
 
-    public void setPercussionType(int type) { percussionType = type; }
+    public void setPercussionType(int type) { percussionType = type; if (sound != null) sound.invalidatePlan(); }
     public int getPercussionType() { return percussionType; }
     public void setTuning(int val) { tuning = val; }
     public int getTuning() { return tuning; }
@@ -187,7 +187,7 @@ public class Drawbars extends Unit implements UnitSource, Presetable
         return obj;
         }
 
-    public void reset() { for(int i = 0; i < previousMods.length; i++) previousMods[i] = Double.NaN; } 
+    public void reset() { for(int i = 0; i < previousMods.length; i++) previousMods[i] = Double.NaN; invalidate(); } 
     
     public void gate()
         {
@@ -204,6 +204,15 @@ public class Drawbars extends Unit implements UnitSource, Presetable
             }
         }
         
+    /** Drawbars depends only on its modulations and options, except while percussion is decaying. */
+    public boolean isMemoizable() { return percussion == 0; }
+
+    /** Drawbars comes out the same in every voice given the same modulations, unless it has percussion,
+        which starts with each voice's gate. */
+    public boolean isVoiceInvariant() { return percussionType == 0; }
+
+    public void invalidate() { super.invalidate(); for(int i = 0; i < previousMods.length; i++) previousMods[i] = Double.NaN; }
+
     public void go()
         {
         super.go();
@@ -165,6 +165,9 @@ public class Filter extends Unit
             }   
         }
        
+    /** Filter depends only on its input, modulations, options and the pitch, so it need not run while they hold still. */
+    public boolean isMemoizable() { return true; }
+
     public void go()
         {
         super.go();
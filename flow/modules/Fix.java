@@ -33,6 +33,9 @@ public class Fix extends Modulation implements Miscellaneous
             new String[] {  "Note", "Velocity" });
         }
 
+    /** Fix sets the Sound's note and velocity, so it always runs. */
+    public boolean hasSideEffects() { return true; }
+
     int lastNoteCounter = -1;
     int lastNote = -1;
     public void go()
@@ -117,6 +117,14 @@ public class HarmonicLab extends Unit implements UnitSource
             ALL_PARTIALS[i] = i;
         }
         
+    /** HarmonicLab depends only on its modulations and options, so it need not run while they hold still. */
+    public boolean isMemoizable() { return true; }
+
+    /** HarmonicLab comes out the same in every voice given the same modulations. */
+    public boolean isVoiceInvariant() { return true; }
+
+    public void invalidate() { super.invalidate(); firstTime = true; }
+
     public void go()
         {
         super.go();
@@ -34,6 +34,12 @@ public class Harmonics extends Unit implements UnitSource
         defineInputs( new Unit[] { Unit.NIL }, new String[] { "Source" });
         }
 
+    /** Harmonics depends only on its modulations, so it need not run while they hold still. */
+    public boolean isMemoizable() { return true; }
+
+    /** Harmonics comes out the same in every voice given the same modulations. */
+    public boolean isVoiceInvariant() { return true; }
+
     public void go()
         {
         super.go();
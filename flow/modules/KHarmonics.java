@@ -25,19 +25,14 @@ public class KHarmonics extends Unit implements UnitSource
     static final String[] NAMES = new String[NUM_HARMONICS];
 
     boolean normalize;
-    boolean oldNormalize;
     public boolean getNormalize() { return normalize; }
     public void setNormalize(boolean val) { normalize = val; setHarmonics(getHarmonics()); }
     
-    double mod = Double.NaN;
-        
     int harmonics = 0;
-    int oldHarmonics = 0;
     public int getHarmonics() { return harmonics; }
     public void setHarmonics(int harm) { harmonics = harm; }
 
     int harmonics2 = 0;
-    int oldHarmonics2 = 0;
     public int getHarmonics2() { return harmonics2; }
     public void setHarmonics2(int harm) { harmonics2 = harm; }
 
@@ -86,42 +81,40 @@ public class KHarmonics extends Unit implements UnitSource
         scan.close();
         }
 
+    /** KHarmonics depends only on its modulation and options, so it need not run while they hold still. */
+    public boolean isMemoizable() { return true; }
+
+    /** KHarmonics comes out the same in every voice given the same modulation. */
+    public boolean isVoiceInvariant() { return true; }
+
     public void go()
         {
         super.go();
         
         double m = modulate(0);
-        if (m != mod || normalize != oldNormalize || oldHarmonics != harmonics || oldHarmonics2 != harmonics2)
-            {
-            mod = m;
-            oldNormalize = normalize;
-            oldHarmonics = harmonics;
-            oldHarmonics2 = harmonics2;
-                
-            double[] amplitudes = getAmplitudes(0);
+        double[] amplitudes = getAmplitudes(0);
                         
-            if (mod == 0)
-                {
-                System.arraycopy(HARMONICS[harmonics], 0, amplitudes, 0, Math.min(HARMONICS[harmonics].length, amplitudes.length));
-                }
-            else if (mod == 1)
-                {
-                System.arraycopy(HARMONICS[harmonics2], 0, amplitudes, 0, Math.min(HARMONICS[harmonics2].length, amplitudes.length));
-                }
-            else
-                {
-                double[] h1 = HARMONICS[harmonics];
-                double[] h2 = HARMONICS[harmonics2];
+        if (m == 0)
+            {
+            System.arraycopy(HARMONICS[harmonics], 0, amplitudes, 0, Math.min(HARMONICS[harmonics].length, amplitudes.length));
+            }
+        else if (m == 1)
+            {
+            System.arraycopy(HARMONICS[harmonics2], 0, amplitudes, 0, Math.min(HARMONICS[harmonics2].length, amplitudes.length));
+            }
+        else
+            {
+            double[] h1 = HARMONICS[harmonics];
+            double[] h2 = HARMONICS[harmonics2];
                                 
-                for(int i = 0; i < HARMONICS[harmonics].length; i++)
-                    {
-                    amplitudes[i] = (1 - m) * h1[i] + m * h2[i];
-                    }
+            for(int i = 0; i < HARMONICS[harmonics].length; i++)
+                {
+                amplitudes[i] = (1 - m) * h1[i] + m * h2[i];
                 }
-                                
-            if (normalize) 
-                normalizeAmplitudes();
             }
+                                
+        if (normalize) 
+            normalizeAmplitudes();
         }
                 
     public KHarmonics(Sound sound) 
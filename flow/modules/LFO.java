@@ -75,6 +75,7 @@ public class LFO extends Modulation implements ModSource
     public void setType(int type) { this.type = type; }
     public boolean getFree() { return free; }
     public void setFree(boolean free) { this.free = free; }
+    public boolean isFreeRunning() { return free; }
     public boolean getInvert() { return invert; }
     public void setInvert(boolean invert) { this.invert = invert; }
     public boolean getHalfTrigger() { return halfTrigger; }
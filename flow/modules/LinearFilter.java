@@ -79,7 +79,7 @@ public class LinearFilter extends Unit
 
     boolean relative = false;
     public boolean getRelative() { return relative; }
-    public void setRelative(boolean val) { relative = val; }
+    public void setRelative(boolean val) { relative = val; if (sound != null) sound.invalidatePlan(); }
         
     public static final int OPTION_RELATIVE = 0;
 
@@ -101,6 +101,13 @@ public class LinearFilter extends Unit
             }
         }
 
+    /** LinearFilter depends only on its input, modulations, options and the pitch, so it need not run while they hold still. */
+    public boolean isMemoizable() { return true; }
+
+    /** LinearFilter comes out the same in every voice given the same input and modulations, if its 
+        nodes are relative to middle C rather than to the pitch. */
+    public boolean isVoiceInvariant() { return relative; }
+
     public void go()
         {
         super.go();
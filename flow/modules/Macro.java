@@ -43,6 +43,8 @@ public class Macro extends Unit implements Cloneable
     public static final boolean INCLUDE_PAUSE = true;
     
     Modulation[] modules = new Modulation[0];
+    // The live ones among the modules, which are all that go() runs.  See Sound.compile().
+    Modulation[] plan = new Modulation[0];
     Out out;
     ArrayList<In> ins = new ArrayList<>();
     String patchName = Sound.UNTITLED_PATCH_NAME;
@@ -169,6 +171,14 @@ public class Macro extends Unit implements Cloneable
             modules[i].reset();
         }
 
+    public boolean isFreeRunning()
+        {
+        for(int i = 0; i < modules.length; i++)
+            if (modules[i].isFreeRunning())
+                return true;
+        return false;
+        }
+
     public void gate()
         {
         super.gate();
@@ -204,8 +214,9 @@ public class Macro extends Unit implements Cloneable
 
         double note = sound.getNote();
 
-        for(int i = 0; i < modules.length; i++)
-            modules[i].go();
+        for(int i = 0; i < plan.length; i++)
+            if (!plan[i].isUpToDate())
+                plan[i].go();
                 
         if (out != null)
             {
@@ -294,6 +305,7 @@ public class Macro extends Unit implements Cloneable
         {
         this.modules = modules;  // now it's set
         this.patchName  = patchName;
+        plan = Sound.compile(modules);
         
         for(int m = 0; m < modules.length; m++)
             {
@@ -130,6 +130,24 @@ public class Out extends Unit implements Miscellaneous
 
     public boolean showsOutputs() { return false; }
 
+    // The arrays of the Output's frame for our Sound, which go() writes our partials into
+    // directly rather than having Output copy them.  These change every tick.
+    double[] frameAmplitudes;
+    double[] frameFrequencies;
+    byte[] frameOrders;
+    
+    /** Called by Output before each go() to set the arrays which a top-level Out writes its
+        partials into.  Out takes these over as its output port 0. */
+    public void setFrame(double[] amplitudes, double[] frequencies, byte[] orders)
+        {
+        frameAmplitudes = amplitudes;
+        frameFrequencies = frequencies;
+        frameOrders = orders;
+        }
+
+    /** Out feeds the Output, and the GUI's displays, so it always runs. */
+    public boolean hasSideEffects() { return true; }
+
     transient int targetNextTick = 0;
     public static final int TIME_INTERVAL = (int)(Output.SAMPLING_RATE / 1000);         // the amount of time before we add into the modulation buffer
     public void go()
@@ -142,8 +160,18 @@ public class Out extends Unit implements Miscellaneous
         // extract the gain and the output
         if (macro == null)  // going to the output
             {
-            pushFrequencies(0);
-            //pushOrders(0);                      // already pushed in super.go()
+            if (frameAmplitudes != null)
+                {
+                // Write straight into the Output's frame
+                setOutputArrays(0, frameAmplitudes, frameFrequencies, frameOrders);
+                copyFrequencies(0);
+                copyOrders(0);
+                }
+            else
+                {
+                pushFrequencies(0);
+                //pushOrders(0);                      // already pushed in super.go()
+                }
 
             copyAmplitudes(0);
             double[] amplitudes = getAmplitudes(0);
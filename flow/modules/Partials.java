@@ -39,6 +39,12 @@ public class Partials extends Unit implements UnitSource
         defineInputs( new Unit[] { Unit.NIL }, new String[] { "Source" });
         }
         
+    /** Partials depends only on its modulations, so it need not run while they hold still. */
+    public boolean isMemoizable() { return true; }
+
+    /** Partials comes out the same in every voice given the same modulations. */
+    public boolean isVoiceInvariant() { return true; }
+
     public void go()
         {
         super.go();
@@ -82,6 +82,7 @@ public class Seq extends Modulation
     public void setCurve(int val) { curve = val; }
     public boolean getFree() { return free; }
     public void setFree(boolean val) { free = val; }
+    public boolean isFreeRunning() { return free; }
     public boolean getRelease() { return release; }
     public void setRelease(boolean val) { release = val; }
     public boolean getSample() { return sample; }
@@ -89,7 +90,10 @@ public class Seq extends Modulation
     public boolean getGuided() { return guided; }
     public void setGuided(boolean val) { guided = val; }
     public boolean getDisplay() { return display; }
-    public void setDisplay(boolean val) { display = val; }
+    public void setDisplay(boolean val) { display = val; if (sound != null) sound.invalidatePlan(); }
+
+    /** When its panel displays the sequence's position, Seq always runs, whether or not anything reads it. */
+    public boolean hasSideEffects() { return display; }
         
     public static final int OPTION_CURVE = 0;
     public static final int OPTION_FREE = 1;
@@ -28,6 +28,17 @@ public class Skeletonize extends Unit
     public static final int DIRECTION_BOTH = 2;
      
     int direction = DIRECTION_BOTH;
+    
+    double[] upcuts;
+    double[] downcuts;
+
+    public Object clone()
+        {
+        Skeletonize obj = (Skeletonize)(super.clone());
+        obj.upcuts = null;
+        obj.downcuts = null;
+        return obj;
+        }
     public int getDirection() { return direction; }
     public void setDirection(int val) { direction = val; }
      
@@ -71,8 +82,11 @@ public class Skeletonize extends Unit
         
         double cut = 1.0 - modulate(MOD_CUT);
 
-        double[] upcuts = new double[amplitudes.length];
-        double[] downcuts = new double[amplitudes.length];  
+        if (upcuts == null)
+            {
+            upcuts = new double[amplitudes.length];
+            downcuts = new double[amplitudes.length];  
+            }
         double c = 1.0;
         
         if (direction == DIRECTION_BOTH)
@@ -30,6 +30,15 @@ public class Sub extends Unit
     public static final int NUM_SUBS = 4;
     public static final double[] SUB_FREQUENCIES = new double[] { 0.5, 0.25, 0.125, .0625 };
 
+    byte[] topOrders = new byte[NUM_SUBS];
+
+    public Object clone()
+        {
+        Sub obj = (Sub)(super.clone());
+        obj.topOrders = new byte[NUM_SUBS];
+        return obj;
+        }
+
     public Sub(Sound sound) 
         {
         super(sound);
@@ -52,7 +61,6 @@ public class Sub extends Unit
         double[] frequencies = getFrequencies(0);
         double[] amplitudes = getAmplitudes(0);
         byte[] orders = getOrders(0);
-        byte[] topOrders = new byte[NUM_SUBS];
         
         // make room at the bottom so we don't have to sort
         for(int j = 0; j < NUM_SUBS; j++)
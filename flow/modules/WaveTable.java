@@ -99,6 +99,9 @@ public class WaveTable extends Unit implements UnitSource
             }
         }
 
+    /** WaveTable comes out the same in every voice given the same modulation, as every voice in a group has the same table. */
+    public boolean isVoiceInvariant() { return true; }
+
     public void go()
         {
         super.go();
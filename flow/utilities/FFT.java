@@ -11,7 +11,13 @@ public class FFT
     {
     public static double[] applyHanningWindow(double[] wave)
         {
-        double[] d = new double[wave.length];
+        return applyHanningWindow(wave, new double[wave.length]);
+        }
+
+    /** Writes the given wave, with a Hanning window applied, into D, which must be
+        the same length, and returns D.  D may be the wave itself. */
+    public static double[] applyHanningWindow(double[] wave, double[] d)
+        {
         System.arraycopy(wave, 0, d, 0, wave.length);
 
         for(int i = 0; i < d.length; i++)
@@ -35,6 +41,22 @@ public class FFT
         return fft;
         }
 
+    /** Like getHarmonics(wave), but without allocating.  PLAN must be of the wave's length.
+        REAL and IMAG, also of that length, are overwritten as scratch space.  The harmonics
+        amplitudes are written into HARMONICS, again of that length, which is returned.  */
+    public static double[] getHarmonics(double[] wave, Plan plan, double[] real, double[] imag, double[] harmonics) 
+        {
+        System.arraycopy(wave, 0, real, 0, real.length);
+        java.util.Arrays.fill(imag, 0);
+        plan.forward(real, imag);
+        double radice = 1 / Math.sqrt(real.length);                     // normalized like fft(...)
+        for(int i = 0; i < harmonics.length; i++)
+            {
+            harmonics[i] = Math.sqrt(real[i] * real[i] + imag[i] * imag[i]) * radice;
+            }
+        return harmonics;
+        }
+
     /**
      * The Fast Fourier Transform (generic version, with NO optimizations).
      *
@@ -151,6 +173,83 @@ public class FFT
         return newArray;
         }
 
+    /**
+     * A precomputed in-place FFT of a fixed size, for code which must do many
+     * transforms quickly and without allocating.  The bit-reversal permutation
+     * and the twiddle factors are computed once in the constructor.  Unlike fft(...),
+     * the transforms are not normalized.
+     */
+    public static class Plan
+        {
+        int n;
+        int[] reverse;
+        double[] cos;
+        double[] sin;
+        
+        /** Builds a plan for transforms of length N, which must be a power of 2. */
+        public Plan(int n)
+            {
+            if (n < 2 || (n & (n - 1)) != 0)
+                throw new IllegalArgumentException("The number of elements is not a power of 2: " + n);
+            this.n = n;
+            int nu = Integer.numberOfTrailingZeros(n);
+            reverse = new int[n];
+            for(int i = 0; i < n; i++)
+                reverse[i] = bitreverseReference(i, nu);
+            cos = new double[n / 2];
+            sin = new double[n / 2];
+            for(int i = 0; i < n / 2; i++)
+                {
+                cos[i] = Math.cos(2 * Math.PI * i / n);
+                sin[i] = Math.sin(2 * Math.PI * i / n);
+                }
+            }
+                
+        /** Returns the length of the transform. */
+        public int getLength() { return n; }
+        
+        /** Replaces REAL and IMAG with their forward transform. */
+        public void forward(double[] real, double[] imag) { transform(real, imag, -1); }
+                
+        /** Replaces REAL and IMAG with their inverse transform, without dividing by N. */
+        public void inverse(double[] real, double[] imag) { transform(real, imag, 1); }
+                
+        void transform(double[] real, double[] imag, double sign)
+            {
+            for(int i = 0; i < n; i++)
+                {
+                int r = reverse[i];
+                if (r > i)
+                    {
+                    double t = real[i]; real[i] = real[r]; real[r] = t;
+                    t = imag[i]; imag[i] = imag[r]; imag[r] = t;
+                    }
+                }
+                        
+            for(int size = 2; size <= n; size *= 2)
+                {
+                int half = size / 2;
+                int step = n / size;
+                for(int start = 0; start < n; start += size)
+                    {
+                    for(int j = 0, k = 0; j < half; j++, k += step)
+                        {
+                        double c = cos[k];
+                        double s = sign * sin[k];
+                        int a = start + j;
+                        int b = a + half;
+                        double tReal = real[b] * c - imag[b] * s;
+                        double tImag = real[b] * s + imag[b] * c;
+                        real[b] = real[a] - tReal;
+                        imag[b] = imag[a] - tImag;
+                        real[a] += tReal;
+                        imag[a] += tImag;
+                        }
+                    }
+                }
+            }
+        }
+
     /**
      * The reference bitreverse function.
      */